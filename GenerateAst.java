@@ -1,6 +1,7 @@
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class GenerateAst {
@@ -13,29 +14,57 @@ public class GenerateAst {
         }
         String outputDir = args[0];
 
-        // Define os tipos de AST para Expressões (Expr)
-        defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods", // NOVO: Declaração de
-                                                                                                  // classe
-                "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
-                "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer"));
+        // Define os tipos de AST para Expressões (Expr).
+        // Campos depois de '|' são anotações mutáveis, preenchidas após o parsing
+        // (por exemplo, pelo Resolver), com um valor inicial opcional.
+        defineAst(outputDir, "Expr", Arrays.asList(
+                "  // Profundidade das variáveis locais da função atual: o slot é a posição no",
+                "  // frame da chamada.",
+                "  public static final int LOCAL = 0;",
+                "  // Marcador de profundidade para variáveis que o Resolver não encontrou em",
+                "  // nenhum escopo local: elas são buscadas nas globais.",
+                "  public static final int GLOBAL = -1;",
+                "  // Marcador de profundidade para variáveis locais de uma função envolvente: o",
+                "  // slot é o índice do upvalue capturado pela closure atual.",
+                "  public static final int UPVALUE = -2;",
+                "",
+                "  // Anotação preenchida pelo Resolver: verdadeiro quando a expressão sempre",
+                "  // produz um número (ou lança um erro), podendo ser avaliada sem boxing.",
+                "  public boolean numeric;"), Arrays.asList(
+                "Assign     : Token name, Expr value | int depth = GLOBAL, int slot, boolean boxed",
+                "Binary     : Expr left, Token operator, Expr right",
+                "Call       : Expr callee, Token paren, List<Expr> arguments | boolean tailCall, Object checkedCallee",
+                "Get        : Expr object, Token name | PropertyCache cache = new PropertyCache()",
+                "Grouping   : Expr expression",
+                "Literal    : Object value",
+                "Logical    : Expr left, Token operator, Expr right",
+                "Set        : Expr object, Token name, Expr value"
+                        + " | PropertyCache cache = new PropertyCache()",
+                "Super      : Token keyword, Token method"
+                        + " | int depth = GLOBAL, int slot, int thisDepth = GLOBAL, int thisSlot",
+                "This       : Token keyword | int depth = GLOBAL, int slot",
+                "Unary      : Token operator, Expr right",
+                "Variable   : Token name | int depth = GLOBAL, int slot, boolean boxed"));
 
         // Define os tipos de AST para Declarações (Stmt)
-        defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+        defineAst(outputDir, "Stmt", Collections.emptyList(), Arrays.asList(
+                "Block      : List<Stmt> statements | int frameSize, Environment frame",
+                // NOVO: Declaração de classe
+                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods"
+                        + " | int slot, boolean boxed, int superSlot",
                 "Expression : Expr expression",
-                "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+                "Function   : Token name, List<Token> params, List<Stmt> body"
+                        + " | int slot, boolean boxed, boolean unused, int[] boxedParams, int[] upvalueDepths, int[] upvalueSlots,"
+                        + " int frameSize, boolean method, boolean hoisted",
+                "If         : Token keyword, Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Var        : Token name, Expr initializer"));
+                "Return     : Token keyword, Expr value",
+                "Var        : Token name, Expr initializer | int slot, boolean boxed, boolean unused",
+                "While      : Token keyword, Expr condition, Stmt body"));
     }
 
     private static void defineAst(
-            String outputDir, String baseName, List<String> types)
+            String outputDir, String baseName, List<String> baseMembers, List<String> types)
             throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         PrintWriter writer = new PrintWriter(path, "UTF-8");
@@ -44,13 +73,25 @@ public class GenerateAst {
         writer.println();
         writer.println("import br.ufma.Token;");
         writer.println("import java.util.List;"); // Necessário para tipos como List<Expr> ou List<Stmt>
+        writer.println();
 
         writer.println("public abstract class " + baseName + " {");
 
+        // Membros extras da classe base (constantes compartilhadas pelos nós).
+        for (String member : baseMembers) {
+            writer.println(member);
+        }
+        if (!baseMembers.isEmpty()) {
+            writer.println();
+        }
+
         // Define a interface Visitor.
         defineVisitor(writer, baseName, types);
 
         writer.println();
+        writer.println("  // O método 'accept' abstrato da classe base " + baseName);
+        writer.println("  public abstract <R> R accept(Visitor<R> visitor);");
+
         // As classes AST.
         for (String type : types) {
             String className = type.split(":")[0].trim();
@@ -77,18 +118,33 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldSpec) {
+        // Separa os campos do construtor das anotações mutáveis (depois de '|').
+        String[] parts = fieldSpec.split("\\|");
+        String fieldList = parts[0].trim();
+        String[] annotations = parts.length > 1 ? parts[1].trim().split(", ") : new String[0];
+
+        writer.println();
         writer.println("  public static class " + className + " extends " +
                 baseName + " {");
 
-        writer.println("    public " + className + "(" + fieldList + ") {");
-
         String[] fields = fieldList.split(", ");
+        for (String field : fields) {
+            writer.println("    public final " + field + ";");
+        }
+        if (annotations.length > 0) {
+            writer.println("    // Anotações preenchidas após o parsing.");
+            for (String annotation : annotations) {
+                writer.println("    public " + annotation + ";");
+            }
+        }
+
+        writer.println();
+        writer.println("    public " + className + "(" + fieldList + ") {");
         for (String field : fields) {
             String name = field.split(" ")[1];
             writer.println("      this." + name + " = " + name + ";");
         }
-
         writer.println("    }");
 
         writer.println();
@@ -98,11 +154,6 @@ public class GenerateAst {
                 className + baseName + "(this);");
         writer.println("    }");
 
-        writer.println();
-        for (String field : fields) {
-            writer.println("    public final " + field + ";");
-        }
-
         writer.println("  }");
     }
-}
\ No newline at end of file
+}
@@ -254,6 +254,7 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         // Exemplo de Stmt.If para AstPrinter: if (true) print "true"; else print
         // "false";
         Stmt ifStmtExample = new Stmt.If(
+                new Token(TokenType.IF, "if", null, 1),
                 new Expr.Literal(true),
                 new Stmt.Print(new Expr.Literal("true")),
                 new Stmt.Print(new Expr.Literal("false")));
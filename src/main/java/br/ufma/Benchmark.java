@@ -0,0 +1,183 @@
+package br.ufma;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compara os mecanismos de execução rodando os mesmos programas Lox em cada um:
+//
+//   java -cp target/classes br.ufma.Benchmark [repetições] [mecanismos...]
+//
+// Cada mecanismo é medido em uma JVM própria, para que o JIT de um não
+// atrapalhe o outro. Lá, cada programa roda 'repetições' vezes (5 por padrão)
+// em um mecanismo novo, e o melhor tempo é o reportado, junto com quantas vezes
+// ele é mais rápido que o primeiro mecanismo (o interpretador da AST, por
+// padrão). A saída dos programas é comparada com a do primeiro mecanismo, então
+// uma divergência aparece como erro.
+public class Benchmark {
+    private static final String[] ENGINES = { "ast", "nodes", "jit", "vm", "register" };
+
+    // Nome e código de cada programa: contas em um laço, chamadas recursivas,
+    // objetos e closures.
+    private static final String[][] PROGRAMS = {
+        { "aritmetica", """
+                fun run() {
+                  var sum = 0;
+                  var i = 0;
+                  while (i < 5000000) {
+                    sum = sum + i * 2 - 1;
+                    i = i + 1;
+                  }
+                  return sum;
+                }
+                print run();
+                """ },
+        { "fib", """
+                fun fib(n) {
+                  if (n < 2) return n;
+                  return fib(n - 1) + fib(n - 2);
+                }
+                print fib(27);
+                """ },
+        { "objetos", """
+                class Point {
+                  init(x, y) { this.x = x; this.y = y; }
+                  length() { return this.x * this.x + this.y * this.y; }
+                }
+                fun run() {
+                  var total = 0;
+                  for (var i = 0; i < 500000; i = i + 1) {
+                    var point = Point(i, 1);
+                    total = total + point.length();
+                  }
+                  return total;
+                }
+                print run();
+                """ },
+        { "closures", """
+                fun counter() {
+                  var count = 0;
+                  fun increment() {
+                    count = count + 1;
+                    return count;
+                  }
+                  return increment;
+                }
+                fun run() {
+                  var next = counter();
+                  var total = 0;
+                  for (var i = 0; i < 1000000; i = i + 1) {
+                    total = total + next();
+                  }
+                  return total;
+                }
+                print run();
+                """ },
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].startsWith("--engine=")) {
+            measure(args[0].substring("--engine=".length()), Integer.parseInt(args[1]));
+            return;
+        }
+        String repetitions = args.length > 0 ? args[0] : "5";
+        String[] engines = ENGINES;
+        if (args.length > 1) {
+            engines = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        // Os resultados de cada mecanismo: uma linha por programa, com o nome, o
+        // melhor tempo em nanossegundos e a saída, separados por tabulações.
+        List<List<String[]>> results = new ArrayList<>();
+        for (String engine : engines) {
+            results.add(child(engine, repetitions));
+        }
+
+        System.out.printf("%-12s", "programa");
+        for (String engine : engines) {
+            System.out.printf("%18s", engine + " (ms)");
+        }
+        System.out.println();
+        for (int program = 0; program < PROGRAMS.length; program++) {
+            String[] baseline = results.get(0).get(program);
+            System.out.printf("%-12s", baseline[0]);
+            for (int i = 0; i < engines.length; i++) {
+                String[] result = results.get(i).get(program);
+                if (!result[2].equals(baseline[2])) {
+                    throw new IllegalStateException(baseline[0] + ": '" + engines[i] + "' printed "
+                            + result[2] + " instead of " + baseline[2]);
+                }
+                long time = Long.parseLong(result[1]);
+                System.out.printf("%10d (%4.1fx)", time / 1_000_000, Double.parseDouble(baseline[1]) / time);
+            }
+            System.out.println();
+        }
+    }
+
+    // Mede um mecanismo em uma nova JVM, com o mesmo classpath.
+    private static List<String[]> child(String engine, String repetitions)
+            throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-Xss16m", "-cp", System.getProperty("java.class.path"),
+                Benchmark.class.getName(), "--engine=" + engine, repetitions)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        List<String[]> results = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                results.add(line.split("\t", 3));
+            }
+        }
+        if (process.waitFor() != 0 || results.size() != PROGRAMS.length) {
+            throw new IllegalStateException("Measuring '" + engine + "' failed.");
+        }
+        return results;
+    }
+
+    // Roda cada programa no mecanismo e imprime o resultado para o processo pai.
+    private static void measure(String engine, int repetitions) {
+        for (String[] program : PROGRAMS) {
+            long best = Long.MAX_VALUE;
+            String output = null;
+            for (int i = 0; i < repetitions; i++) {
+                long start = System.nanoTime();
+                output = run(engine, program[1]);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println(program[0] + "\t" + best + "\t" + output.replace('\n', ' '));
+        }
+    }
+
+    // Roda o programa em um mecanismo novo e retorna o que ele imprimiu.
+    private static String run(String engineName, String source) {
+        Engine engine = Lox.engine(engineName, CallStack.DEFAULT_MAX_DEPTH);
+        if (engine == null) {
+            throw new IllegalArgumentException("Unknown engine '" + engineName + "'.");
+        }
+        List<Token> tokens = new Scanner(source, engine.strings()).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        new Resolver(engine.globals()).resolve(statements);
+        if (Lox.hadError) {
+            throw new IllegalStateException("The benchmark program has errors.");
+        }
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer, true));
+        try {
+            engine.interpret(statements);
+        } finally {
+            System.setOut(out);
+        }
+        if (Lox.hadRuntimeError) {
+            throw new IllegalStateException("The benchmark program failed.");
+        }
+        return buffer.toString().trim();
+    }
+}
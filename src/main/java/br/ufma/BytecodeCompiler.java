@@ -0,0 +1,1280 @@
+package br.ufma;
+
+import static br.ufma.ClassFileWriter.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compila o corpo de uma função Lox já resolvida para bytecode da JVM: uma
+// classe que estende CompiledBody, definida como classe oculta (hidden class)
+// pelo MethodHandles.Lookup deste pacote. Depois disso, o JIT da própria JVM
+// otimiza o código como faria com um método Java.
+//
+// As variáveis locais da função viram variáveis locais do método gerado. Um
+// slot em que só se grava números (o que é deduzido antes de gerar o código)
+// vira um 'double', e as contas sobre ele não criam objetos; os demais guardam
+// o valor como objeto. 'this' e os argumentos são lidos do frame na entrada.
+//
+// Os tokens, os caches de propriedades e as declarações que o código usa são
+// passados ao construtor e ficam em campos finais, fora do bytecode. Assim, a
+// mesma função compilada de novo (o mesmo programa rodando outra vez na mesma
+// JVM, como no Benchmark) gera os mesmos bytes e reaproveita a classe, com o
+// código de máquina que a JVM já produziu para ela. Cada erro é lançado com o
+// token do nó que o causou, então a linha reportada é a mesma do interpretador;
+// a tabela de linhas do método também aponta para as linhas do código Lox.
+//
+// Se a função tem laços, a classe ganha também o método resume, que começa no
+// início de um laço dado com todas as variáveis lidas do frame: é por ele que
+// uma chamada que está no meio de um laço longo passa do interpretador para o
+// código compilado (on-stack replacement), sem esperar a próxima chamada.
+//
+// Funções com até três parâmetros ganham ainda a entrada invoke0..invoke3, que
+// recebe 'this' e os argumentos como parâmetros do método em vez de um frame.
+// É por ela que o código compilado chama outra função compilada.
+//
+// Declarações de classe dentro da função não são compiladas: compile retorna
+// null e a função continua no interpretador.
+final class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // O construtor de cada classe já definida, pelo bytecode dela. Só cresce: o
+    // número de funções diferentes que chegam a ser compiladas é pequeno.
+    private static final Map<ByteBuffer, MethodHandle> CLASSES = new ConcurrentHashMap<>();
+
+    private static final String BODY = "br/ufma/CompiledBody";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String CELL = "br/ufma/Cell";
+    private static final String FUNCTION = "br/ufma/LoxFunction";
+    private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+    private static final String INTERPRETER_TYPE = "Lbr/ufma/JitInterpreter;";
+    private static final String TOKEN_TYPE = "Lbr/ufma/Token;";
+    private static final String CACHE_TYPE = "Lbr/ufma/PropertyCache;";
+    private static final String LOOP_TYPE = "Lbr/ufma/Stmt$While;";
+    private static final String EXECUTE = "(Lbr/ufma/Environment;[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String RESUME = "(Lbr/ufma/Environment;[Ljava/lang/Object;Lbr/ufma/Stmt$While;)Ljava/lang/Object;";
+
+    // Variáveis locais dos métodos execute e resume. Em invoke0..invoke3, a
+    // primeira é o receptor, e os argumentos vêm depois dos upvalues.
+    private static final int FRAME = 1;
+    private static final int RECEIVER = 1;
+    private static final int UPVALUES = 2;
+    private static final int LOOP = 3;
+    private static final int FIRST_ARGUMENT = 3;
+
+    // Os métodos gerados: as entradas pelo frame e a chamada direta.
+    private static final int EXECUTE_METHOD = 0;
+    private static final int RESUME_METHOD = 1;
+    private static final int INVOKE_METHOD = 2;
+
+    // Uma construção que o compilador não traduz.
+    private static final class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final JitInterpreter interpreter;
+    private final Stmt.Function function;
+    private final String className;
+    private final ClassFileWriter writer;
+    private ClassFileWriter.Code code;
+
+    // Os objetos passados à classe e o campo estático de cada um.
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+    private final Map<Object, String> constantFields = new IdentityHashMap<>();
+
+    private boolean[] numberSlots; // Slots que só guardam números (variáveis locais 'double')
+    private final List<Stmt.While> loops = new ArrayList<>(); // Os laços do corpo, na ordem do código
+    private final Map<Stmt.While, Label> loopStarts = new IdentityHashMap<>(); // O início de cada laço no método atual
+    private int[] locals; // A variável local da JVM de cada slot
+    private int temp; // Variáveis locais de rascunho, nunca vivas através de uma subexpressão
+    private int numberTemp;
+    // Variáveis locais de uma chamada direta, vivas só entre a avaliação dos
+    // argumentos e o fim da chamada.
+    private int calleeTemp;
+    private int receiverTemp;
+    private int bodyTemp;
+    private int argumentTemps; // Dois slots por argumento, que pode ser um double
+
+    private BytecodeCompiler(JitInterpreter interpreter, Stmt.Function function) {
+        this.interpreter = interpreter;
+        this.function = function;
+        this.className = "br/ufma/Lox$" + function.name.lexeme;
+        this.writer = new ClassFileWriter(className, BODY, "script.lox");
+    }
+
+    // Compila o corpo da função, ou retorna null se ele usa algo que o
+    // compilador não traduz ou não cabe em uma classe. Qualquer outra falha,
+    // inclusive a JVM recusar a classe gerada, é um erro do compilador e sai
+    // daqui como exceção (veja JitInterpreter.enqueue).
+    static CompiledBody compile(JitInterpreter interpreter, Stmt.Function function) {
+        byte[] bytes;
+        BytecodeCompiler compiler = new BytecodeCompiler(interpreter, function);
+        try {
+            bytes = compiler.compileClass();
+        } catch (Unsupported | ClassFileWriter.TooLarge error) {
+            return null;
+        } catch (StackOverflowError error) {
+            return null; // Expressões aninhadas fundo demais para a pilha da thread de compilação
+        }
+        try {
+            ByteBuffer key = ByteBuffer.wrap(bytes);
+            MethodHandle constructor = CLASSES.get(key);
+            if (constructor == null) {
+                MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(bytes, true);
+                constructor = lookup.findConstructor(lookup.lookupClass(),
+                        MethodType.methodType(void.class, Object[].class));
+                MethodHandle previous = CLASSES.putIfAbsent(key, constructor);
+                if (previous != null) {
+                    constructor = previous;
+                }
+            }
+            return (CompiledBody) constructor.invoke(compiler.constants.toArray());
+        } catch (RuntimeException | Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new IllegalStateException(error); // Exceções checadas da reflexão
+        }
+    }
+
+    private byte[] compileClass() {
+        numberSlots = new SlotTypes().infer();
+        compileMethod(EXECUTE_METHOD);
+        if (!loops.isEmpty()) {
+            compileMethod(RESUME_METHOD);
+        }
+        if (function.params.size() <= 3) {
+            compileMethod(INVOKE_METHOD);
+        }
+
+        // O construtor recebe os objetos que o código usa e os guarda nos campos.
+        ClassFileWriter.Code init = writer.method(0, "<init>", "([Ljava/lang/Object;)V");
+        init.local(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, BODY, "<init>", "()V");
+        for (int i = 0; i < constants.size(); i++) {
+            String type = constantTypes.get(i);
+            writer.field(ACC_FINAL, "k" + i, type);
+            init.local(ALOAD, 0);
+            init.local(ALOAD, 1);
+            init.push(i);
+            init.op(AALOAD);
+            init.type(CHECKCAST, type.substring(1, type.length() - 1));
+            init.field(PUTFIELD, className, "k" + i, type);
+        }
+        init.op(RETURN);
+        init.end();
+        return writer.toByteArray();
+    }
+
+    // Gera execute, que começa pelo início do corpo; resume, que começa no laço
+    // recebido; ou a entrada da chamada direta.
+    private void compileMethod(int method) {
+        boolean resume = method == RESUME_METHOD;
+        if (method == INVOKE_METHOD) {
+            int count = function.params.size();
+            code = writer.method(0, "invoke" + count, "(Lbr/ufma/LoxInstance;[Ljava/lang/Object;"
+                    + OBJECT_TYPE.repeat(count) + ")Ljava/lang/Object;");
+        } else {
+            code = resume ? writer.method(0, "resume", RESUME) : writer.method(0, "execute", EXECUTE);
+        }
+        loopStarts.clear();
+        for (Stmt.While loop : loops) {
+            loopStarts.put(loop, new Label());
+        }
+
+        int frameSize = function.frameSize;
+        locals = new int[frameSize];
+        for (int slot = 0; slot < frameSize; slot++) {
+            locals[slot] = code.newLocal(numberSlots[slot] ? 2 : 1);
+        }
+        temp = code.newLocal(1);
+        numberTemp = code.newLocal(2);
+        calleeTemp = code.newLocal(1);
+        receiverTemp = code.newLocal(1);
+        bodyTemp = code.newLocal(1);
+        argumentTemps = code.newLocal(6);
+
+        // 'this' e os argumentos vêm do frame (ou dos parâmetros do método, na
+        // chamada direta); os demais slots começam zerados para o verificador,
+        // que exige uma escrita antes de qualquer leitura. No resume, todos os
+        // slots vêm do frame, onde o interpretador os deixou.
+        code.line(function.name.line);
+        int parameters = resume ? frameSize : firstParameterSlot() + function.params.size();
+        for (int slot = 0; slot < frameSize; slot++) {
+            if (slot < parameters && method == INVOKE_METHOD) {
+                parameter(slot);
+            } else if (slot < parameters && numberSlots[slot]) {
+                code.local(ALOAD, FRAME);
+                code.push(slot);
+                code.invoke(INVOKESTATIC, BODY, "number", "(Lbr/ufma/Environment;I)D");
+                code.local(DSTORE, locals[slot]);
+            } else if (slot < parameters) {
+                code.local(ALOAD, FRAME);
+                code.push(slot);
+                code.invoke(INVOKEVIRTUAL, "br/ufma/Environment", "get", "(I)Ljava/lang/Object;");
+                code.local(ASTORE, locals[slot]);
+            } else if (numberSlots[slot]) {
+                code.op(DCONST_0);
+                code.local(DSTORE, locals[slot]);
+            } else {
+                code.op(ACONST_NULL);
+                code.local(ASTORE, locals[slot]);
+            }
+        }
+
+        if (resume) {
+            // Desvia para o início do laço pedido; o último dispensa a comparação.
+            int last = loops.size() - 1;
+            for (int i = 0; i < last; i++) {
+                code.local(ALOAD, LOOP);
+                constant(loops.get(i), LOOP_TYPE);
+                code.jump(IF_ACMPEQ, loopStarts.get(loops.get(i)));
+            }
+            code.jump(GOTO, loopStarts.get(loops.get(last)));
+        }
+
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+        if (code.reachable()) {
+            code.op(ACONST_NULL); // Sem 'return' explícito, o valor é nil
+            code.op(ARETURN);
+        }
+        code.end();
+    }
+
+    // Na chamada direta, copia 'this' ou um argumento para a variável local do
+    // seu slot. Os parâmetros nunca são slots numéricos. Um parâmetro que
+    // closures alteram vai para uma Cell, como LoxFunction faz no frame.
+    private void parameter(int slot) {
+        boolean boxed = false;
+        for (int boxedParam : function.boxedParams) {
+            boxed |= boxedParam == slot;
+        }
+        if (boxed) {
+            code.type(NEW, CELL);
+            code.op(DUP);
+        }
+        if (slot < firstParameterSlot()) {
+            code.local(ALOAD, RECEIVER);
+        } else {
+            code.local(ALOAD, FIRST_ARGUMENT + slot - firstParameterSlot());
+        }
+        if (boxed) {
+            code.invoke(INVOKESPECIAL, CELL, "<init>", "(Ljava/lang/Object;)V");
+        }
+        code.local(ASTORE, locals[slot]);
+    }
+
+    // Métodos recebem 'this' no slot 0, e os parâmetros vêm depois dele.
+    private int firstParameterSlot() {
+        return function.method ? 1 : 0;
+    }
+
+    // ----------------------------------------------------
+    // Tipos dos slots
+    // ----------------------------------------------------
+
+    // Deduz quais slots só recebem números. Começa supondo que todos os slots
+    // que não são 'this' nem parâmetros são numéricos e, enquanto algum slot
+    // recebe um valor que não é numérico sob a suposição atual, o retira dela.
+    // Os valores gravados em cada slot são coletados de todo o corpo, menos dos
+    // corpos das funções aninhadas, que têm frames próprios.
+    private final class SlotTypes implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<Expr> values = new ArrayList<>(); // null: um valor que não é número
+
+        boolean[] infer() {
+            for (Stmt statement : function.body) {
+                statement.accept(this);
+            }
+            numberSlots = new boolean[function.frameSize];
+            for (int slot = firstParameterSlot() + function.params.size(); slot < numberSlots.length; slot++) {
+                numberSlots[slot] = true;
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < slots.size(); i++) {
+                    int slot = slots.get(i);
+                    Expr value = values.get(i);
+                    if (numberSlots[slot] && (value == null || !isNumber(value))) {
+                        numberSlots[slot] = false;
+                        changed = true;
+                    }
+                }
+            }
+            return numberSlots;
+        }
+
+        private void write(int slot, Expr value) {
+            slots.add(slot);
+            values.add(value);
+        }
+
+        private Void scan(Expr expr) {
+            if (expr != null) {
+                expr.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            return scan(stmt.expression);
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            write(stmt.slot, null);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) {
+                stmt.elseBranch.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            return scan(stmt.expression);
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            return scan(stmt.value);
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            scan(stmt.initializer);
+            write(stmt.slot, stmt.boxed ? null : stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            loops.add(stmt);
+            scan(stmt.condition);
+            return stmt.body.accept(this);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            scan(expr.value);
+            if (expr.depth == Expr.LOCAL) {
+                write(expr.slot, expr.boxed ? null : expr.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.left);
+            return scan(expr.right);
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            scan(expr.callee);
+            for (Expr argument : expr.arguments) {
+                scan(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            return scan(expr.object);
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            return scan(expr.expression);
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.left);
+            return scan(expr.right);
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            scan(expr.object);
+            return scan(expr.value);
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            return scan(expr.right);
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+    }
+
+    // Verifica se a expressão sempre produz um número (ou lança um erro), sob os
+    // tipos de slot atuais. Essas expressões são compiladas por 'number', que
+    // deixa um double na pilha.
+    private boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Double;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isNumber(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return variable.depth == Expr.LOCAL && !variable.boxed && numberSlots[variable.slot];
+        }
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            return assign.depth == Expr.LOCAL && !assign.boxed && numberSlots[assign.slot];
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    return isNumber(binary.left) && isNumber(binary.right);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // ----------------------------------------------------
+    // Declarações
+    // ----------------------------------------------------
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // As variáveis do bloco já têm slots (e variáveis locais da JVM) próprios.
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = stmt.expression;
+        if (expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expression;
+            if (assign.depth == Expr.LOCAL && !assign.boxed) {
+                // O valor é descartado: grava sem deixar uma cópia na pilha.
+                code.line(assign.name.line);
+                storeLocal(assign.slot, assign.value);
+                return null;
+            }
+        }
+        if (isNumber(expression)) {
+            number(expression);
+            code.op(POP2);
+        } else {
+            value(expression);
+            code.op(POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        code.line(stmt.name.line);
+        if (stmt.hoisted) {
+            // Na recursão mútua, a Cell já foi criada no início do escopo.
+            code.local(ALOAD, locals[stmt.slot]);
+            code.type(CHECKCAST, CELL);
+            newFunction(stmt);
+            code.field(PUTFIELD, CELL, "value", OBJECT_TYPE);
+        } else if (stmt.boxed) {
+            // A Cell existe antes da closure, que pode capturá-la.
+            code.type(NEW, CELL);
+            code.op(DUP);
+            code.op(ACONST_NULL);
+            code.invoke(INVOKESPECIAL, CELL, "<init>", "(Ljava/lang/Object;)V");
+            code.op(DUP);
+            code.local(ASTORE, locals[stmt.slot]);
+            newFunction(stmt);
+            code.field(PUTFIELD, CELL, "value", OBJECT_TYPE);
+        } else {
+            newFunction(stmt);
+            code.local(ASTORE, locals[stmt.slot]);
+        }
+        return null;
+    }
+
+    // Cria a closure da função aninhada, capturando as variáveis que ela usa.
+    private void newFunction(Stmt.Function declaration) {
+        code.type(NEW, FUNCTION);
+        code.op(DUP);
+        constant(declaration, "Lbr/ufma/Stmt$Function;");
+        int count = declaration.upvalueDepths.length;
+        if (count == 0) {
+            code.field(GETSTATIC, BODY, "NO_UPVALUES", "[Ljava/lang/Object;");
+        } else {
+            code.push(count);
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < count; i++) {
+                code.op(DUP);
+                code.push(i);
+                slotValue(declaration.upvalueDepths[i], declaration.upvalueSlots[i]);
+                code.op(AASTORE);
+            }
+        }
+        code.push(false);
+        code.invoke(INVOKESPECIAL, FUNCTION, "<init>", "(Lbr/ufma/Stmt$Function;[Ljava/lang/Object;Z)V");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label otherwise = new Label();
+        branch(stmt.condition, false, otherwise);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            code.bind(otherwise);
+            return null;
+        }
+        Label end = new Label();
+        if (code.reachable()) {
+            code.jump(GOTO, end);
+        }
+        code.bind(otherwise);
+        stmt.elseBranch.accept(this);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        value(stmt.expression);
+        code.invoke(INVOKESTATIC, BODY, "print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        code.line(stmt.keyword.line);
+        if (stmt.value == null) {
+            code.op(ACONST_NULL);
+        } else {
+            // Uma chamada em posição de cauda devolve Interpreter.TAIL_CALL.
+            value(stmt.value);
+        }
+        code.op(ARETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        code.line(stmt.name.line);
+        int local = locals[stmt.slot];
+        if (stmt.boxed) {
+            code.type(NEW, CELL);
+            code.op(DUP);
+            valueOrNil(stmt.initializer);
+            code.invoke(INVOKESPECIAL, CELL, "<init>", "(Ljava/lang/Object;)V");
+            code.local(ASTORE, local);
+        } else if (numberSlots[stmt.slot]) {
+            number(stmt.initializer);
+            code.local(DSTORE, local);
+        } else {
+            valueOrNil(stmt.initializer);
+            code.local(ASTORE, local);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label start = loopStarts.get(stmt);
+        Label end = new Label();
+        code.bind(start);
+        branch(stmt.condition, false, end);
+        stmt.body.accept(this);
+        if (code.reachable()) {
+            code.jump(GOTO, start);
+        }
+        code.bind(end);
+        return null;
+    }
+
+    // ----------------------------------------------------
+    // Expressões como objetos: 'value' deixa o valor Lox na pilha
+    // ----------------------------------------------------
+
+    private void value(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void valueOrNil(Expr expr) {
+        if (expr == null) {
+            code.op(ACONST_NULL);
+        } else {
+            value(expr);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        code.line(expr.name.line);
+        if (expr.depth == Expr.GLOBAL) {
+            constant(interpreter.globals(), "Lbr/ufma/GlobalTable;");
+            code.push(expr.slot);
+            constant(expr.name, TOKEN_TYPE);
+            value(expr.value);
+            code.invoke(INVOKESTATIC, BODY, "assignGlobal",
+                    "(Lbr/ufma/GlobalTable;ILbr/ufma/Token;Ljava/lang/Object;)Ljava/lang/Object;");
+        } else if (expr.boxed) {
+            // A variável capturada (local ou upvalue) mora em uma Cell.
+            slotValue(expr.depth, expr.slot);
+            code.type(CHECKCAST, CELL);
+            value(expr.value);
+            code.op(DUP_X1);
+            code.field(PUTFIELD, CELL, "value", OBJECT_TYPE);
+        } else if (numberSlots[expr.slot]) {
+            number(expr.value);
+            code.op(DUP2);
+            code.local(DSTORE, locals[expr.slot]);
+            box();
+        } else {
+            value(expr.value);
+            code.op(DUP);
+            code.local(ASTORE, locals[expr.slot]);
+        }
+        return null;
+    }
+
+    // Grava o valor em um slot local que não mora em uma Cell.
+    private void storeLocal(int slot, Expr value) {
+        if (numberSlots[slot]) {
+            number(value);
+            code.local(DSTORE, locals[slot]);
+        } else {
+            value(value);
+            code.local(ASTORE, locals[slot]);
+        }
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        code.line(expr.operator.line);
+        switch (expr.operator.type) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                booleanValue(expr);
+                break;
+            default:
+                if (isNumber(expr)) {
+                    number(expr);
+                    box();
+                } else {
+                    // Um '+' que pode ser uma concatenação.
+                    value(expr.left);
+                    value(expr.right);
+                    constant(expr.operator, TOKEN_TYPE);
+                    code.invoke(INVOKESTATIC, BODY, "add",
+                            "(Ljava/lang/Object;Ljava/lang/Object;Lbr/ufma/Token;)Ljava/lang/Object;");
+                }
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int count = expr.arguments.size();
+        if (count <= 3 && !expr.tailCall) {
+            directCall(expr);
+            return null;
+        }
+
+        constant(interpreter, INTERPRETER_TYPE);
+        calleeAndReceiver(expr);
+        StringBuilder descriptor = new StringBuilder("(Lbr/ufma/Interpreter;Ljava/lang/Object;Lbr/ufma/LoxInstance;");
+        String name = "call";
+        if (count <= 3) {
+            boolean numbers = numberArguments(expr);
+            for (Expr argument : expr.arguments) {
+                if (numbers) {
+                    number(argument);
+                } else {
+                    value(argument);
+                }
+            }
+            descriptor.append(argumentTypes(count, numbers));
+            name = "call" + count;
+        } else {
+            code.push(count);
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < count; i++) {
+                code.op(DUP);
+                code.push(i);
+                value(expr.arguments.get(i));
+                code.op(AASTORE);
+            }
+            descriptor.append("[Ljava/lang/Object;");
+        }
+        code.line(expr.paren.line);
+        constant(expr, "Lbr/ufma/Expr$Call;");
+        code.push(expr.tailCall);
+        descriptor.append("Lbr/ufma/Expr$Call;Z)Ljava/lang/Object;");
+        code.invoke(INVOKESTATIC, BODY, name, descriptor.toString());
+        return null;
+    }
+
+    // Uma chamada com até três argumentos fora da posição de cauda. Se o que é
+    // chamado tem o corpo compilado (veja CompiledBody.direct), a chamada vai
+    // direto para o seu invoke0..invoke3, daqui mesmo: cada ponto de chamada
+    // tem o seu próprio invokevirtual, e a JVM pode ligá-lo ao corpo que ele
+    // sempre chama. Senão, segue pelo caminho geral de CompiledBody.call0..call3.
+    // Como em LoxFunction.run, uma exceção lançada pelo corpo deixa a chamada na
+    // pilha de chamadas Lox, que o nível superior esvazia.
+    private void directCall(Expr.Call expr) {
+        int count = expr.arguments.size();
+        calleeAndReceiver(expr);
+        boolean numbers = numberArguments(expr);
+        for (Expr argument : expr.arguments) {
+            if (numbers) {
+                number(argument);
+            } else {
+                value(argument);
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            code.local(numbers ? DSTORE : ASTORE, argumentTemps + 2 * i);
+        }
+        code.local(ASTORE, receiverTemp);
+        code.local(ASTORE, calleeTemp);
+
+        Label slow = new Label();
+        Label done = new Label();
+        code.line(expr.paren.line);
+        constant(interpreter, INTERPRETER_TYPE);
+        code.local(ALOAD, calleeTemp);
+        constant(expr, "Lbr/ufma/Expr$Call;");
+        code.invoke(INVOKESTATIC, BODY, "direct",
+                "(Lbr/ufma/JitInterpreter;Ljava/lang/Object;Lbr/ufma/Expr$Call;)Lbr/ufma/CompiledBody;");
+        code.local(ASTORE, bodyTemp);
+        code.local(ALOAD, bodyTemp);
+        code.jump(IFNULL, slow);
+
+        constant(interpreter, INTERPRETER_TYPE);
+        code.local(ALOAD, calleeTemp);
+        code.local(ALOAD, receiverTemp);
+        constant(expr, "Lbr/ufma/Expr$Call;");
+        code.invoke(INVOKESTATIC, BODY, "enter",
+                "(Lbr/ufma/Interpreter;Ljava/lang/Object;Lbr/ufma/LoxInstance;Lbr/ufma/Expr$Call;)Lbr/ufma/LoxInstance;");
+        code.local(ASTORE, receiverTemp);
+        code.local(ALOAD, bodyTemp);
+        code.local(ALOAD, receiverTemp);
+        code.local(ALOAD, calleeTemp);
+        code.invoke(INVOKESTATIC, BODY, "upvalues", "(Ljava/lang/Object;)[Ljava/lang/Object;");
+        for (int i = 0; i < count; i++) {
+            if (numbers) {
+                code.local(DLOAD, argumentTemps + 2 * i);
+                box();
+            } else {
+                code.local(ALOAD, argumentTemps + 2 * i);
+            }
+        }
+        code.invoke(INVOKEVIRTUAL, BODY, "invoke" + count, "(Lbr/ufma/LoxInstance;[Ljava/lang/Object;"
+                + OBJECT_TYPE.repeat(count) + ")Ljava/lang/Object;");
+        constant(interpreter, INTERPRETER_TYPE);
+        code.local(ALOAD, calleeTemp);
+        code.local(ALOAD, receiverTemp);
+        code.invoke(INVOKESTATIC, BODY, "leave",
+                "(Ljava/lang/Object;Lbr/ufma/Interpreter;Ljava/lang/Object;Lbr/ufma/LoxInstance;)Ljava/lang/Object;");
+        code.jump(GOTO, done);
+
+        code.bind(slow);
+        constant(interpreter, INTERPRETER_TYPE);
+        code.local(ALOAD, calleeTemp);
+        code.local(ALOAD, receiverTemp);
+        for (int i = 0; i < count; i++) {
+            code.local(numbers ? DLOAD : ALOAD, argumentTemps + 2 * i);
+        }
+        constant(expr, "Lbr/ufma/Expr$Call;");
+        code.push(false);
+        code.invoke(INVOKESTATIC, BODY, "call" + count, "(Lbr/ufma/Interpreter;Ljava/lang/Object;Lbr/ufma/LoxInstance;"
+                + argumentTypes(count, numbers) + "Lbr/ufma/Expr$Call;Z)Ljava/lang/Object;");
+        code.bind(done);
+    }
+
+    // Deixa na pilha o que será chamado e o receptor da chamada (veja
+    // receiverAndMethod).
+    private void calleeAndReceiver(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            receiverAndMethod((Expr.Get) expr.callee);
+        } else {
+            value(expr.callee);
+            code.op(ACONST_NULL); // Sem receptor: a função decide o seu 'this'
+        }
+    }
+
+    // Se todos os argumentos são números, vão como double (veja CompiledBody.call1).
+    private boolean numberArguments(Expr.Call expr) {
+        boolean numbers = !expr.arguments.isEmpty();
+        for (Expr argument : expr.arguments) {
+            numbers &= isNumber(argument);
+        }
+        return numbers;
+    }
+
+    private static String argumentTypes(int count, boolean numbers) {
+        return (numbers ? "D" : OBJECT_TYPE).repeat(count);
+    }
+
+    // Para 'obj.nome(...)': deixa na pilha o que será chamado e o receptor. Se
+    // 'nome' é um método da classe, são o método e a instância, sem criar o
+    // método ligado; senão, o valor do campo e null. Como no interpretador, o
+    // objeto é verificado e a propriedade é buscada antes dos argumentos.
+    private void receiverAndMethod(Expr.Get get) {
+        value(get.object);
+        constant(get.name, TOKEN_TYPE);
+        code.invoke(INVOKESTATIC, BODY, "instance", "(Ljava/lang/Object;Lbr/ufma/Token;)Lbr/ufma/LoxInstance;");
+        code.local(ASTORE, temp);
+
+        Label found = new Label();
+        constant(get.cache, CACHE_TYPE);
+        code.local(ALOAD, temp);
+        constant(get.name, TOKEN_TYPE);
+        code.invoke(INVOKEVIRTUAL, "br/ufma/PropertyCache", "findMethod",
+                "(Lbr/ufma/LoxInstance;Lbr/ufma/Token;)Lbr/ufma/LoxFunction;");
+        code.op(DUP);
+        code.jump(IFNONNULL, found);
+        code.op(POP);
+        constant(get.cache, CACHE_TYPE);
+        code.local(ALOAD, temp);
+        constant(get.name, TOKEN_TYPE);
+        code.invoke(INVOKEVIRTUAL, "br/ufma/PropertyCache", "get",
+                "(Lbr/ufma/LoxInstance;Lbr/ufma/Token;)Ljava/lang/Object;");
+        code.op(ACONST_NULL);
+        code.local(ASTORE, temp);
+        code.bind(found);
+        code.local(ALOAD, temp);
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        value(expr.object);
+        constant(expr.cache, CACHE_TYPE);
+        code.line(expr.name.line);
+        constant(expr.name, TOKEN_TYPE);
+        code.invoke(INVOKESTATIC, BODY, "get",
+                "(Ljava/lang/Object;Lbr/ufma/PropertyCache;Lbr/ufma/Token;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) {
+            code.op(ACONST_NULL);
+        } else if (value instanceof Boolean) {
+            code.field(GETSTATIC, BOOLEAN, (boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else if (value instanceof Double) {
+            constant(value, "Ljava/lang/Double;"); // O Double já criado pelo Scanner
+        } else {
+            code.push((String) value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        // O resultado é o próprio valor do lado que decidiu.
+        Label end = new Label();
+        value(expr.left);
+        code.op(DUP);
+        truthy();
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP);
+        value(expr.right);
+        code.bind(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        value(expr.object);
+        code.line(expr.name.line);
+        constant(expr.name, TOKEN_TYPE);
+        code.invoke(INVOKESTATIC, BODY, "fieldOwner", "(Ljava/lang/Object;Lbr/ufma/Token;)Lbr/ufma/LoxInstance;");
+        value(expr.value);
+        constant(expr.cache, CACHE_TYPE);
+        constant(expr.name, TOKEN_TYPE);
+        code.invoke(INVOKESTATIC, BODY, "set",
+                "(Lbr/ufma/LoxInstance;Ljava/lang/Object;Lbr/ufma/PropertyCache;Lbr/ufma/Token;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        code.line(expr.method.line);
+        slotValue(expr.depth, expr.slot);
+        slotValue(expr.thisDepth, expr.thisSlot);
+        constant(expr.method, TOKEN_TYPE);
+        code.invoke(INVOKESTATIC, BODY, "superMethod",
+                "(Ljava/lang/Object;Ljava/lang/Object;Lbr/ufma/Token;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        slotValue(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        code.line(expr.operator.line);
+        if (expr.operator.type == TokenType.BANG) {
+            booleanValue(expr);
+        } else {
+            number(expr);
+            box();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        code.line(expr.name.line);
+        if (expr.depth == Expr.GLOBAL) {
+            constant(interpreter.globals(), "Lbr/ufma/GlobalTable;");
+            code.push(expr.slot);
+            constant(expr.name, TOKEN_TYPE);
+            code.invoke(INVOKEVIRTUAL, "br/ufma/GlobalTable", "get", "(ILbr/ufma/Token;)Ljava/lang/Object;");
+            return null;
+        }
+        slotValue(expr.depth, expr.slot);
+        if (expr.boxed) {
+            code.type(CHECKCAST, CELL);
+            code.field(GETFIELD, CELL, "value", OBJECT_TYPE);
+        }
+        return null;
+    }
+
+    // O conteúdo de um slot local ou de um upvalue, como objeto (uma Cell, se a
+    // variável mora em uma).
+    private void slotValue(int depth, int slot) {
+        if (depth == Expr.UPVALUE) {
+            code.local(ALOAD, UPVALUES);
+            code.push(slot);
+            code.op(AALOAD);
+        } else if (numberSlots[slot]) {
+            code.local(DLOAD, locals[slot]);
+            box();
+        } else {
+            code.local(ALOAD, locals[slot]);
+        }
+    }
+
+    // ----------------------------------------------------
+    // Expressões numéricas: 'number' deixa um double na pilha
+    // ----------------------------------------------------
+
+    // Compila uma expressão para a qual isNumber é verdadeiro.
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            code.push((double) ((Expr.Literal) expr).value);
+        } else if (expr instanceof Expr.Grouping) {
+            number(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Variable) {
+            code.local(DLOAD, locals[((Expr.Variable) expr).slot]);
+        } else if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            code.line(assign.name.line);
+            number(assign.value);
+            code.op(DUP2);
+            code.local(DSTORE, locals[assign.slot]);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            code.line(unary.operator.line);
+            if (isNumber(unary.right)) {
+                number(unary.right);
+            } else {
+                value(unary.right);
+                constant(unary.operator, TOKEN_TYPE);
+                code.invoke(INVOKESTATIC, BODY, "negationOperand", "(Ljava/lang/Object;Lbr/ufma/Token;)D");
+            }
+            code.op(DNEG);
+        } else {
+            Expr.Binary binary = (Expr.Binary) expr;
+            code.line(binary.operator.line);
+            operands(binary);
+            switch (binary.operator.type) {
+                case PLUS:
+                    code.op(DADD);
+                    break;
+                case MINUS:
+                    code.op(DSUB);
+                    break;
+                case STAR:
+                    code.op(DMUL);
+                    break;
+                default: { // SLASH
+                    Label divide = new Label();
+                    code.op(DUP2);
+                    code.op(DCONST_0);
+                    code.op(DCMPL);
+                    code.jump(IFNE, divide);
+                    constant(binary.operator, TOKEN_TYPE);
+                    code.invoke(INVOKESTATIC, BODY, "divisionByZero", "(Lbr/ufma/Token;)Lbr/ufma/RuntimeError;");
+                    code.op(ATHROW);
+                    code.bind(divide);
+                    code.op(DDIV);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Deixa os dois operandos de um operador numérico na pilha, como doubles.
+    // Os dois lados são avaliados antes de qualquer verificação de tipo, então a
+    // ordem dos efeitos e dos erros é a do interpretador.
+    private void operands(Expr.Binary expr) {
+        Token operator = expr.operator;
+        if (isNumber(expr.left)) {
+            number(expr.left);
+            operand(expr.right, operator);
+            return;
+        }
+        value(expr.left);
+        if (isNumber(expr.right)) {
+            number(expr.right);
+            code.local(DSTORE, numberTemp);
+            checkOperand(operator);
+            code.local(DLOAD, numberTemp);
+        } else {
+            value(expr.right);
+            code.local(ASTORE, temp);
+            checkOperand(operator);
+            code.local(ALOAD, temp);
+            checkOperand(operator);
+        }
+    }
+
+    private void operand(Expr expr, Token operator) {
+        if (isNumber(expr)) {
+            number(expr);
+        } else {
+            value(expr);
+            checkOperand(operator);
+        }
+    }
+
+    // Troca o objeto no topo da pilha pelo seu double, ou lança o erro.
+    private void checkOperand(Token operator) {
+        constant(operator, TOKEN_TYPE);
+        code.invoke(INVOKESTATIC, BODY, "operand", "(Ljava/lang/Object;Lbr/ufma/Token;)D");
+    }
+
+    // ----------------------------------------------------
+    // Condições: 'branch' desvia conforme o valor de verdade
+    // ----------------------------------------------------
+
+    // Desvia para 'target' se o valor de verdade da expressão for 'when', e
+    // segue em frente caso contrário. Comparações, '!', 'and' e 'or' viram
+    // desvios diretos, sem criar Booleans.
+    private void branch(Expr expr, boolean when, Label target) {
+        if (expr instanceof Expr.Grouping) {
+            branch(((Expr.Grouping) expr).expression, when, target);
+            return;
+        }
+        if (expr instanceof Expr.Literal) {
+            if (Interpreter.isTruthy(((Expr.Literal) expr).value) == when) {
+                code.jump(GOTO, target);
+            }
+            return;
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            branch(((Expr.Unary) expr).right, !when, target);
+            return;
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            boolean or = logical.operator.type == TokenType.OR;
+            if (or == when) {
+                // 'a or b' verdadeiro, 'a and b' falso: basta um dos lados.
+                branch(logical.left, when, target);
+                branch(logical.right, when, target);
+            } else {
+                Label skip = new Label();
+                branch(logical.left, or, skip);
+                branch(logical.right, when, target);
+                code.bind(skip);
+            }
+            return;
+        }
+        if (expr instanceof Expr.Binary && comparison((Expr.Binary) expr, when, target)) {
+            return;
+        }
+        value(expr);
+        truthy();
+        code.jump(when ? IFNE : IFEQ, target);
+    }
+
+    // Compila comparações e igualdades como desvios; retorna false para os
+    // demais operadores. Com NaN, DCMPG dá 1 e DCMPL dá -1, o que torna falsas
+    // as comparações '<', '<=', '>' e '>=', como em Java.
+    private boolean comparison(Expr.Binary expr, boolean when, Label target) {
+        TokenType type = expr.operator.type;
+        int compare;
+        int jump;
+        switch (type) {
+            case LESS:
+                compare = DCMPG;
+                jump = when ? IFLT : IFGE;
+                break;
+            case LESS_EQUAL:
+                compare = DCMPG;
+                jump = when ? IFLE : IFGT;
+                break;
+            case GREATER:
+                compare = DCMPL;
+                jump = when ? IFGT : IFLE;
+                break;
+            case GREATER_EQUAL:
+                compare = DCMPL;
+                jump = when ? IFGE : IFLT;
+                break;
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                equality(expr, (type == TokenType.EQUAL_EQUAL) == when, target);
+                return true;
+            default:
+                return false;
+        }
+        code.line(expr.operator.line);
+        operands(expr);
+        code.op(compare);
+        code.jump(jump, target);
+        return true;
+    }
+
+    // Desvia se a igualdade dos dois lados for 'equal'. Números são comparados
+    // pelos bits, como Double.equals (que Interpreter.isEqual usa).
+    private void equality(Expr.Binary expr, boolean equal, Label target) {
+        code.line(expr.operator.line);
+        if (isNumber(expr.left) && isNumber(expr.right)) {
+            number(expr.left);
+            code.invoke(INVOKESTATIC, DOUBLE, "doubleToLongBits", "(D)J");
+            number(expr.right);
+            code.invoke(INVOKESTATIC, DOUBLE, "doubleToLongBits", "(D)J");
+            code.op(LCMP);
+            code.jump(equal ? IFEQ : IFNE, target);
+            return;
+        }
+        value(expr.left);
+        value(expr.right);
+        code.invoke(INVOKESTATIC, "br/ufma/Interpreter", "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+        code.jump(equal ? IFNE : IFEQ, target);
+    }
+
+    // O valor de uma condição como Boolean.
+    private void booleanValue(Expr expr) {
+        Label no = new Label();
+        Label end = new Label();
+        branch(expr, false, no);
+        code.field(GETSTATIC, BOOLEAN, "TRUE", "Ljava/lang/Boolean;");
+        code.jump(GOTO, end);
+        code.bind(no);
+        code.field(GETSTATIC, BOOLEAN, "FALSE", "Ljava/lang/Boolean;");
+        code.bind(end);
+    }
+
+    // ----------------------------------------------------
+    // Auxiliares
+    // ----------------------------------------------------
+
+    // Troca o objeto no topo da pilha pelo seu valor de verdade (um int).
+    private void truthy() {
+        code.invoke(INVOKESTATIC, "br/ufma/Interpreter", "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    private void box() {
+        code.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+    }
+
+    // Empilha um objeto passado ao construtor, pelo seu campo.
+    private void constant(Object value, String type) {
+        String field = constantFields.get(value);
+        if (field == null) {
+            field = "k" + constants.size();
+            constants.add(value);
+            constantTypes.add(type);
+            constantFields.put(value, field);
+        }
+        code.local(ALOAD, 0);
+        code.field(GETFIELD, className, field, type);
+    }
+}
@@ -0,0 +1,100 @@
+package br.ufma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A pilha de chamadas Lox: para cada chamada ativa, a função e o token da
+// chamada que a criou. Ela limita a profundidade da recursão a um máximo
+// configurável, reportando "Stack overflow." como um erro de execução Lox, e
+// fornece o rastro das chamadas para a mensagem de erro.
+final class CallStack {
+    static final int DEFAULT_MAX_DEPTH = 20000;
+    // O maior limite aceito em --max-depth: os interpretadores que recursam na
+    // pilha Java reservam uma pilha nativa proporcional a ele.
+    static final int MAX_DEPTH = 200000;
+    // Quantas chamadas mais internas aparecem no rastro de um estouro de pilha.
+    private static final int TRACE_LIMIT = 10;
+
+    private final int maxDepth;
+    private LoxFunction[] functions = new LoxFunction[64];
+    private Token[] callSites = new Token[64];
+    private int depth = 0;
+
+    CallStack(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    // Registra a entrada em 'function', chamada a partir de 'callSite'.
+    void push(LoxFunction function, Token callSite) {
+        if (depth == maxDepth) {
+            throw overflow(callSite);
+        }
+        if (depth == functions.length) {
+            functions = Arrays.copyOf(functions, depth * 2);
+            callSites = Arrays.copyOf(callSites, depth * 2);
+        }
+        functions[depth] = function;
+        callSites[depth] = callSite;
+        depth++;
+    }
+
+    // Uma chamada de cauda troca a função da chamada mais interna.
+    void replaceTop(LoxFunction function) {
+        functions[depth - 1] = function;
+    }
+
+    void pop() {
+        depth--;
+        functions[depth] = null;
+        callSites[depth] = null;
+    }
+
+    // Esvazia a pilha depois de um erro, que deixa nela as chamadas que estavam
+    // ativas.
+    void reset() {
+        Arrays.fill(functions, 0, depth, null);
+        Arrays.fill(callSites, 0, depth, null);
+        depth = 0;
+    }
+
+    // O erro para um StackOverflowError da JVM, que só é tratado no nível
+    // superior, com a pilha Java já desfeita: as chamadas ativas continuam aqui,
+    // e a mais interna, que não coube na pilha Java, é reportada como a chamada
+    // que estourou. Fora de qualquer chamada Lox, o erro não é um estouro da
+    // pilha Lox e é relançado.
+    RuntimeError overflow(StackOverflowError error) {
+        if (depth == 0) {
+            throw error;
+        }
+        depth--;
+        Token callSite = callSites[depth];
+        functions[depth] = null;
+        callSites[depth] = null;
+        return overflow(callSite);
+    }
+
+    // O erro de estouro de pilha, com o rastro das chamadas ativas. 'token' é o
+    // ponto da chamada mais interna onde o estouro aconteceu.
+    RuntimeError overflow(Token token) {
+        return new RuntimeError(token, "Stack overflow.", trace(token));
+    }
+
+    // Monta o rastro, da chamada mais interna para a mais externa. Cada linha
+    // mostra onde a função estava executando: na mais interna, o ponto do erro;
+    // nas outras, a chamada para a função seguinte.
+    private List<String> trace(Token token) {
+        List<String> lines = new ArrayList<>();
+        int line = token.line;
+        for (int i = depth - 1; i >= 0; i--) {
+            if (depth - i <= TRACE_LIMIT) {
+                lines.add("[line " + line + "] in " + functions[i].name() + "()");
+            } else if (depth - i == TRACE_LIMIT + 1) {
+                lines.add("... " + (i + 1) + " more calls");
+            }
+            line = callSites[i].line;
+        }
+        lines.add("[line " + line + "] in script");
+        return lines;
+    }
+}
@@ -0,0 +1,12 @@
+package br.ufma;
+
+// Caixa mutável para uma variável local capturada por closures que pode mudar
+// depois da captura. O Environment da declaração e todas as closures guardam a
+// mesma Cell, então uma atribuição em qualquer lado é vista pelos outros.
+public final class Cell {
+    public Object value;
+
+    public Cell(Object value) {
+        this.value = value;
+    }
+}
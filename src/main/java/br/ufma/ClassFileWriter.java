@@ -0,0 +1,628 @@
+package br.ufma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Monta um arquivo .class na memória, sem bibliotecas externas: o pool de
+// constantes, campos e métodos com o atributo Code, os tratadores de exceção e
+// a tabela de linhas. Só o
+// que o BytecodeCompiler usa está aqui.
+//
+// O arquivo é gerado na versão 49 (Java 5). Até ela, a JVM verifica o bytecode
+// deduzindo sozinha os tipos da pilha e das variáveis locais; a partir da 50 o
+// arquivo precisaria trazer esses tipos prontos em cada destino de desvio
+// (StackMapTable). Nada do que o código gerado usa é mais novo que isso.
+final class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int VERSION = 49;
+
+    // Um limite do formato de classe que o código da função ultrapassou: ela não
+    // cabe em uma classe e continua interpretada. Qualquer outra exceção vinda
+    // daqui é um erro do compilador.
+    static final class TooLarge extends RuntimeException {
+        TooLarge(String message) {
+            super(message);
+        }
+    }
+
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // Instruções usadas pelo código gerado.
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP_X1 = 0x5a;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int LCMP = 0x94;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ACMPEQ = 0xa5;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+    static final int ANEWARRAY = 0xbd;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    // Tags do pool de constantes.
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndices = new HashMap<>(); // Constantes já no pool
+    private int poolCount = 1; // O índice 0 do pool não é usado
+
+    private final int thisClass;
+    private final int superClass;
+    private final int sourceFile;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    // 'name' e 'superName' são nomes internos (com '/'); 'source' é o nome de
+    // arquivo que aparece nos rastros de pilha Java.
+    ClassFileWriter(String name, String superName, String source) {
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+        this.sourceFile = utf8(source);
+    }
+
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0); // Sem atributos
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    // Começa um método; o código é escrito no Code retornado e o método entra na
+    // classe em Code.end.
+    Code method(int access, String name, String descriptor) {
+        return new Code(access, name, descriptor);
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int sourceFileName = utf8("SourceFile");
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // Sem interfaces
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(1);
+            out.writeShort(sourceFileName);
+            out.writeInt(2);
+            out.writeShort(sourceFile);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ----------------------------------------------------
+    // Pool de constantes
+    // ----------------------------------------------------
+
+    private int utf8(String text) {
+        Integer index = poolIndices.get("U" + text);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(text);
+        } catch (UTFDataFormatException error) {
+            throw new TooLarge("String constant too long.");
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return add("U" + text, 1);
+    }
+
+    private int classRef(String name) {
+        return reference(CONSTANT_CLASS, "C" + name, utf8(name), -1);
+    }
+
+    private int string(String text) {
+        return reference(CONSTANT_STRING, "S" + text, utf8(text), -1);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return reference(CONSTANT_NAME_AND_TYPE, "N" + name + " " + descriptor, utf8(name), utf8(descriptor));
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        return reference(tag, tag + owner + "." + name + " " + descriptor, classRef(owner),
+                nameAndType(name, descriptor));
+    }
+
+    private int integer(int value) {
+        Integer index = poolIndices.get("I" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return add("I" + value, 1);
+    }
+
+    private int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeDouble(value);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return add(key, 2); // Um double ocupa duas posições do pool
+    }
+
+    // Uma entrada que aponta para uma ou duas outras ('second' < 0 se só uma).
+    private int reference(int tag, String key, int first, int second) {
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(first);
+            if (second >= 0) {
+                pool.writeShort(second);
+            }
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        return add(key, 1);
+    }
+
+    private int add(String key, int size) {
+        int index = poolCount;
+        poolCount += size;
+        if (poolCount > 0xffff) {
+            throw new TooLarge("Too many constants.");
+        }
+        poolIndices.put(key, index);
+        return index;
+    }
+
+    // Quantas posições da pilha (ou variáveis locais) um valor do tipo ocupa.
+    private static int size(char type) {
+        return type == 'D' || type == 'J' ? 2 : type == 'V' ? 0 : 1;
+    }
+
+    // O tamanho dos argumentos de um descritor de método, em posições da pilha.
+    private static int argumentsSize(String descriptor) {
+        int size = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            while (type == '[') {
+                type = descriptor.charAt(++i);
+                if (type != 'L' && type != '[') {
+                    type = 'L'; // Um array de primitivos é uma referência
+                }
+            }
+            if (type == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            size += size(type);
+            i++;
+        }
+        return size;
+    }
+
+    // ----------------------------------------------------
+    // Código dos métodos
+    // ----------------------------------------------------
+
+    // Um destino de desvio. A posição é conhecida quando o rótulo é marcado; os
+    // desvios anteriores a isso são corrigidos nesse momento.
+    static final class Label {
+        private int position = -1;
+        private int stack = -1; // Altura da pilha de quem desvia para cá
+        private final List<int[]> jumps = new ArrayList<>(); // {posição da instrução, posição do deslocamento, largura}
+    }
+
+    // O código de um método em construção. Acompanha a altura da pilha para
+    // calcular max_stack, e o número de variáveis locais usadas.
+    final class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private final List<int[]> lines = new ArrayList<>(); // {posição, linha}
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private boolean reachable = true; // Falso depois de um goto, return ou throw
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = utf8(name);
+            this.descriptor = utf8(descriptor);
+            this.maxLocals = argumentsSize(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+
+        // Reserva 'size' variáveis locais (2 para um double) e retorna a primeira.
+        int newLocal(int size) {
+            int local = maxLocals;
+            maxLocals += size;
+            return local;
+        }
+
+        // A posição atual no código.
+        int position() {
+            return length;
+        }
+
+        boolean reachable() {
+            return reachable;
+        }
+
+        // Registra que o código a partir daqui vem da linha Lox dada.
+        void line(int line) {
+            if (!lines.isEmpty() && lines.get(lines.size() - 1)[1] == line) {
+                return;
+            }
+            if (!lines.isEmpty() && lines.get(lines.size() - 1)[0] == position()) {
+                lines.remove(lines.size() - 1);
+            }
+            lines.add(new int[] { position(), line });
+        }
+
+        // Uma instrução sem operandos.
+        void op(int opcode) {
+            write(opcode);
+            switch (opcode) {
+                case ACONST_NULL:
+                case DUP:
+                case DUP_X1:
+                    grow(1);
+                    break;
+                case DCONST_0:
+                case DCONST_1:
+                case DUP2:
+                    grow(2);
+                    break;
+                case POP:
+                case AALOAD:
+                    grow(-1);
+                    break;
+                case POP2:
+                case DADD:
+                case DSUB:
+                case DMUL:
+                case DDIV:
+                    grow(-2);
+                    break;
+                case LCMP:
+                case DCMPL:
+                case DCMPG:
+                case AASTORE:
+                    grow(-3);
+                    break;
+                case ARETURN:
+                case ATHROW:
+                    grow(-1);
+                    unreachable();
+                    break;
+                case RETURN:
+                    unreachable();
+                    break;
+                default: // DNEG
+                    break;
+            }
+        }
+
+        // Empilha uma constante inteira.
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                write(BIPUSH);
+                write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                write(SIPUSH);
+                writeShort(value);
+            } else {
+                ldc(integer(value));
+            }
+            grow(1);
+        }
+
+        void push(boolean value) {
+            push(value ? 1 : 0);
+        }
+
+        void push(double value) {
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                write(DCONST_0);
+            } else if (value == 1.0) {
+                write(DCONST_1);
+            } else {
+                write(LDC2_W);
+                writeShort(doubleConstant(value));
+            }
+            grow(2);
+        }
+
+        void push(String value) {
+            ldc(string(value));
+            grow(1);
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xff) {
+                write(LDC);
+                write(index);
+            } else {
+                write(LDC_W);
+                writeShort(index);
+            }
+        }
+
+        // Instruções sobre variáveis locais: DLOAD, ALOAD, DSTORE e ASTORE.
+        void local(int opcode, int local) {
+            if (local > 0xff) {
+                throw new TooLarge("Too many local variables.");
+            }
+            write(opcode);
+            write(local);
+            switch (opcode) {
+                case DLOAD:
+                    grow(2);
+                    break;
+                case DSTORE:
+                    grow(-2);
+                    break;
+                case ASTORE:
+                    grow(-1);
+                    break;
+                default: // ALOAD
+                    grow(1);
+                    break;
+            }
+        }
+
+        // Instruções que recebem uma classe: NEW, ANEWARRAY, CHECKCAST e INSTANCEOF.
+        void type(int opcode, String name) {
+            write(opcode);
+            writeShort(classRef(name));
+            if (opcode == NEW) {
+                grow(1);
+            }
+        }
+
+        // GETSTATIC, PUTSTATIC, GETFIELD e PUTFIELD.
+        void field(int opcode, String owner, String name, String descriptor) {
+            write(opcode);
+            writeShort(member(CONSTANT_FIELDREF, owner, name, descriptor));
+            int size = size(descriptor.charAt(0));
+            switch (opcode) {
+                case GETSTATIC:
+                    grow(size);
+                    break;
+                case PUTSTATIC:
+                    grow(-size);
+                    break;
+                case GETFIELD:
+                    grow(size - 1);
+                    break;
+                default: // PUTFIELD
+                    grow(-size - 1);
+                    break;
+            }
+        }
+
+        // INVOKESTATIC, INVOKEVIRTUAL e INVOKESPECIAL (métodos de classes).
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            write(opcode);
+            writeShort(member(CONSTANT_METHODREF, owner, name, descriptor));
+            int receiver = opcode == INVOKESTATIC ? 0 : 1;
+            grow(size(descriptor.charAt(descriptor.indexOf(')') + 1)) - argumentsSize(descriptor) - receiver);
+        }
+
+        // Um desvio (condicional ou GOTO) para 'target'.
+        void jump(int opcode, Label target) {
+            int position = position();
+            write(opcode);
+            grow(opcode == GOTO ? 0 : opcode == IF_ACMPEQ ? -2 : -1);
+            reference(target, position, 2);
+            if (opcode == GOTO) {
+                unreachable();
+            }
+        }
+
+        // Escreve o deslocamento até 'target' (ou um espaço para ele, se o rótulo
+        // ainda não foi marcado).
+        private void reference(Label target, int instruction, int width) {
+            target.stack = stack;
+            if (target.position >= 0) {
+                writeOffset(target.position - instruction, width);
+            } else {
+                target.jumps.add(new int[] { instruction, position(), width });
+                writeOffset(0, width);
+            }
+        }
+
+        // Marca a posição atual como o destino de 'label'.
+        void bind(Label label) {
+            label.position = position();
+            if (!reachable) {
+                stack = Math.max(label.stack, 0);
+                reachable = true;
+            }
+            label.stack = stack;
+            if (label.jumps.isEmpty()) {
+                return;
+            }
+            for (int[] jump : label.jumps) {
+                int offset = label.position - jump[0];
+                checkOffset(offset, jump[2]);
+                for (int i = 0; i < jump[2]; i++) {
+                    code[jump[1] + i] = (byte) (offset >> (8 * (jump[2] - 1 - i)));
+                }
+            }
+            label.jumps.clear();
+        }
+
+        // Termina o método e o acrescenta à classe.
+        void end() {
+            if (length > 0xffff) {
+                throw new TooLarge("Method too large.");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                int codeName = utf8("Code");
+                int linesName = utf8("LineNumberTable");
+                out.writeShort(access);
+                out.writeShort(name);
+                out.writeShort(descriptor);
+                out.writeShort(1); // O atributo Code
+                out.writeShort(codeName);
+                out.writeInt(12 + length + 8 + 4 * lines.size());
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0); // Sem tabela de exceções
+                out.writeShort(1); // O atributo LineNumberTable
+                out.writeShort(linesName);
+                out.writeInt(2 + 4 * lines.size());
+                out.writeShort(lines.size());
+                for (int[] line : lines) {
+                    out.writeShort(line[0]);
+                    out.writeShort(line[1]);
+                }
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+            methods.add(bytes.toByteArray());
+        }
+
+        private void unreachable() {
+            reachable = false;
+            stack = 0;
+        }
+
+        private void grow(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void writeOffset(int offset, int width) {
+            checkOffset(offset, width);
+            if (width == 2) {
+                writeShort(offset);
+            } else {
+                writeInt(offset);
+            }
+        }
+
+        private void checkOffset(int offset, int width) {
+            if (width == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)) {
+                throw new TooLarge("Method too large.");
+            }
+        }
+
+        private void write(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void writeShort(int value) {
+            write(value >> 8);
+            write(value);
+        }
+
+        private void writeInt(int value) {
+            writeShort(value >> 16);
+            writeShort(value);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package br.ufma;
+
+import java.util.Arrays;
+
+// O corpo de uma função Lox compilado para bytecode da JVM pelo
+// BytecodeCompiler. Cada função compilada é uma classe oculta que estende esta e
+// implementa execute; o restante são as operações que o código gerado chama
+// quando elas não cabem em poucas instruções (chamadas, propriedades, erros).
+//
+// O protocolo é o mesmo de Interpreter.executeBody: o frame chega com 'this' e
+// os argumentos nos seus slots, e o resultado é o valor do 'return' (null se
+// não houver um) ou Interpreter.TAIL_CALL, com a chamada de cauda pendente no
+// interpretador. Assim, funções compiladas e interpretadas chamam umas às
+// outras pelos caminhos de sempre (LoxCallable e LoxFunction.run).
+//
+// Entre duas funções compiladas, a chamada não precisa do frame: o código
+// gerado chama invoke0..invoke3 do corpo chamado, com 'this' e os argumentos
+// como parâmetros da JVM (veja BytecodeCompiler.directCall).
+abstract class CompiledBody {
+    static final Object[] NO_UPVALUES = new Object[0];
+
+    abstract Object execute(Environment frame, Object[] upvalues);
+
+    // Continua uma chamada que o interpretador começou, a partir do início do
+    // laço 'loop' do corpo, com as variáveis como estão no frame. O resultado é
+    // o mesmo de execute. Só as funções com laços o implementam.
+    Object resume(Environment frame, Object[] upvalues, Stmt.While loop) {
+        throw new IllegalStateException("No loops were compiled.");
+    }
+
+    // A entrada da chamada direta, para funções com até três parâmetros: o
+    // mesmo que execute, com 'this' (null se não for um método) e os
+    // argumentos no lugar do frame.
+
+    Object invoke0(LoxInstance receiver, Object[] upvalues) {
+        throw new IllegalStateException("No direct entry was compiled.");
+    }
+
+    Object invoke1(LoxInstance receiver, Object[] upvalues, Object a) {
+        throw new IllegalStateException("No direct entry was compiled.");
+    }
+
+    Object invoke2(LoxInstance receiver, Object[] upvalues, Object a, Object b) {
+        throw new IllegalStateException("No direct entry was compiled.");
+    }
+
+    Object invoke3(LoxInstance receiver, Object[] upvalues, Object a, Object b, Object c) {
+        throw new IllegalStateException("No direct entry was compiled.");
+    }
+
+    // O valor de um slot numérico na entrada por resume. Um slot cuja variável
+    // ainda não foi declarada não guarda um número; ele será escrito antes de
+    // ser lido.
+    static double number(Environment frame, int slot) {
+        return frame.isNumber(slot) ? frame.getNumber(slot) : 0;
+    }
+
+    // ----------------------------------------------------
+    // Chamadas
+    // ----------------------------------------------------
+
+    // Chama 'callee' com os argumentos dados. 'receiver' é a instância de uma
+    // chamada 'obj.metodo(...)' quando 'callee' é o método encontrado na classe
+    // (null nos demais casos); 'site' é a expressão da chamada, com o token e a
+    // aridade já verificada (veja Interpreter.accepts); 'tail' indica uma
+    // chamada em posição de cauda.
+
+    static Object call0(Interpreter interpreter, Object callee, LoxInstance receiver, Expr.Call site,
+            boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            return run(interpreter, function, function.newFrame(instance), instance, site, tail);
+        }
+        return callValue(interpreter, callee, site);
+    }
+
+    static Object call1(Interpreter interpreter, Object callee, LoxInstance receiver, Object a, Expr.Call site,
+            boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            frame.set(function.firstParameterSlot(instance), a);
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, a);
+    }
+
+    static Object call2(Interpreter interpreter, Object callee, LoxInstance receiver, Object a, Object b,
+            Expr.Call site, boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            int slot = function.firstParameterSlot(instance);
+            frame.set(slot, a);
+            frame.set(slot + 1, b);
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, a, b);
+    }
+
+    static Object call3(Interpreter interpreter, Object callee, LoxInstance receiver, Object a, Object b,
+            Object c, Expr.Call site, boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            int slot = function.firstParameterSlot(instance);
+            frame.set(slot, a);
+            frame.set(slot + 1, b);
+            frame.set(slot + 2, c);
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, a, b, c);
+    }
+
+    // As mesmas chamadas quando todos os argumentos são números no código
+    // gerado: eles chegam como double e vão para o frame com setNumber, sem
+    // passar por um Double.
+
+    static Object call1(Interpreter interpreter, Object callee, LoxInstance receiver, double a, Expr.Call site,
+            boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            frame.setNumber(function.firstParameterSlot(instance), a);
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, a);
+    }
+
+    static Object call2(Interpreter interpreter, Object callee, LoxInstance receiver, double a, double b,
+            Expr.Call site, boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            int slot = function.firstParameterSlot(instance);
+            frame.setNumber(slot, a);
+            frame.setNumber(slot + 1, b);
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, a, b);
+    }
+
+    static Object call3(Interpreter interpreter, Object callee, LoxInstance receiver, double a, double b,
+            double c, Expr.Call site, boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            int slot = function.firstParameterSlot(instance);
+            frame.setNumber(slot, a);
+            frame.setNumber(slot + 1, b);
+            frame.setNumber(slot + 2, c);
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, a, b, c);
+    }
+
+    static Object call(Interpreter interpreter, Object callee, LoxInstance receiver, Object[] arguments,
+            Expr.Call site, boolean tail) {
+        if (callee instanceof LoxFunction && Interpreter.accepts(site, (LoxFunction) callee)) {
+            LoxFunction function = (LoxFunction) callee;
+            LoxInstance instance = receiver != null ? receiver : function.receiver();
+            Environment frame = function.newFrame(instance);
+            int slot = function.firstParameterSlot(instance);
+            for (Object argument : arguments) {
+                frame.set(slot++, argument);
+            }
+            return run(interpreter, function, frame, instance, site, tail);
+        }
+        return callValue(interpreter, callee, site, arguments);
+    }
+
+    // A chamada direta, em partes que o código gerado chama em volta de
+    // invoke0..invoke3. 'callee' é o mesmo valor em todas elas.
+
+    // O corpo compilado a chamar se 'callee' é uma função (ou uma classe cujo
+    // 'init' é uma função) com a aridade da chamada e o corpo já compilado;
+    // null manda a chamada pelo caminho geral.
+    static CompiledBody direct(JitInterpreter interpreter, Object callee, Expr.Call site) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return Interpreter.accepts(site, function) ? interpreter.compiled(function.declaration()) : null;
+        }
+        if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass) callee;
+            LoxFunction initializer = klass.initializer();
+            return initializer != null && Interpreter.accepts(site, klass)
+                    ? interpreter.compiled(initializer.declaration()) : null;
+        }
+        return null;
+    }
+
+    // Entra na função na pilha de chamadas Lox e retorna o seu 'this': o
+    // receptor da chamada, o de um método ligado ou, para uma classe, a nova
+    // instância.
+    static LoxInstance enter(Interpreter interpreter, Object callee, LoxInstance receiver, Expr.Call site) {
+        if (callee instanceof LoxClass) {
+            interpreter.callStack.push(function(callee), site.paren);
+            return new LoxInstance((LoxClass) callee);
+        }
+        LoxFunction function = (LoxFunction) callee;
+        interpreter.callStack.push(function, site.paren);
+        return receiver != null ? receiver : function.receiver();
+    }
+
+    static Object[] upvalues(Object callee) {
+        return function(callee).upvalues();
+    }
+
+    // Conclui a chamada com o valor devolvido pelo corpo (veja
+    // LoxFunction.finish) e sai da pilha de chamadas.
+    static Object leave(Object value, Interpreter interpreter, Object callee, LoxInstance instance) {
+        Object result = function(callee).finish(interpreter, value, instance);
+        interpreter.callStack.pop();
+        return result;
+    }
+
+    private static LoxFunction function(Object callee) {
+        return callee instanceof LoxClass ? ((LoxClass) callee).initializer() : (LoxFunction) callee;
+    }
+
+    // Executa a função com o frame já preenchido, ou a deixa pendente para a
+    // função atual se a chamada está em posição de cauda.
+    private static Object run(Interpreter interpreter, LoxFunction function, Environment frame,
+            LoxInstance instance, Expr.Call site, boolean tail) {
+        if (tail) {
+            interpreter.tailFunction = function;
+            interpreter.tailFrame = frame;
+            interpreter.tailInstance = instance;
+            return Interpreter.TAIL_CALL;
+        }
+        return function.run(interpreter, frame, instance, site.paren);
+    }
+
+    // Chama o que não é uma função Lox com a aridade certa: uma classe, outro
+    // chamável ou um valor que não pode ser chamado (erro).
+    private static Object callValue(Interpreter interpreter, Object callee, Expr.Call site, Object... arguments) {
+        int count = arguments.length;
+        if (callee instanceof LoxClass && Interpreter.accepts(site, (LoxClass) callee)) {
+            LoxClass klass = (LoxClass) callee;
+            LoxInstance instance = new LoxInstance(klass);
+            LoxFunction initializer = klass.initializer();
+            if (initializer != null) {
+                Environment frame = initializer.newFrame(instance);
+                int slot = initializer.firstParameterSlot(instance);
+                for (Object argument : arguments) {
+                    frame.set(slot++, argument);
+                }
+                initializer.run(interpreter, frame, instance, site.paren);
+            }
+            return instance;
+        }
+
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(site.paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (count != function.arity()) {
+            throw new RuntimeError(site.paren, "Expected " + function.arity() + " arguments but got " + count + ".");
+        }
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    // ----------------------------------------------------
+    // Propriedades
+    // ----------------------------------------------------
+
+    // O objeto de 'obj.nome' ou de 'obj.nome(...)', que precisa ser uma instância.
+    static LoxInstance instance(Object object, Token name) {
+        if (object instanceof LoxInstance) {
+            return (LoxInstance) object;
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    // O objeto de 'obj.nome = valor'.
+    static LoxInstance fieldOwner(Object object, Token name) {
+        if (object instanceof LoxInstance) {
+            return (LoxInstance) object;
+        }
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    static Object get(Object object, PropertyCache cache, Token name) {
+        return cache.get(instance(object, name), name);
+    }
+
+    static Object set(LoxInstance instance, Object value, PropertyCache cache, Token name) {
+        cache.set(instance, name, value);
+        return value;
+    }
+
+    // 'super.metodo': o método da superclasse ligado ao 'this' atual.
+    static Object superMethod(Object superclass, Object instance, Token method) {
+        LoxFunction function = ((LoxClass) superclass).findMethod(method.lexeme);
+        if (function == null) {
+            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+        }
+        return function.bind((LoxInstance) instance);
+    }
+
+    // ----------------------------------------------------
+    // Operadores e erros
+    // ----------------------------------------------------
+
+    // O '+' quando não se sabe de antemão que os dois lados são números.
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        return Interpreter.concatenate(operator, left, right);
+    }
+
+    // Um operando de um operador binário numérico que não se sabe ser um número.
+    static double operand(Object value, Token operator) {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    // O operando da negação numérica.
+    static double negationOperand(Object value, Token operator) {
+        Interpreter.checkNumberOperand(operator, value);
+        return (double) value;
+    }
+
+    static RuntimeError divisionByZero(Token operator) {
+        return new RuntimeError(operator, "Division by zero.");
+    }
+
+    static Object assignGlobal(GlobalTable globals, int slot, Token name, Object value) {
+        globals.assign(slot, name, value);
+        return value;
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+}
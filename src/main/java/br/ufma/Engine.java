@@ -0,0 +1,31 @@
+package br.ufma;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Um mecanismo de execução de programas Lox: o interpretador que percorre a AST
+// ou a máquina virtual de bytecode (br.ufma.vm). Os dois recebem o mesmo
+// programa já resolvido e produzem a mesma saída e os mesmos erros.
+public interface Engine {
+    // A tabela de globais do mecanismo, de onde o Resolver tira os índices das
+    // variáveis globais. Ela persiste entre as linhas do REPL.
+    GlobalTable globals();
+
+    // A tabela onde o Scanner interna os identificadores e os literais de
+    // string, para que nomes iguais sejam o mesmo objeto e as tabelas de métodos
+    // e os shapes possam compará-los por referência. Como as globais, ela
+    // persiste entre as linhas do REPL.
+    Map<String, String> strings();
+
+    // Executa as declarações, reportando um erro de execução via Lox.runtimeError.
+    void interpret(List<Stmt> statements);
+
+    // Uma tabela de strings nova. Ela já contém "init", que as classes procuram
+    // com o literal Java.
+    static Map<String, String> newStringTable() {
+        Map<String, String> strings = new HashMap<>();
+        strings.put("init", "init");
+        return strings;
+    }
+}
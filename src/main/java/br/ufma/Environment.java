@@ -1,86 +1,45 @@
 package br.ufma;
 
-import java.util.HashMap;
-import java.util.Map;
-
+// O frame de uma chamada de função (ou de um bloco no nível superior). Todas as
+// variáveis locais da função, inclusive as declaradas em blocos aninhados, têm
+// um slot fixo neste array, calculado pelo Resolver: entrar em um bloco não
+// aloca nada. O que escapa para closures é copiado (ou compartilhado por uma
+// Cell) quando a closure é criada, então o frame nunca sobrevive à chamada.
+//
+// Os valores são guardados na representação de Value: números e booleanos não
+// são empacotados. O Resolver garante que todo slot é escrito antes de ser lido.
 public class Environment {
-    final Environment enclosing; // Ambiente pai (null para o ambiente global)
-    private final Map<String, Object> values = new HashMap<>(); // Mapa de variáveis (nome -> valor)
-
-    public Environment() { // Construtor para o ambiente global (sem pai)
-        enclosing = null;
-    }
+    private final long[] values; // Variáveis locais, indexadas pelo slot calculado no Resolver
+    private final Object[] refs; // Objetos do heap dos slots marcados com Value.OBJECT
 
-    public Environment(Environment enclosing) { // Construtor para ambientes aninhados (com pai)
-        this.enclosing = enclosing;
+    public Environment(int size) {
+        this.values = new long[size];
+        this.refs = new Object[size];
     }
 
-    // Define uma nova variável ou sobrescreve uma existente no ambiente ATUAL.
-    public void define(String name, Object value) {
-        values.put(name, value);
+    // Recupera o valor da variável local no slot dado.
+    public Object get(int slot) {
+        return Value.get(values, refs, slot);
     }
 
-    // Recupera o valor de uma variável, procurando no ambiente atual e, se não
-    // encontrar,
-    // nos ambientes pais recursivamente. Usado principalmente para variáveis
-    // globais.
-    public Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        // Se não encontrou no ambiente atual, tenta no ambiente pai.
-        if (enclosing != null) {
-            return enclosing.get(name); // Recursão
-        }
-
-        // Se chegou ao ambiente global e não encontrou, a variável é indefinida.
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    // Define ou atribui a variável local no slot dado.
+    public void set(int slot, Object value) {
+        Value.set(values, refs, slot, value);
     }
 
-    // NOVO: Recupera o valor de uma variável em uma profundidade específica.
-    // Usado pelo interpretador após a resolução estática.
-    public Object getAt(int distance, String name) {
-        // Navega para o ambiente ancestral correto e pega o valor diretamente.
-        return ancestor(distance).values.get(name);
-    }
-
-    // Atribui um novo valor a uma variável existente, procurando no ambiente atual
-    // e, se não encontrar,
-    // nos ambientes pais recursivamente. Usado principalmente para atribuição
-    // global.
-    public void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        // Se não encontrou no ambiente atual, tenta no ambiente pai.
-        if (enclosing != null) {
-            enclosing.assign(name, value); // Recursão
-            return;
-        }
-
-        // Se chegou ao ambiente global e não encontrou, a variável é indefinida para
-        // atribuição.
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "' for assignment.");
+    // Verifica se o slot dado contém um número, sem empacotá-lo.
+    public boolean isNumber(int slot) {
+        return Value.isNumber(values[slot]);
     }
 
-    // NOVO: Atribui um valor a uma variável em uma profundidade específica.
-    // Usado pelo interpretador após a resolução estática.
-    public void assignAt(int distance, Token name, Object value) {
-        // Navega para o ambiente ancestral correto e atribui o valor diretamente.
-        ancestor(distance).values.put(name.lexeme, value);
+    // Lê o número do slot dado; só é válido se isNumber(slot).
+    public double getNumber(int slot) {
+        return Value.asNumber(values[slot]);
     }
 
-    // NOVO: Método auxiliar para encontrar um ambiente ancestral a uma certa
-    // distância.
-    // distance = 0 é o ambiente atual, distance = 1 é o pai, etc.
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
-        }
-        return environment;
+    // Grava um número no slot dado sem empacotá-lo.
+    public void setNumber(int slot, double value) {
+        values[slot] = Value.number(value);
+        refs[slot] = null;
     }
-}
\ No newline at end of file
+}
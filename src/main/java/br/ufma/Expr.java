@@ -4,6 +4,20 @@ import br.ufma.Token;
 import java.util.List; // Necessário para List<Expr> em Call
 
 public abstract class Expr {
+  // Profundidade das variáveis locais da função atual: o slot é a posição no
+  // frame da chamada.
+  public static final int LOCAL = 0;
+  // Marcador de profundidade para variáveis que o Resolver não encontrou em
+  // nenhum escopo local: elas são buscadas nas globais.
+  public static final int GLOBAL = -1;
+  // Marcador de profundidade para variáveis locais de uma função envolvente: o
+  // slot é o índice do upvalue capturado pela closure atual.
+  public static final int UPVALUE = -2;
+
+  // Anotação preenchida pelo Resolver: verdadeiro quando a expressão sempre
+  // produz um número (ou lança um erro), podendo ser avaliada sem boxing.
+  public boolean numeric;
+
   public interface Visitor<R> {
     R visitAssignExpr(Assign expr);
 
@@ -35,6 +49,10 @@ public abstract class Expr {
   public static class Assign extends Expr {
     public final Token name;
     public final Expr value;
+    // Anotações preenchidas após o parsing.
+    public int depth = GLOBAL;
+    public int slot;
+    public boolean boxed;
 
     public Assign(Token name, Expr value) {
       this.name = name;
@@ -68,6 +86,9 @@ public abstract class Expr {
     public final Expr callee;
     public final Token paren;
     public final List<Expr> arguments;
+    // Anotações preenchidas após o parsing.
+    public boolean tailCall;
+    public Object checkedCallee;
 
     public Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
@@ -84,6 +105,8 @@ public abstract class Expr {
   public static class Get extends Expr {
     public final Expr object;
     public final Token name;
+    // Anotações preenchidas após o parsing.
+    public PropertyCache cache = new PropertyCache();
 
     public Get(Expr object, Token name) {
       this.object = object;
@@ -143,6 +166,8 @@ public abstract class Expr {
     public final Expr object;
     public final Token name;
     public final Expr value;
+    // Anotações preenchidas após o parsing.
+    public PropertyCache cache = new PropertyCache();
 
     public Set(Expr object, Token name, Expr value) {
       this.object = object;
@@ -159,6 +184,11 @@ public abstract class Expr {
   public static class Super extends Expr {
     public final Token keyword;
     public final Token method;
+    // Anotações preenchidas após o parsing.
+    public int depth = GLOBAL;
+    public int slot;
+    public int thisDepth = GLOBAL;
+    public int thisSlot;
 
     public Super(Token keyword, Token method) {
       this.keyword = keyword;
@@ -173,6 +203,9 @@ public abstract class Expr {
 
   public static class This extends Expr {
     public final Token keyword;
+    // Anotações preenchidas após o parsing.
+    public int depth = GLOBAL;
+    public int slot;
 
     public This(Token keyword) {
       this.keyword = keyword;
@@ -201,6 +234,10 @@ public abstract class Expr {
 
   public static class Variable extends Expr {
     public final Token name;
+    // Anotações preenchidas após o parsing.
+    public int depth = GLOBAL;
+    public int slot;
+    public boolean boxed;
 
     public Variable(Token name) {
       this.name = name;
@@ -0,0 +1,1010 @@
+package br.ufma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Um nó executável de expressão, criado pelo NodeCompiler a partir da AST.
+//
+// O Interpreter decide a cada avaliação o que fazer: passa por accept/visit,
+// faz um switch no tipo do operador e olha a profundidade da variável. Aqui
+// essas decisões são tomadas uma vez, na compilação: cada operador, cada tipo
+// de literal e cada lugar onde uma variável pode morar (slot do frame, Cell,
+// upvalue ou global) tem sua própria classe de nó, com os filhos já ligados.
+// Um ponto de execução vê sempre a mesma classe de nó, então o JIT pode
+// inlinar a árvore de uma expressão inteira.
+//
+// O que só se sabe na execução, os tipos dos valores, também vira classe de
+// nó: os nós de '+', '==' e '!=' e as escritas em locais começam sem saber os
+// tipos e se trocam (Node.replace) por uma versão especializada para os tipos
+// que viram, que não testa mais o tipo dos operandos. Se a suposição falha, o
+// nó termina a operação com os valores que já calculou e se troca pela versão
+// geral, de onde não sai mais.
+//
+// executeNumber avalia como double, sem criar um Double. Se o valor não é um
+// número, lança UnexpectedResultException com o valor produzido.
+abstract class ExprNode extends Node {
+    // Avalia a expressão no frame da chamada, com os upvalues da closure (o
+    // frame e os upvalues são null no nível superior).
+    abstract Object execute(Environment frame, Object[] upvalues);
+
+    // Avalia a expressão esperando um número.
+    double executeNumber(Environment frame, Object[] upvalues) throws UnexpectedResultException {
+        Object value = execute(frame, upvalues);
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    // Avalia a expressão como condição de 'if', 'while', '!', 'and' ou 'or'.
+    boolean executeCondition(Environment frame, Object[] upvalues) {
+        return Interpreter.isTruthy(execute(frame, upvalues));
+    }
+
+    // Avalia a expressão descartando o resultado (declarações de expressão).
+    void executeVoid(Environment frame, Object[] upvalues) {
+        execute(frame, upvalues);
+    }
+
+    // ----------------------------------------------------
+    // Literais
+    // ----------------------------------------------------
+
+    static final class NilLiteral extends ExprNode {
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return null;
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return false;
+        }
+    }
+
+    static final class BooleanLiteral extends ExprNode {
+        private final boolean value;
+
+        BooleanLiteral(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return value;
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return value;
+        }
+    }
+
+    static final class NumberLiteral extends ExprNode {
+        private final double value;
+        private final Double boxed; // Criado uma vez, para quem precisa de um objeto
+
+        NumberLiteral(double value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return boxed;
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) {
+            return value;
+        }
+    }
+
+    static final class StringLiteral extends ExprNode {
+        private final String value;
+
+        StringLiteral(String value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return value;
+        }
+    }
+
+    // ----------------------------------------------------
+    // Leitura de variáveis (e de 'this', que é o slot 0 ou um upvalue)
+    // ----------------------------------------------------
+
+    static final class LocalRead extends ExprNode {
+        private final int slot;
+
+        LocalRead(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return frame.get(slot);
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) throws UnexpectedResultException {
+            // A etiqueta do slot já diz se é um número, sem empacotar o valor.
+            if (frame.isNumber(slot)) {
+                return frame.getNumber(slot);
+            }
+            throw new UnexpectedResultException(frame.get(slot));
+        }
+    }
+
+    static final class LocalCellRead extends ExprNode {
+        private final int slot;
+
+        LocalCellRead(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return ((Cell) frame.get(slot)).value;
+        }
+    }
+
+    static final class UpvalueRead extends ExprNode {
+        private final int slot;
+
+        UpvalueRead(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return upvalues[slot];
+        }
+    }
+
+    static final class UpvalueCellRead extends ExprNode {
+        private final int slot;
+
+        UpvalueCellRead(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return ((Cell) upvalues[slot]).value;
+        }
+    }
+
+    static final class GlobalRead extends ExprNode {
+        private final GlobalTable globals;
+        private final int slot;
+        private final Token name;
+
+        GlobalRead(GlobalTable globals, int slot, Token name) {
+            this.globals = globals;
+            this.slot = slot;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return globals.get(slot, name);
+        }
+    }
+
+    // ----------------------------------------------------
+    // Atribuições
+    // ----------------------------------------------------
+
+    // A escrita em um local supondo que o valor é um número: o double vai
+    // direto para o frame, e só é empacotado se o valor da atribuição for usado.
+    // Escritas de expressões numéricas (segundo o Resolver) nunca falham; as
+    // outras começam aqui e, no primeiro valor que não é um número, passam a
+    // LocalWrite.
+    static final class LocalNumberWrite extends ExprNode {
+        private final int slot;
+        private ExprNode value;
+
+        LocalNumberWrite(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            try {
+                return executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                return miss.result;
+            }
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) throws UnexpectedResultException {
+            double result;
+            try {
+                result = value.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                generalize(frame, miss.result);
+                throw miss;
+            }
+            frame.setNumber(slot, result);
+            return result;
+        }
+
+        @Override
+        void executeVoid(Environment frame, Object[] upvalues) {
+            try {
+                frame.setNumber(slot, value.executeNumber(frame, upvalues));
+            } catch (UnexpectedResultException miss) {
+                generalize(frame, miss.result);
+            }
+        }
+
+        private void generalize(Environment frame, Object result) {
+            frame.set(slot, result);
+            replace(new LocalWrite(slot, value));
+        }
+    }
+
+    static final class LocalWrite extends ExprNode {
+        private final int slot;
+        private ExprNode value;
+
+        LocalWrite(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object result = value.execute(frame, upvalues);
+            frame.set(slot, result);
+            return result;
+        }
+    }
+
+    static final class LocalCellWrite extends ExprNode {
+        private final int slot;
+        private ExprNode value;
+
+        LocalCellWrite(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object result = value.execute(frame, upvalues);
+            ((Cell) frame.get(slot)).value = result;
+            return result;
+        }
+    }
+
+    static final class UpvalueCellWrite extends ExprNode {
+        private final int slot;
+        private ExprNode value;
+
+        UpvalueCellWrite(int slot, ExprNode value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object result = value.execute(frame, upvalues);
+            ((Cell) upvalues[slot]).value = result;
+            return result;
+        }
+    }
+
+    static final class GlobalWrite extends ExprNode {
+        private final GlobalTable globals;
+        private final int slot;
+        private final Token name;
+        private ExprNode value;
+
+        GlobalWrite(GlobalTable globals, int slot, Token name, ExprNode value) {
+            this.globals = globals;
+            this.slot = slot;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object result = value.execute(frame, upvalues);
+            globals.assign(slot, name, result);
+            return result;
+        }
+    }
+
+    // ----------------------------------------------------
+    // Operadores
+    // ----------------------------------------------------
+
+    // Um operador binário. Os operandos numéricos são lidos como no
+    // Interpreter.numberOperand: se o esquerdo não é um número, o direito ainda
+    // é avaliado antes do erro.
+    abstract static class Binary extends ExprNode {
+        ExprNode left;
+        final Token operator;
+        ExprNode right;
+
+        Binary(ExprNode left, Token operator, ExprNode right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        final double leftNumber(Environment frame, Object[] upvalues) {
+            try {
+                return left.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                right.execute(frame, upvalues);
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+
+        final double rightNumber(Environment frame, Object[] upvalues) {
+            try {
+                return right.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+    }
+
+    static final class Subtract extends Binary {
+        Subtract(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeNumber(frame, upvalues);
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) {
+            return leftNumber(frame, upvalues) - rightNumber(frame, upvalues);
+        }
+    }
+
+    static final class Multiply extends Binary {
+        Multiply(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeNumber(frame, upvalues);
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) {
+            return leftNumber(frame, upvalues) * rightNumber(frame, upvalues);
+        }
+    }
+
+    static final class Divide extends Binary {
+        Divide(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeNumber(frame, upvalues);
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) {
+            double dividend = leftNumber(frame, upvalues);
+            double divisor = rightNumber(frame, upvalues);
+            if (divisor == 0.0) {
+                throw new RuntimeError(operator, "Division by zero.");
+            }
+            return dividend / divisor;
+        }
+    }
+
+    // Um '+' que ainda não foi executado. Na primeira vez, avalia os operandos,
+    // se troca pela versão para os tipos que viu e soma.
+    static final class Add extends Binary {
+        Add(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object leftValue = left.execute(frame, upvalues);
+            Object rightValue = right.execute(frame, upvalues);
+            if (leftValue instanceof Double && rightValue instanceof Double) {
+                replace(new NumberAdd(left, operator, right));
+            } else if (LoxRope.isString(leftValue) && LoxRope.isString(rightValue)) {
+                replace(new StringAdd(left, operator, right));
+            } else {
+                replace(new GenericAdd(left, operator, right));
+            }
+            return GenericAdd.add(operator, leftValue, rightValue);
+        }
+    }
+
+    // Um '+' entre números. É também o nó dos '+' que o Resolver sabe que são
+    // numéricos, para os quais a suposição nunca falha.
+    static final class NumberAdd extends Binary {
+        NumberAdd(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            double leftValue;
+            try {
+                leftValue = left.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                return generalize(miss.result, right.execute(frame, upvalues));
+            }
+            try {
+                return leftValue + right.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                return generalize(leftValue, miss.result);
+            }
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) throws UnexpectedResultException {
+            double leftValue;
+            try {
+                leftValue = left.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                throw new UnexpectedResultException(generalize(miss.result, right.execute(frame, upvalues)));
+            }
+            try {
+                return leftValue + right.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                Object result = generalize(leftValue, miss.result);
+                if (result instanceof Double) {
+                    return (double) result;
+                }
+                throw new UnexpectedResultException(result);
+            }
+        }
+
+        private Object generalize(Object leftValue, Object rightValue) {
+            replace(new GenericAdd(left, operator, right));
+            return GenericAdd.add(operator, leftValue, rightValue);
+        }
+    }
+
+    // Um '+' entre strings: só concatena, sem converter nenhum lado.
+    static final class StringAdd extends Binary {
+        StringAdd(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object leftValue = left.execute(frame, upvalues);
+            Object rightValue = right.execute(frame, upvalues);
+            if (LoxRope.isString(leftValue) && LoxRope.isString(rightValue)) {
+                return LoxRope.concat(leftValue, rightValue);
+            }
+            replace(new GenericAdd(left, operator, right));
+            return GenericAdd.add(operator, leftValue, rightValue);
+        }
+    }
+
+    // Um '+' que já viu tipos diferentes: testa os tipos a cada execução.
+    static final class GenericAdd extends Binary {
+        GenericAdd(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return add(operator, left.execute(frame, upvalues), right.execute(frame, upvalues));
+        }
+
+        // Soma dois números ou concatena, se um dos lados for uma string.
+        static Object add(Token operator, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            return Interpreter.concatenate(operator, left, right);
+        }
+    }
+
+    static final class Greater extends Binary {
+        Greater(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return leftNumber(frame, upvalues) > rightNumber(frame, upvalues);
+        }
+    }
+
+    static final class GreaterEqual extends Binary {
+        GreaterEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return leftNumber(frame, upvalues) >= rightNumber(frame, upvalues);
+        }
+    }
+
+    static final class Less extends Binary {
+        Less(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return leftNumber(frame, upvalues) < rightNumber(frame, upvalues);
+        }
+    }
+
+    static final class LessEqual extends Binary {
+        LessEqual(ExprNode left, Token operator, ExprNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return leftNumber(frame, upvalues) <= rightNumber(frame, upvalues);
+        }
+    }
+
+    // Um '==' (ou '!=', com 'negated') que ainda não foi executado. Na primeira
+    // vez, se troca pela versão para números ou pela geral.
+    static final class Equal extends Binary {
+        private final boolean negated;
+
+        Equal(ExprNode left, Token operator, ExprNode right, boolean negated) {
+            super(left, operator, right);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            Object leftValue = left.execute(frame, upvalues);
+            Object rightValue = right.execute(frame, upvalues);
+            if (leftValue instanceof Double && rightValue instanceof Double) {
+                replace(new NumberEqual(left, operator, right, negated));
+            } else {
+                replace(new GenericEqual(left, operator, right, negated));
+            }
+            return Interpreter.isEqual(leftValue, rightValue) != negated;
+        }
+    }
+
+    // Igualdade entre números, com a mesma semântica de Double.equals usada
+    // por Interpreter.isEqual (que compara os bits).
+    static final class NumberEqual extends Binary {
+        private final boolean negated;
+
+        NumberEqual(ExprNode left, Token operator, ExprNode right, boolean negated) {
+            super(left, operator, right);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            double leftValue;
+            try {
+                leftValue = left.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                return generalize(miss.result, right.execute(frame, upvalues));
+            }
+            double rightValue;
+            try {
+                rightValue = right.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                return generalize(leftValue, miss.result);
+            }
+            return (Double.doubleToLongBits(leftValue) == Double.doubleToLongBits(rightValue)) != negated;
+        }
+
+        private boolean generalize(Object leftValue, Object rightValue) {
+            replace(new GenericEqual(left, operator, right, negated));
+            return Interpreter.isEqual(leftValue, rightValue) != negated;
+        }
+    }
+
+    static final class GenericEqual extends Binary {
+        private final boolean negated;
+
+        GenericEqual(ExprNode left, Token operator, ExprNode right, boolean negated) {
+            super(left, operator, right);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return Interpreter.isEqual(left.execute(frame, upvalues), right.execute(frame, upvalues)) != negated;
+        }
+    }
+
+    static final class Not extends ExprNode {
+        private ExprNode right;
+
+        Not(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeCondition(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return !right.executeCondition(frame, upvalues);
+        }
+    }
+
+    static final class Negate extends ExprNode {
+        private final Token operator;
+        private ExprNode right;
+
+        Negate(Token operator, ExprNode right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return executeNumber(frame, upvalues);
+        }
+
+        @Override
+        double executeNumber(Environment frame, Object[] upvalues) {
+            try {
+                return -right.executeNumber(frame, upvalues);
+            } catch (UnexpectedResultException miss) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+    }
+
+    static final class And extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        And(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object value = left.execute(frame, upvalues);
+            if (!Interpreter.isTruthy(value)) {
+                return value;
+            }
+            return right.execute(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return left.executeCondition(frame, upvalues) && right.executeCondition(frame, upvalues);
+        }
+    }
+
+    static final class Or extends ExprNode {
+        private ExprNode left;
+        private ExprNode right;
+
+        Or(ExprNode left, ExprNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object value = left.execute(frame, upvalues);
+            if (Interpreter.isTruthy(value)) {
+                return value;
+            }
+            return right.execute(frame, upvalues);
+        }
+
+        @Override
+        boolean executeCondition(Environment frame, Object[] upvalues) {
+            return left.executeCondition(frame, upvalues) || right.executeCondition(frame, upvalues);
+        }
+    }
+
+    // ----------------------------------------------------
+    // Chamadas
+    // ----------------------------------------------------
+
+    // O protocolo de chamada do Interpreter: funções e classes Lox com a aridade
+    // certa recebem os argumentos direto nos slots do frame, e uma chamada em
+    // posição de cauda fica pendente para LoxFunction.run (veja
+    // Interpreter.TAIL_CALL).
+    abstract static class Invocation extends ExprNode {
+        final Interpreter interpreter;
+        final Token paren;
+        final ExprNode[] arguments;
+        final boolean tailCall;
+        // Se cada argumento ainda é suposto numérico, podendo ir para o frame
+        // sem ser empacotado. Vira false no primeiro valor que não é um número.
+        private final boolean[] numberArguments;
+        // A declaração (ou classe) cuja aridade já foi verificada aqui, como
+        // Expr.Call.checkedCallee no Interpreter.
+        private Object checkedCallee;
+
+        Invocation(Interpreter interpreter, Token paren, ExprNode[] arguments, boolean tailCall) {
+            this.interpreter = interpreter;
+            this.paren = paren;
+            this.arguments = arguments;
+            this.tailCall = tailCall;
+            this.numberArguments = new boolean[arguments.length];
+            Arrays.fill(numberArguments, true);
+        }
+
+        // Chama o valor 'callee' com os argumentos.
+        final Object call(Object callee, Environment frame, Object[] upvalues) {
+            if (callee instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) callee;
+                if (accepts(function)) {
+                    return callFunction(function, function.receiver(), frame, upvalues);
+                }
+            } else if (callee instanceof LoxClass) {
+                LoxClass klass = (LoxClass) callee;
+                if (accepts(klass)) {
+                    LoxInstance instance = new LoxInstance(klass);
+                    LoxFunction initializer = klass.initializer();
+                    if (initializer != null) {
+                        initializer.run(interpreter, fillFrame(initializer, instance, frame, upvalues), instance,
+                                paren);
+                    }
+                    return instance;
+                }
+            }
+
+            // Os argumentos são sempre avaliados antes das verificações, que podem
+            // falhar.
+            List<Object> values = new ArrayList<>();
+            for (ExprNode argument : arguments) {
+                values.add(argument.execute(frame, upvalues));
+            }
+            return checkCallable(callee).call(interpreter, values);
+        }
+
+        // Se a função aceita o número de argumentos desta chamada; a aridade é
+        // comparada uma vez por declaração (veja Interpreter.accepts).
+        final boolean accepts(LoxFunction function) {
+            Stmt.Function declaration = function.declaration();
+            if (declaration == checkedCallee) {
+                return true;
+            }
+            if (declaration.params.size() != arguments.length) {
+                return false;
+            }
+            checkedCallee = declaration;
+            return true;
+        }
+
+        private boolean accepts(LoxClass klass) {
+            if (klass == checkedCallee) {
+                return true;
+            }
+            if (klass.arity() != arguments.length) {
+                return false;
+            }
+            checkedCallee = klass;
+            return true;
+        }
+
+        // Executa a chamada de uma função cuja aridade já foi verificada.
+        final Object callFunction(LoxFunction function, LoxInstance instance, Environment frame,
+                Object[] upvalues) {
+            Environment callFrame = fillFrame(function, instance, frame, upvalues);
+            if (tailCall) {
+                interpreter.tailFunction = function;
+                interpreter.tailFrame = callFrame;
+                interpreter.tailInstance = instance;
+                return Interpreter.TAIL_CALL;
+            }
+            return function.run(interpreter, callFrame, instance, paren);
+        }
+
+        // Avalia os argumentos direto nos slots do frame da função chamada.
+        private Environment fillFrame(LoxFunction function, LoxInstance instance, Environment frame,
+                Object[] upvalues) {
+            Environment callFrame = function.newFrame(instance);
+            int slot = function.firstParameterSlot(instance);
+            for (int i = 0; i < arguments.length; i++) {
+                if (numberArguments[i]) {
+                    try {
+                        callFrame.setNumber(slot++, arguments[i].executeNumber(frame, upvalues));
+                    } catch (UnexpectedResultException miss) {
+                        callFrame.set(slot - 1, miss.result);
+                        numberArguments[i] = false;
+                    }
+                } else {
+                    callFrame.set(slot++, arguments[i].execute(frame, upvalues));
+                }
+            }
+            return callFrame;
+        }
+
+        private LoxCallable checkCallable(Object callee) {
+            if (!(callee instanceof LoxCallable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            LoxCallable function = (LoxCallable) callee;
+            if (arguments.length != function.arity()) {
+                throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got "
+                        + arguments.length + ".");
+            }
+            return function;
+        }
+    }
+
+    static final class Call extends Invocation {
+        private ExprNode callee;
+
+        Call(Interpreter interpreter, ExprNode callee, Token paren, ExprNode[] arguments, boolean tailCall) {
+            super(interpreter, paren, arguments, tailCall);
+            this.callee = callee;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            return call(callee.execute(frame, upvalues), frame, upvalues);
+        }
+    }
+
+    // Uma chamada 'obj.nome(...)': um método é chamado com 'obj' como 'this',
+    // sem criar o método ligado.
+    static final class Invoke extends Invocation {
+        private ExprNode object;
+        private final Token name;
+        private final PropertyCache cache = new PropertyCache();
+
+        Invoke(Interpreter interpreter, ExprNode object, Token name, Token paren, ExprNode[] arguments,
+                boolean tailCall) {
+            super(interpreter, paren, arguments, tailCall);
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object value = object.execute(frame, upvalues);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            LoxInstance instance = (LoxInstance) value;
+
+            LoxFunction method = cache.findMethod(instance, name);
+            if (method == null) {
+                // Um campo (que pode guardar uma função) ou uma propriedade indefinida.
+                return call(cache.get(instance, name), frame, upvalues);
+            }
+            if (accepts(method)) {
+                return callFunction(method, instance, frame, upvalues);
+            }
+            return call(method, frame, upvalues); // Avalia os argumentos e reporta a aridade errada
+        }
+    }
+
+    // ----------------------------------------------------
+    // Propriedades e 'super'
+    // ----------------------------------------------------
+
+    static final class Get extends ExprNode {
+        private ExprNode object;
+        private final Token name;
+        private final PropertyCache cache = new PropertyCache();
+
+        Get(ExprNode object, Token name) {
+            this.object = object;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object value = object.execute(frame, upvalues);
+            if (value instanceof LoxInstance) {
+                return cache.get((LoxInstance) value, name);
+            }
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+    }
+
+    static final class Set extends ExprNode {
+        private ExprNode object;
+        private final Token name;
+        private ExprNode value;
+        private final PropertyCache cache = new PropertyCache();
+
+        Set(ExprNode object, Token name, ExprNode value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            Object target = object.execute(frame, upvalues);
+            if (!(target instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+            Object result = value.execute(frame, upvalues);
+            cache.set((LoxInstance) target, name, result);
+            return result;
+        }
+    }
+
+    // 'super.metodo': a superclasse e 'this' são lidos pelos nós de variável
+    // correspondentes aos slots que o Resolver gravou.
+    static final class Super extends ExprNode {
+        private ExprNode superclass;
+        private ExprNode instance;
+        private final Token method;
+
+        Super(ExprNode superclass, ExprNode instance, Token method) {
+            this.superclass = superclass;
+            this.instance = instance;
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Environment frame, Object[] upvalues) {
+            LoxClass klass = (LoxClass) superclass.execute(frame, upvalues);
+            LoxInstance receiver = (LoxInstance) instance.execute(frame, upvalues);
+            LoxFunction function = klass.findMethod(method.lexeme);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+            return function.bind(receiver);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package br.ufma;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tabela das variáveis globais. Cada nome recebe um índice estável na primeira
+// vez em que o Resolver o encontra, e os nós da AST guardam esse índice; em tempo
+// de execução, ler ou escrever uma global é um único acesso ao array.
+public class GlobalTable {
+    // Valor dos índices cujo nome ainda não foi declarado com 'var', 'fun' ou
+    // 'class' (por exemplo, uma função que usa uma global definida depois dela).
+    public static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indices = new HashMap<>(); // Nome -> índice (usado só na resolução)
+    private final List<String> names = new ArrayList<>(); // Índice -> nome (para mensagens de erro)
+    private Object[] values = new Object[16];
+
+    public GlobalTable() {
+        Arrays.fill(values, UNDEFINED);
+    }
+
+    // Retorna o índice de um nome global, reservando um novo se ele ainda não
+    // existir. Os índices nunca mudam, então continuam válidos entre linhas do REPL.
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index != null) {
+            return index;
+        }
+
+        int newIndex = indices.size();
+        if (newIndex == values.length) {
+            int oldLength = values.length;
+            values = Arrays.copyOf(values, oldLength * 2);
+            Arrays.fill(values, oldLength, values.length, UNDEFINED);
+        }
+        indices.put(name, newIndex);
+        names.add(name);
+        return newIndex;
+    }
+
+    // Quantos nomes já receberam um índice.
+    public int size() {
+        return names.size();
+    }
+
+    // O nome da global no índice dado.
+    public String name(int index) {
+        return names.get(index);
+    }
+
+    // Define (ou redefine) a global no índice dado.
+    public void define(int index, Object value) {
+        values[index] = value;
+    }
+
+    // Lê a global no índice dado; 'name' é usado apenas para reportar o erro.
+    public Object get(int index, Token name) {
+        Object value = values[index];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        return value;
+    }
+
+    // Lê a global no índice dado sem verificá-la: o resultado é UNDEFINED se ela
+    // ainda não foi declarada. Usado por quem reporta o erro por conta própria.
+    public Object value(int index) {
+        return values[index];
+    }
+
+    // Atribui a uma global já definida; 'name' é usado apenas para reportar o erro.
+    public void assign(int index, Token name, Object value) {
+        if (values[index] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "' for assignment.");
+        }
+        values[index] = value;
+    }
+}
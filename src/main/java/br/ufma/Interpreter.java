@@ -7,20 +7,59 @@ import br.ufma.Token;
 import br.ufma.TokenType;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Engine, Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
 
-    // O ambiente global do interpretador. Permanece o mesmo durante toda a
+    // Como a execução de uma declaração terminou. Um 'return' não lança exceção:
+    // ele devolve RETURN, que blocos, 'if' e laços repassam para cima até o corpo
+    // da função, onde o valor guardado em 'returnValue' é lido.
+    enum Completion {
+        NORMAL,
+        RETURN
+    }
+
+    // As variáveis globais do interpretador. Permanecem as mesmas durante toda a
     // execução.
-    private Environment environment = new Environment();
+    // Cada global tem um índice fixo, atribuído pelo Resolver.
+    private final GlobalTable globals = new GlobalTable();
+    private final Map<String, String> strings = Engine.newStringTable();
+
+    // O frame local atual. É null no código de nível superior, onde as
+    // declarações vão para 'globals'.
+    private Environment environment = null;
+
+    // Os upvalues capturados pela closure em execução (null no nível superior).
+    private Object[] upvalues = null;
+
+    private static final Object[] NO_UPVALUES = new Object[0];
+
+    // As chamadas Lox ativas, com o limite de profundidade da recursão.
+    final CallStack callStack;
+
+    // O valor do último 'return' executado, válido enquanto a conclusão RETURN
+    // sobe até o corpo da função.
+    Object returnValue = null;
+
+    // Valor de retorno que indica uma chamada em posição de cauda pendente: em vez
+    // de executar a função chamada, o 'return' deixa a função, o frame já
+    // preenchido e o 'this' abaixo, e o laço de LoxFunction.run a executa no lugar
+    // da função atual, sem aumentar a pilha Java.
+    static final Object TAIL_CALL = new Object();
+    LoxFunction tailFunction = null;
+    Environment tailFrame = null;
+    LoxInstance tailInstance = null;
+
+    public Interpreter() {
+        this(CallStack.DEFAULT_MAX_DEPTH);
+    }
 
-    // Mapa que armazena a profundidade das variáveis locais resolvidas pelo
-    // Resolver.
-    // A chave é a expressão (Expr.Variable ou Expr.Assign) e o valor é a distância
-    // do escopo atual até o escopo onde a variável foi definida.
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // 'maxCallDepth' é o número máximo de chamadas Lox aninhadas antes de um
+    // erro "Stack overflow.".
+    public Interpreter(int maxCallDepth) {
+        this.callStack = new CallStack(maxCallDepth);
+    }
 
     // Método para interpretar uma única expressão (usado para o prompt, etc.)
     public Object interpret(Expr expression) {
@@ -31,11 +70,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         } catch (RuntimeError error) {
             br.ufma.Lox.runtimeError(error);
             return null;
+        } catch (StackOverflowError error) {
+            br.ufma.Lox.runtimeError(callStack.overflow(error));
+            return null;
+        } finally {
+            callStack.reset();
         }
     }
 
+    @Override
+    public GlobalTable globals() {
+        return globals;
+    }
+
+    @Override
+    public Map<String, String> strings() {
+        return strings;
+    }
+
     // Método para interpretar uma lista de declarações (usado para execução de
     // arquivos/blocos de código)
+    //
+    // A pilha Java da thread do interpretador é dimensionada para o limite de
+    // profundidade (veja Lox.main), que é verificado a cada chamada pela pilha de
+    // chamadas. Se ainda assim a pilha Java acabar, o StackOverflowError é
+    // tratado só aqui, uma vez, como o estouro da pilha Lox.
+    @Override
     public void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
@@ -43,6 +103,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         } catch (RuntimeError error) {
             br.ufma.Lox.runtimeError(error);
+        } catch (StackOverflowError error) {
+            br.ufma.Lox.runtimeError(callStack.overflow(error));
+        } finally {
+            callStack.reset();
         }
     }
 
@@ -52,14 +116,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     // Executa uma declaração, delegando a chamada para o método visit apropriado
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    // Método chamado pelo Resolvedor para informar a profundidade de uma variável.
-    // Essa informação será usada para lookup eficiente de variáveis locais.
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // Executa uma lista de declarações no frame atual, parando em um 'return'.
+    private Completion executeStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (execute(statement) == Completion.RETURN) {
+                return Completion.RETURN;
+            }
+        }
+        return Completion.NORMAL;
     }
 
     // ----------------------------------------------------
@@ -67,14 +135,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // ----------------------------------------------------
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        // Executa um bloco de declarações em um novo escopo (ambiente aninhado).
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        // Um bloco no nível superior com variáveis locais ganha um frame próprio,
+        // criado na primeira execução e reaproveitado nas seguintes (o corpo de um
+        // 'while', por exemplo): o nível superior nunca reentra no mesmo bloco, e
+        // as closures copiam o que capturam, então nada guarda o frame. Dentro de
+        // funções, as variáveis do bloco já têm slots reservados no frame da
+        // chamada, então o bloco não aloca nada.
+        if (environment == null && stmt.frameSize > 0) {
+            if (stmt.frame == null) {
+                stmt.frame = new Environment(stmt.frameSize);
+            }
+            return executeBlock(stmt.statements, stmt.frame);
+        }
+        return executeStatements(stmt.statements);
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) { // IMPLEMENTAÇÃO COMPLETA DE CLASSE
+    public Completion visitClassStmt(Stmt.Class stmt) { // IMPLEMENTAÇÃO COMPLETA DE CLASSE
         // Resolve a superclasse, se houver
         LoxClass superclass = null;
         if (stmt.superclass != null) {
@@ -92,101 +170,151 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         // métodos estáticos).
         // A atribuição final do objeto LoxClass real ocorre após o processamento dos
         // métodos.
-        environment.define(stmt.name.lexeme, null);
-
-        // Cria um novo ambiente para a herança (onde a superclasse fica definida como
-        // 'super').
+        // Se algum método captura o nome da classe, ele mora em uma Cell que é
+        // preenchida no final.
+        Cell cell = stmt.boxed ? new Cell(null) : null;
+        declare(stmt.slot, cell);
+
+        // Guarda a superclasse no slot de 'super', de onde os métodos a capturam.
+        // No nível superior não há frame, então um frame temporário é usado.
+        Environment enclosing = environment;
         if (stmt.superclass != null) {
-            environment = new Environment(environment); // Novo ambiente aninhado
-            environment.define("super", superclass); // 'super' é definido aqui
+            if (environment == null) {
+                environment = new Environment(1);
+            }
+            environment.set(stmt.superSlot, superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        // Monta a tabela de métodos já achatada: começa com todos os métodos que a
+        // superclasse tem (inclusive os herdados) e os métodos desta classe
+        // sobrescrevem os de mesmo nome. Os nomes vêm de lexemas internados pelo
+        // Scanner, então o mapa pode compará-los por identidade.
+        Map<String, LoxFunction> methods = new IdentityHashMap<>();
+        if (superclass != null) {
+            methods.putAll(superclass.methodTable());
+        }
         for (Stmt.Function method : stmt.methods) {
             // Para o construtor 'init', setamos isInitializer como true
             boolean isInitializer = method.name.lexeme.equals("init");
-            LoxFunction function = new LoxFunction(method, environment, isInitializer);
+            LoxFunction function = new LoxFunction(method, capture(method), isInitializer);
             methods.put(method.name.lexeme, function);
         }
 
-        // Cria o objeto LoxClass final com o nome, superclasse e métodos.
+        // Cria o objeto LoxClass final com o nome, superclasse e a tabela de métodos.
         LoxClass klass = new LoxClass(stmt.name.lexeme, superclass, methods);
 
-        // Restaura o ambiente após a superclasse ser processada (remove o ambiente de
-        // 'super').
-        if (stmt.superclass != null) {
-            environment = environment.enclosing;
-        }
+        // Restaura o frame após a superclasse ser processada (descarta o frame
+        // temporário de 'super', se houver).
+        environment = enclosing;
 
         // Atribui a classe real (o objeto LoxClass) ao seu nome no ambiente.
-        environment.assign(stmt.name, klass);
-        return null;
+        if (cell != null) {
+            cell.value = klass;
+        } else if (environment == null) {
+            globals.define(stmt.slot, klass);
+        } else {
+            environment.set(stmt.slot, klass);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         // Apenas avalia a expressão; o resultado é descartado para declarações de
         // expressão.
-        evaluate(stmt.expression);
-        return null;
+        Expr expression = stmt.expression;
+        if (expression instanceof Expr.Assign && storesNumber((Expr.Assign) expression)) {
+            // Como o resultado é descartado, o número nem precisa ser empacotado.
+            assignNumber((Expr.Assign) expression);
+            return Completion.NORMAL;
+        }
+        evaluate(expression);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        // Uma função chamada por outra declarada antes dela (recursão mútua) já
+        // tem a sua Cell, criada no início do escopo.
+        if (stmt.hoisted) {
+            ((Cell) environment.get(stmt.slot)).value = new LoxFunction(stmt, capture(stmt), false);
+            return Completion.NORMAL;
+        }
+        // Uma função que captura a si mesma (recursão local) precisa que sua Cell
+        // exista antes de a closure ser criada.
+        if (stmt.boxed) {
+            Cell cell = new Cell(null);
+            declare(stmt.slot, cell);
+            cell.value = new LoxFunction(stmt, capture(stmt), false);
+            return Completion.NORMAL;
+        }
+
         // isInitializer é false para funções regulares
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function); // Define a função no ambiente
-        return null;
+        LoxFunction function = new LoxFunction(stmt, capture(stmt), false);
+        declare(stmt.slot, function); // Define a função no ambiente
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         // Avalia a condição; se verdadeira, executa o ramo 'then'; senão, o ramo
         // 'else'.
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         // Avalia a expressão e imprime seu valor no console.
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        // Lida com o retorno de uma função, lançando uma exceção para controle de
-        // fluxo.
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        // Lida com o retorno de uma função: guarda o valor e sinaliza a conclusão
+        // RETURN, que os blocos e laços envolventes repassam até o corpo da função.
         Object value = null;
         if (stmt.value != null) { // Se há um valor de retorno, avalia-o
             value = evaluate(stmt.value);
         }
-        throw new Return(value); // Lança a exceção com o valor de retorno
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        // Um local inicializado com uma expressão numérica (ou com outro local que
+        // guarda um número) recebe o double direto no frame.
+        if (environment != null && !stmt.boxed && stmt.initializer != null && producesNumber(stmt.initializer)) {
+            environment.setNumber(stmt.slot, evaluateNumber(stmt.initializer));
+            return Completion.NORMAL;
+        }
+
         // Declara uma nova variável no ambiente atual e, se houver, a inicializa.
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer); // Avalia o inicializador
         }
-        environment.define(stmt.name.lexeme, value); // Define a variável no ambiente
-        return null;
+        // Define a variável no ambiente (dentro de uma Cell se closures a capturam e
+        // ela pode mudar depois).
+        declare(stmt.slot, stmt.boxed ? new Cell(value) : value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) { // IMPLEMENTAÇÃO DO WHILE
+    public Completion visitWhileStmt(Stmt.While stmt) { // IMPLEMENTAÇÃO DO WHILE
         while (isTruthy(evaluate(stmt.condition))) { // Enquanto a condição for verdadeira
-            execute(stmt.body); // Executa o corpo do loop
+            if (execute(stmt.body) == Completion.RETURN) { // Executa o corpo do loop
+                return Completion.RETURN; // Um 'return' no corpo encerra o laço
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     // ----------------------------------------------------
@@ -195,100 +323,223 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
+        if (storesNumber(expr)) {
+            return assignNumber(expr);
+        }
+
         // Avalia o valor e atribui à variável no ambiente correto (local ou global).
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr); // Pega a distância resolvida
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value); // Atribuição local
+        // A posição foi resolvida estaticamente e gravada no próprio nó.
+        if (expr.boxed) {
+            // Variável capturada (local ou upvalue): atribui dentro da Cell compartilhada.
+            ((Cell) slotValue(expr.depth, expr.slot)).value = value;
+        } else if (expr.depth != Expr.GLOBAL) {
+            environment.set(expr.slot, value); // Atribuição local
         } else {
-            environment.assign(expr.name, value); // Atribuição global
+            globals.assign(expr.slot, expr.name, value); // Atribuição global
         }
         return value; // Atribuições também são expressões e retornam o valor atribuído
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        // Avalia os operandos esquerdo e direito e aplica a operação binária.
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
+        // Aritmética e comparações avaliam os operandos pelo caminho numérico
+        // (evaluateNumber), sem criar um Double para cada resultado intermediário.
+        // Só o resultado final desta expressão é convertido em objeto.
+        Token operator = expr.operator;
+        switch (operator.type) {
             // Operadores de Comparação Numérica
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
+                return numberOperand(expr.left, operator, expr.right) > numberOperand(expr.right, operator, null);
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
+                return numberOperand(expr.left, operator, expr.right) >= numberOperand(expr.right, operator, null);
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
+                return numberOperand(expr.left, operator, expr.right) < numberOperand(expr.right, operator, null);
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
+                return numberOperand(expr.left, operator, expr.right) <= numberOperand(expr.right, operator, null);
 
             // Operadores de Igualdade (lida com nil e tipos diferentes)
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return !equal(expr);
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return equal(expr);
 
             // Operadores Aritméticos Numéricos
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+            case SLASH:
+            case STAR:
+                return arithmetic(expr);
             case PLUS:
-                // Sobrecarga para adição numérica ou concatenação de strings
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
+                if (expr.numeric) {
+                    return arithmetic(expr);
                 }
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                // Sobrecarga para adição numérica ou concatenação de strings. Um lado
+                // numérico só vira objeto se a soma acabar sendo uma concatenação.
+                if (producesNumber(expr.left)) {
+                    double left = evaluateNumber(expr.left);
+                    if (producesNumber(expr.right)) {
+                        return left + evaluateNumber(expr.right);
+                    }
+                    Object right = evaluate(expr.right);
+                    if (right instanceof Double) {
+                        return left + (double) right;
+                    }
+                    return concatenate(operator, left, right);
                 }
-                throw new RuntimeError(expr.operator,
-                        "Operands must be two numbers or at least one string for concatenation.");
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                if ((double) right == 0.0) { // Proteção contra divisão por zero
-                    throw new RuntimeError(expr.operator, "Division by zero.");
+                Object left = evaluate(expr.left);
+                if (producesNumber(expr.right)) {
+                    double right = evaluateNumber(expr.right);
+                    if (left instanceof Double) {
+                        return (double) left + right;
+                    }
+                    return concatenate(operator, left, right);
                 }
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                Object right = evaluate(expr.right);
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left + (double) right;
+                }
+                return concatenate(operator, left, right);
         }
         return null; // Não deveria ser alcançado
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        // Uma chamada 'obj.metodo(...)' chama o método direto com o receptor.
+        if (expr.callee instanceof Expr.Get) {
+            return invoke(expr, (Expr.Get) expr.callee);
+        }
+
         // Avalia a expressão que representa o chamador (callee), que deve ser uma
         // função ou classe.
-        Object callee = evaluate(expr.callee);
+        return call(expr, evaluate(expr.callee));
+    }
+
+    // Executa uma chamada 'obj.nome(...)'. Se 'nome' é um método, ele é chamado
+    // com 'obj' como 'this' sem criar o método ligado, que só é alocado quando o
+    // método é usado como valor (em um Get fora de uma chamada).
+    private Object invoke(Expr.Call expr, Expr.Get get) {
+        Object object = evaluate(get.object); // Avalia o objeto à esquerda do '.'
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name,
+                    "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
 
-        // Avalia todos os argumentos passados para a chamada.
+        LoxFunction method = get.cache.findMethod(instance, get.name);
+        if (method == null) {
+            // Um campo (que pode guardar uma função) ou uma propriedade indefinida.
+            return call(expr, get.cache.get(instance, get.name));
+        }
+
+        if (accepts(expr, method)) {
+            return callFunction(expr, method, instance);
+        }
+        return call(expr, method); // Avalia os argumentos e reporta a aridade errada
+    }
+
+    // Chama o valor 'callee' com os argumentos da chamada.
+    private Object call(Expr.Call expr, Object callee) {
+        // Funções e classes Lox com a aridade certa: os argumentos são avaliados
+        // direto nos slots do frame da chamada.
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            if (accepts(expr, function)) {
+                return callFunction(expr, function, function.receiver());
+            }
+        } else if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass) callee;
+            if (accepts(expr, klass)) {
+                LoxInstance instance = new LoxInstance(klass);
+                LoxFunction initializer = klass.initializer();
+                if (initializer != null) {
+                    initializer.run(this, fillFrame(expr, initializer, instance), instance, expr.paren);
+                }
+                return instance;
+            }
+        }
+
+        // Os demais casos usam a forma geral, que também reporta os erros. Os
+        // argumentos são sempre avaliados antes das verificações, que podem falhar.
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
+        return checkCallable(expr, callee, arguments.size()).call(this, arguments);
+    }
+
+    // Verifica se a função aceita o número de argumentos da chamada. A aridade
+    // só é comparada na primeira chamada de cada declaração neste ponto: a
+    // declaração aceita fica em checkedCallee, e as chamadas seguintes a ela
+    // comparam só a referência.
+    static boolean accepts(Expr.Call expr, LoxFunction function) {
+        Stmt.Function declaration = function.declaration();
+        if (declaration == expr.checkedCallee) {
+            return true;
+        }
+        if (declaration.params.size() != expr.arguments.size()) {
+            return false;
+        }
+        expr.checkedCallee = declaration;
+        return true;
+    }
+
+    // O mesmo para a construção de uma instância de 'klass'.
+    static boolean accepts(Expr.Call expr, LoxClass klass) {
+        if (klass == expr.checkedCallee) {
+            return true;
+        }
+        if (klass.arity() != expr.arguments.size()) {
+            return false;
+        }
+        expr.checkedCallee = klass;
+        return true;
+    }
+
+    // Executa a chamada de uma função cuja aridade já foi verificada. Uma chamada
+    // em posição de cauda não é executada aqui: fica pendente para a função atual
+    // (veja TAIL_CALL).
+    private Object callFunction(Expr.Call expr, LoxFunction function, LoxInstance instance) {
+        Environment frame = fillFrame(expr, function, instance);
+        if (expr.tailCall) {
+            tailFunction = function;
+            tailFrame = frame;
+            tailInstance = instance;
+            return TAIL_CALL;
+        }
+        return function.run(this, frame, instance, expr.paren);
+    }
+
+    // Avalia os argumentos da chamada direto nos slots do frame da função (depois
+    // de 'instance', o 'this' dos métodos).
+    private Environment fillFrame(Expr.Call expr, LoxFunction function, LoxInstance instance) {
+        Environment frame = function.newFrame(instance);
+        int slot = function.firstParameterSlot(instance);
+        for (Expr argument : expr.arguments) {
+            if (producesNumber(argument)) {
+                frame.setNumber(slot++, evaluateNumber(argument));
+            } else {
+                frame.set(slot++, evaluate(argument));
+            }
+        }
+        return frame;
+    }
 
-        // Verifica se o 'callee' é realmente um objeto chamável em Lox.
+    // Verifica se 'callee' é um objeto chamável em Lox e se o número de argumentos
+    // passados corresponde à sua aridade.
+    private LoxCallable checkCallable(Expr.Call expr, Object callee, int count) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren,
                     "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
-
-        // Verifica se o número de argumentos passados corresponde à aridade da função.
-        if (arguments.size() != function.arity()) {
+        if (count != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    count + ".");
         }
-
-        // Executa a chamada da função e retorna seu resultado.
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
@@ -296,7 +547,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object); // Avalia o objeto à esquerda do '.'
 
         if (object instanceof LoxInstance) { // Se for uma instância de Lox
-            return ((LoxInstance) object).get(expr.name); // Chama o método get da instância
+            // Busca pelo cache inline do nó, que lembra onde a propriedade estava.
+            return expr.cache.get((LoxInstance) object, expr.name);
         }
 
         throw new RuntimeError(expr.name,
@@ -341,7 +593,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value); // Avalia o valor a ser atribuído
-        ((LoxInstance) object).set(expr.name, value); // Chama o método set da instância
+        expr.cache.set((LoxInstance) object, expr.name, value); // Atribui pelo cache inline do nó
         return value;
     }
 
@@ -349,13 +601,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitSuperExpr(Expr.Super expr) { // IMPLEMENTAÇÃO COMPLETA DE SUPER
         // 'super' é resolvido estaticamente. O Resolvedor armazena a distância
         // para a superclasse e para a instância 'this'.
-        Integer distance = locals.get(expr);
-        // A superclasse está sempre na distância do 'super' token mais 1, no ambiente.
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
+        // A superclasse é capturada pelo método do escopo de 'super'.
+        LoxClass superclass = (LoxClass) slotValue(expr.depth, expr.slot);
 
-        // A instância atual ('this') está a uma profundidade a menos que a superclasse.
-        // O Resolvedor garante que 'this' está definido a 'distance-1'.
-        LoxInstance instance = (LoxInstance) environment.getAt(distance - 1, "this");
+        // A instância atual ('this') é o slot 0 do método (ou um upvalue dele).
+        LoxInstance instance = (LoxInstance) slotValue(expr.thisDepth, expr.thisSlot);
 
         // Encontra o método na superclasse.
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
@@ -376,20 +626,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitThisExpr(Expr.This expr) { // IMPLEMENTAÇÃO COMPLETA DE THIS
         // 'this' é uma variável local. Sua profundidade é resolvida estaticamente.
         // Usamos o lookUpVariable que já sabe como lidar com isso.
-        return lookUpVariable(expr.keyword, expr);
+        return slotValue(expr.depth, expr.slot);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         // Avalia o operando à direita e aplica a operação unária.
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case BANG: // Negação lógica
-                return !isTruthy(right);
+                return !isTruthy(evaluate(expr.right));
             case MINUS: // Negação numérica
-                checkNumberOperand(expr.operator, right);
-                return -(double) right;
+                return negate(expr);
         }
         return null; // Não deveria ser alcançado
     }
@@ -398,7 +645,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitVariableExpr(Expr.Variable expr) {
         // Busca o valor da variável no ambiente correto (local ou global),
         // usando a informação de profundidade do resolvedor.
-        return lookUpVariable(expr.name, expr);
+        Object value = lookUpVariable(expr.name, expr.depth, expr.slot);
+        return expr.boxed ? ((Cell) value).value : value;
     }
 
     // ----------------------------------------------------
@@ -407,7 +655,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // Converte um valor Lox (Java Object) para uma representação de string
     // imprimível.
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null)
             return "nil"; // Lox 'nil' é Java 'null'
 
@@ -424,7 +672,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     // Determina a "truthiness" de um valor Lox (o que é considerado
     // verdadeiro/falso em contextos booleanos).
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null)
             return false; // 'nil' é falso
         if (object instanceof Boolean)
@@ -433,54 +681,219 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     // Compara dois objetos para igualdade em Lox.
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null)
-            return true; // nil == nil
+    static boolean isEqual(Object a, Object b) {
+        if (a == b)
+            return true; // nil == nil, o mesmo objeto ou a mesma string internada
         if (a == null)
             return false; // Um é nil, o outro não
+        // Ropes são comparados pelo texto, inclusive com um String de mesmo conteúdo.
+        if (a instanceof LoxRope)
+            a = a.toString();
+        if (b instanceof LoxRope)
+            b = b.toString();
         return a.equals(b); // Usa o método equals de Java para outros tipos
     }
 
+    // ----------------------------------------------------
+    // Caminho numérico: avalia expressões marcadas como 'numeric' pelo Resolver
+    // direto para double, sem boxing dos resultados intermediários.
+    // ----------------------------------------------------
+
+    // Verifica se a expressão pode ser avaliada por evaluateNumber: ela é
+    // 'numeric' ou é uma variável local que guarda um número agora.
+    private boolean producesNumber(Expr expr) {
+        if (expr.numeric) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return variable.depth == Expr.LOCAL && !variable.boxed && environment.isNumber(variable.slot);
+        }
+        return false;
+    }
+
+    // Avalia como double uma expressão para a qual producesNumber é verdadeiro.
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Variable) {
+            return environment.getNumber(((Expr.Variable) expr).slot);
+        }
+        if (expr instanceof Expr.Binary) {
+            return arithmetic((Expr.Binary) expr);
+        }
+        if (expr instanceof Expr.Unary) {
+            return negate((Expr.Unary) expr);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        }
+        return (double) ((Expr.Literal) expr).value;
+    }
+
+    // Aplica um operador aritmético ('+' só com dois operandos numéricos).
+    private double arithmetic(Expr.Binary expr) {
+        double left = numberOperand(expr.left, expr.operator, expr.right);
+        double right = numberOperand(expr.right, expr.operator, null);
+        switch (expr.operator.type) {
+            case MINUS:
+                return left - right;
+            case PLUS:
+                return left + right;
+            case SLASH:
+                if (right == 0.0) { // Proteção contra divisão por zero
+                    throw new RuntimeError(expr.operator, "Division by zero.");
+                }
+                return left / right;
+            default: // STAR
+                return left * right;
+        }
+    }
+
+    // Aplica a negação numérica.
+    private double negate(Expr.Unary expr) {
+        if (producesNumber(expr.right)) {
+            return -evaluateNumber(expr.right);
+        }
+        Object right = evaluate(expr.right);
+        checkNumberOperand(expr.operator, right);
+        return -(double) right;
+    }
+
+    // Avalia um operando de um operador binário numérico. Se ele não for um
+    // número, avalia antes o operando seguinte ('next', se houver), para manter a
+    // ordem de avaliação e de erros de quando os dois lados eram avaliados antes
+    // da checagem de tipos.
+    private double numberOperand(Expr operand, Token operator, Expr next) {
+        if (producesNumber(operand)) {
+            return evaluateNumber(operand);
+        }
+        Object value = evaluate(operand);
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        if (next != null) {
+            evaluate(next);
+        }
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    // Uma atribuição cujo valor é numérico a um local não capturado por Cell
+    // grava o double direto no frame.
+    private boolean storesNumber(Expr.Assign expr) {
+        return expr.depth == Expr.LOCAL && !expr.boxed && producesNumber(expr.value);
+    }
+
+    // Avalia um '==' ou '!='. Dois operandos numéricos são comparados como
+    // double, com a mesma regra de Double.equals usada por isEqual.
+    private boolean equal(Expr.Binary expr) {
+        if (producesNumber(expr.left)) {
+            double left = evaluateNumber(expr.left);
+            if (producesNumber(expr.right)) {
+                return Double.doubleToLongBits(left) == Double.doubleToLongBits(evaluateNumber(expr.right));
+            }
+            return isEqual(left, evaluate(expr.right));
+        }
+        return isEqual(evaluate(expr.left), evaluate(expr.right));
+    }
+
+    private double assignNumber(Expr.Assign expr) {
+        double value = evaluateNumber(expr.value);
+        environment.setNumber(expr.slot, value);
+        return value;
+    }
+
+    // O '+' entre operandos que não são dois números: concatena se um deles for
+    // string. Strings Lox são concatenadas como ropes, sem copiar o texto.
+    static Object concatenate(Token operator, Object left, Object right) {
+        if (LoxRope.isString(left) || LoxRope.isString(right)) {
+            return LoxRope.concat(LoxRope.isString(left) ? left : stringify(left),
+                    LoxRope.isString(right) ? right : stringify(right));
+        }
+        throw new RuntimeError(operator,
+                "Operands must be two numbers or at least one string for concatenation.");
+    }
+
     // Lança um RuntimeError se o operando de uma operação unária não for um número.
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double)
             return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    // Lança um RuntimeError se os operandos de uma operação binária não forem
-    // números.
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double)
-            return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
-    }
-
-    // Executa uma lista de declarações dentro de um novo ambiente.
-    // Usado por blocos de código e corpos de funções.
-    public void executeBlock(List<Stmt> statements, Environment environment) {
+    // Executa uma lista de declarações dentro de um novo frame.
+    // Usado por blocos de código no nível superior.
+    public Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment; // Salva o ambiente atual
         try {
             this.environment = environment; // Define o novo ambiente para o bloco
-            for (Stmt statement : statements) {
-                execute(statement); // Executa cada declaração no bloco
-            }
+            return executeStatements(statements); // Executa cada declaração no bloco
         } finally {
             this.environment = previous; // Restaura o ambiente anterior após o bloco
         }
     }
 
-    // Busca o valor de uma variável usando a informação de profundidade do
-    // Resolvedor.
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr); // Tenta obter a distância do resolvedor
-        if (distance != null) {
-            // Se o resolvedor encontrou a variável localmente, usa getAt para busca direta.
-            return environment.getAt(distance, name.lexeme);
+    // Executa o corpo de uma função no frame da chamada, com os upvalues
+    // capturados pela closure, e retorna o valor do 'return' (null se o corpo
+    // terminou sem um).
+    public Object executeBody(Stmt.Function function, Environment frame, Object[] upvalues) {
+        Environment previousEnvironment = this.environment;
+        Object[] previousUpvalues = this.upvalues;
+        try {
+            this.environment = frame;
+            this.upvalues = upvalues;
+            if (executeStatements(function.body) == Completion.NORMAL) {
+                return null;
+            }
+            Object value = returnValue;
+            returnValue = null; // Não mantém o valor vivo depois do retorno
+            return value;
+        } finally {
+            this.environment = previousEnvironment;
+            this.upvalues = previousUpvalues;
+        }
+    }
+
+    // Busca o valor de uma variável usando a informação de profundidade e slot
+    // que o Resolvedor gravou no nó.
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth != Expr.GLOBAL) {
+            // Se o resolvedor encontrou a variável localmente, lê o slot diretamente.
+            return slotValue(depth, slot);
+        }
+
+        // Caso contrário, é uma variável global, e o slot é seu índice na tabela.
+        return globals.get(slot, name);
+    }
+
+    // Lê o conteúdo de um slot local ou de um upvalue da closure atual (que pode
+    // ser uma Cell, para variáveis capturadas que mudam).
+    private Object slotValue(int depth, int slot) {
+        if (depth == Expr.UPVALUE) {
+            return upvalues[slot];
+        }
+        return environment.get(slot);
+    }
+
+    // Copia, do ambiente atual, apenas as variáveis que a função usa de escopos
+    // envolventes. Variáveis que podem mudar são copiadas como Cells.
+    private Object[] capture(Stmt.Function function) {
+        int count = function.upvalueDepths.length;
+        if (count == 0) {
+            return NO_UPVALUES;
+        }
+        Object[] captured = new Object[count];
+        for (int i = 0; i < count; i++) {
+            captured[i] = slotValue(function.upvalueDepths[i], function.upvalueSlots[i]);
+        }
+        return captured;
+    }
+
+    // Declara uma variável no escopo atual: no seu slot do frame local ou, no
+    // nível superior, no índice da tabela de globais.
+    private void declare(int slot, Object value) {
+        if (environment == null) {
+            globals.define(slot, value);
         } else {
-            // Se o resolvedor não forneceu uma distância (é null), assume que é uma
-            // variável global.
-            return environment.get(name);
+            environment.set(slot, value);
         }
     }
 
@@ -489,4 +902,4 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public static void main(String[] args) {
         System.out.println("Interpreter main: Use Lox.java para executar o interpretador completo.");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+package br.ufma;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// O interpretador da AST com compilação para bytecode da JVM ("jit"). Toda
+// função começa interpretada, e o interpretador conta, por declaração, as suas
+// chamadas e as voltas dos seus laços (veja Profile). Quando uma das contagens chega ao limite, o
+// BytecodeCompiler gera, em uma thread separada, uma classe para o corpo; o
+// programa continua interpretando enquanto isso e, quando a classe fica
+// pronta, as chamadas seguintes (de qualquer closure da declaração) rodam o
+// código compilado. Uma chamada que está no meio de um laço passa para o
+// código compilado no fim da volta atual, pelo resume.
+//
+// Funções que o compilador não traduz, ou cuja classe a JVM recusa, continuam
+// interpretadas. O mesmo vale para as funções cujo trabalho é quase todo fazer
+// chamadas que o código compilado não consegue fazer direto (veja promote):
+// compiladas, elas seriam mais lentas que no interpretador.
+public class JitInterpreter extends Interpreter {
+    // Chamadas interpretadas antes da compilação: o suficiente para que funções
+    // chamadas poucas vezes não paguem o custo de gerar e carregar uma classe.
+    static final int COMPILE_THRESHOLD = 1000;
+
+    // Voltas de laço (somadas entre as chamadas da declaração) antes da
+    // compilação. Uma volta custa menos que uma chamada, então o limite é maior;
+    // ele existe para funções chamadas poucas vezes que passam o tempo em laços.
+    static final int LOOP_THRESHOLD = 10000;
+
+    // Uma função não é compilada se pelo menos uma em cada SLOW_CALL_SHARE
+    // unidades de trabalho (chamadas recebidas e voltas de laço) é uma chamada
+    // lenta no código compilado.
+    static final int SLOW_CALL_SHARE = 2;
+
+    // A thread que compila. É daemon para não segurar o fim do programa.
+    private final ExecutorService compiler = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lox-jit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // O que o interpretador sabe de uma declaração de função: as contagens que
+    // decidem a compilação e o resultado dela. Fica nesta tabela, e não na AST,
+    // que é a mesma para todos os motores.
+    static final class Profile {
+        final Stmt.Function declaration;
+        int invocations;
+        int backEdges;
+        int slowCalls;
+        boolean queued; // Já enviada para compilação (uma vez só, pelas chamadas ou pelos laços)
+
+        // Escritos pela thread de compilação. São volatile: a escrita feita na
+        // outra thread é vista pelo interpretador, inclusive no teste de cada
+        // volta dos laços, que por isso não pode ser tirado de dentro do laço.
+        volatile CompiledBody compiled;
+        volatile boolean rejected;
+
+        Profile(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+    }
+
+    // Só a thread do interpretador usa a tabela; a de compilação recebe o
+    // Profile da declaração.
+    private final Map<Stmt.Function, Profile> profiles = new IdentityHashMap<>();
+
+    // A função interpretada em execução, com o frame e os upvalues da chamada
+    // (null no nível superior, onde não há para onde passar).
+    private Profile function = null;
+    private Environment frame = null;
+    private Object[] upvalues = null;
+
+    public JitInterpreter(int maxCallDepth) {
+        super(maxCallDepth);
+    }
+
+    @Override
+    public Object executeBody(Stmt.Function declaration, Environment frame, Object[] upvalues) {
+        Profile function = profile(declaration);
+        CompiledBody compiled = function.compiled;
+        if (compiled != null) {
+            return compiled.execute(frame, upvalues);
+        }
+        if (++function.invocations == COMPILE_THRESHOLD) {
+            promote(function);
+        }
+        Profile previousFunction = this.function;
+        Environment previousFrame = this.frame;
+        Object[] previousUpvalues = this.upvalues;
+        try {
+            this.function = function;
+            this.frame = frame;
+            this.upvalues = upvalues;
+            return super.executeBody(declaration, frame, upvalues);
+        } finally {
+            this.function = previousFunction;
+            this.frame = previousFrame;
+            this.upvalues = previousUpvalues;
+        }
+    }
+
+    @Override
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        Profile function = this.function;
+        if (function == null) {
+            return super.visitWhileStmt(stmt);
+        }
+        while (isTruthy(stmt.condition.accept(this))) {
+            if (stmt.body.accept(this) == Completion.RETURN) {
+                return Completion.RETURN;
+            }
+            // Se o corpo já foi compilado, o resto da chamada roda compilado, a
+            // partir do teste da próxima volta; o resultado volta como um 'return'.
+            CompiledBody compiled = function.compiled;
+            if (compiled != null) {
+                returnValue = compiled.resume(frame, upvalues, stmt);
+                return Completion.RETURN;
+            }
+            if (++function.backEdges == LOOP_THRESHOLD) {
+                promote(function);
+            }
+        }
+        return Completion.NORMAL;
+    }
+
+    // Conta as chamadas que a função interpretada faz e que, no código compilado,
+    // não iriam direto para o corpo compilado da função chamada (veja
+    // BytecodeCompiler.directCall): as com mais de três argumentos e as para
+    // funções que o compilador recusou. Essas passam pelo frame, como no
+    // interpretador, e ainda pagam a ida e a volta entre os dois.
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        Object value = super.visitCallExpr(expr);
+        Profile function = this.function;
+        if (function != null && isSlowCall(expr)) {
+            function.slowCalls++;
+        }
+        return value;
+    }
+
+    // 'checkedCallee' é a declaração (ou a classe) chamada pela última vez com
+    // a aridade certa; as chamadas a funções nativas não contam.
+    private boolean isSlowCall(Expr.Call expr) {
+        if (expr.arguments.size() > 3) {
+            return true;
+        }
+        Object callee = expr.checkedCallee;
+        if (callee instanceof LoxClass) {
+            LoxFunction initializer = ((LoxClass) callee).initializer();
+            return initializer != null && profile(initializer.declaration()).rejected;
+        }
+        return callee instanceof Stmt.Function && profile((Stmt.Function) callee).rejected;
+    }
+
+    private Profile profile(Stmt.Function declaration) {
+        Profile profile = profiles.get(declaration);
+        if (profile == null) {
+            profile = new Profile(declaration);
+            profiles.put(declaration, profile);
+        }
+        return profile;
+    }
+
+    // O corpo compilado da declaração, ou null se ela ainda não foi compilada
+    // (veja CompiledBody.direct).
+    CompiledBody compiled(Stmt.Function declaration) {
+        Profile profile = profiles.get(declaration);
+        return profile == null ? null : profile.compiled;
+    }
+
+    // Compila a função que chegou a um dos limites, a não ser que o seu trabalho
+    // seja dominado por chamadas lentas. A decisão é tomada uma vez só.
+    private void promote(Profile function) {
+        if (function.slowCalls * SLOW_CALL_SHARE >= function.invocations + function.backEdges) {
+            return;
+        }
+        enqueue(function);
+    }
+
+    // Envia a declaração para a thread de compilação, que publica o resultado
+    // em Profile.compiled.
+    private void enqueue(Profile function) {
+        if (function.queued) {
+            return;
+        }
+        function.queued = true;
+        compiler.execute(() -> {
+            try {
+                function.compiled = BytecodeCompiler.compile(this, function.declaration);
+            } catch (Throwable error) {
+                // Um erro do compilador (as construções que ele não traduz só
+                // resultam em null). O programa segue com a função interpretada,
+                // mas a falha é mostrada com o rastro Java, como em Lox.main.
+                System.err.println("Failed to compile function '" + function.declaration.name.lexeme
+                        + "'; it stays interpreted.");
+                error.printStackTrace();
+            }
+            function.rejected = function.compiled == null;
+        });
+    }
+}
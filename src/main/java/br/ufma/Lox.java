@@ -8,24 +8,141 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 
+import br.ufma.vm.RegisterVM;
+import br.ufma.vm.VM;
+
 public class Lox {
-    // Instância única do interpretador para manter o estado global (variáveis,
-    // etc.)
-    private static final Interpreter interpreter = new Interpreter();
+    // Instância única do mecanismo de execução para manter o estado global
+    // (variáveis, etc.). É criada em main, depois de lidas as opções: o
+    // interpretador da AST ("ast", o padrão), o de nós executáveis ("nodes"), o
+    // da AST que compila as funções chamadas com frequência para bytecode da JVM
+    // ("jit"), a máquina virtual de pilha ("vm") ou a de registradores
+    // ("register").
+    private static Engine engine;
+
+    // Se a AST passa pelo Optimizer antes da execução (--optimize=on, o padrão).
+    // Com --optimize=off, o programa roda como foi escrito, para comparar as
+    // saídas.
+    private static boolean optimize = true;
+
+    // Se o Optimizer informa, na saída de erro, cada trecho de código morto que
+    // removeu (--report-dead-code=on).
+    private static boolean reportDeadCode = false;
+
+    // Pilha Java reservada para cada chamada Lox aninhada, além de uma base fixa.
+    // A thread do interpretador é criada com pilha suficiente para chegar ao
+    // limite de profundidade configurado sem um StackOverflowError.
+    private static final long STACK_BYTES_PER_CALL = 4 * 1024;
+    private static final long BASE_STACK_BYTES = 16 * 1024 * 1024;
+
+    // A exceção que encerrou a thread do interpretador, se houve uma. É lida
+    // depois do join, que garante que a escrita da thread é vista.
+    private static Throwable failure = null;
 
     // Flags para rastrear se houve algum erro de sintaxe/léxico ou de execução
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64); // Código de saída para erro de uso
-        } else if (args.length == 1) { // Quando um arquivo é passado como argumento
-            runFile(args[0]); // Executa o arquivo
-        } else { // Se nenhum argumento for passado, entra no modo prompt
-            runPrompt(); // Entra no modo interativo (prompt REPL)
+    public static void main(String[] args) throws InterruptedException {
+        // Lê as opções (--nome=valor) e o script, se houver.
+        int maxDepth = CallStack.DEFAULT_MAX_DEPTH;
+        String engineName = "ast";
+        String script = null;
+        for (String arg : args) {
+            if (arg.startsWith("--engine=")) {
+                engineName = arg.substring("--engine=".length());
+            } else if (arg.startsWith("--max-depth=")) {
+                maxDepth = parseDepth(arg.substring("--max-depth=".length()));
+            } else if (arg.startsWith("--optimize=")) {
+                optimize = parseSwitch(arg.substring("--optimize=".length()));
+            } else if (arg.startsWith("--report-dead-code=")) {
+                reportDeadCode = parseSwitch(arg.substring("--report-dead-code=".length()));
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
+        engine = engine(engineName, maxDepth);
+        if (engine == null) {
+            usage();
+        }
+
+        // O interpretador roda em uma thread própria. Os interpretadores da AST
+        // recursam na pilha Java a cada chamada Lox, então a pilha é dimensionada
+        // para a profundidade máxima; as máquinas virtuais guardam as chamadas
+        // em pilhas próprias e só precisam da base.
+        String path = script;
+        long stackSize = BASE_STACK_BYTES;
+        if (engine instanceof Interpreter) {
+            stackSize += maxDepth * STACK_BYTES_PER_CALL;
+        }
+        Thread thread = new Thread(null, () -> {
+            try {
+                if (path != null) { // Quando um arquivo é passado como argumento
+                    runFile(path); // Executa o arquivo
+                } else { // Se nenhum argumento for passado, entra no modo prompt
+                    runPrompt(); // Entra no modo interativo (prompt REPL)
+                }
+            } catch (IOException error) {
+                failure = error;
+            }
+        }, "lox", stackSize);
+        thread.setUncaughtExceptionHandler((t, error) -> failure = error);
+        thread.start();
+        thread.join();
+
+        // Uma falha fora do código Lox (o script não pode ser lido, um erro
+        // interno) é mostrada com o rastro Java e encerra com um código de erro.
+        if (failure != null) {
+            failure.printStackTrace();
+            System.exit(failure instanceof IOException ? 74 : 70);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=ast|nodes|jit|vm|register] [--max-depth=N] [--optimize=on|off]"
+                + " [--report-dead-code=on|off] [script]");
+        System.exit(64); // Código de saída para erro de uso
+    }
+
+    // Cria o mecanismo de execução com o nome dado, ou retorna null se o nome
+    // não é conhecido.
+    static Engine engine(String name, int maxDepth) {
+        switch (name) {
+            case "ast":
+                return new Interpreter(maxDepth);
+            case "nodes":
+                return new NodeInterpreter(maxDepth);
+            case "jit":
+                return new JitInterpreter(maxDepth);
+            case "vm":
+                return new VM(maxDepth);
+            case "register":
+                return new RegisterVM(maxDepth);
+            default:
+                return null;
+        }
+    }
+
+    private static int parseDepth(String text) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value > 0 && value <= CallStack.MAX_DEPTH)
+                return value;
+        } catch (NumberFormatException error) {
+            // Cai no uso abaixo.
         }
+        usage();
+        return 0; // Não alcançado: usage() encerra o programa
+    }
+
+    private static boolean parseSwitch(String text) {
+        if (text.equals("on"))
+            return true;
+        if (!text.equals("off"))
+            usage();
+        return false;
     }
 
     // Processa um arquivo Lox lendo todo o seu conteúdo
@@ -66,7 +183,7 @@ public class Lox {
     private static void run(String source) {
         // 1. Análise Léxica (Scanning): Transforma o código fonte em uma lista de
         // tokens
-        Scanner scanner = new Scanner(source);
+        Scanner scanner = new Scanner(source, engine.strings());
         List<Token> tokens = scanner.scanTokens();
 
         // Se o scanner encontrar um erro, a execução é interrompida
@@ -85,7 +202,7 @@ public class Lox {
         // 3. Resolução de Variáveis (Binding): Análise estática para resolver variáveis
         // locais
         // Isso é feito *antes* da interpretação.
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(engine.globals());
         resolver.resolve(statements);
 
         // Se o resolvedor encontrar um erro (ex: variável usada antes de inicializar),
@@ -94,19 +211,32 @@ public class Lox {
         if (hadError)
             return;
 
-        // 4. Interpretação: Percorre a AST e executa o código Lox
-        interpreter.interpret(statements);
+        // 4. Otimização: dobra as expressões constantes, simplifica a AST e
+        // remove o código que nunca roda
+        if (optimize)
+            new Optimizer(reportDeadCode, engine.strings()).optimize(statements);
+
+        // 5. Interpretação: executa o código Lox percorrendo a AST ou, com
+        // --engine=nodes, compilando-o para nós executáveis; com --engine=jit, as
+        // funções mais usadas são compiladas para bytecode da JVM em segundo plano, e
+        // com --engine=vm ou --engine=register, o programa roda em uma máquina
+        // virtual
+        engine.interpret(statements);
     }
 
     // Reporta um erro de análise léxica ou sintática
-    static void error(int line, String message) {
+    public static void error(int line, String message) {
         report(line, "", message);
     }
 
     // Reporta um erro que ocorre em tempo de execução
-    static void runtimeError(RuntimeError error) {
+    public static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() +
                 "\n[line " + error.token.line + "]");
+        // Erros como o estouro de pilha trazem o rastro das chamadas Lox.
+        for (String line : error.trace) {
+            System.err.println(line);
+        }
         hadRuntimeError = true;
     }
 
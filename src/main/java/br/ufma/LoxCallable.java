@@ -8,6 +8,15 @@ public interface LoxCallable {
     int arity();
 
     // Executa o "corpo" do callable, passando o interpretador e a lista de
-    // argumentos.
+    // argumentos. Funções e classes Lox chamadas pelo programa não passam por
+    // aqui: os mecanismos de execução preenchem o frame dessas chamadas
+    // diretamente, com o token da chamada para a pilha.
+    //
+    // Por isso a interface não tem entradas por aridade (call0, call1...): as
+    // únicas implementações são LoxFunction e LoxClass, e cada ponto de chamada
+    // já as trata sem lista de argumentos, com a aridade verificada uma vez por
+    // declaração (veja Interpreter.accepts). Interpreter.fillFrame e
+    // ExprNode.Invocation avaliam os argumentos direto nos slots do frame, e o
+    // código compilado usa CompiledBody.call0..call3, uma forma por aridade.
     Object call(Interpreter interpreter, List<Object> arguments);
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package br.ufma;
 
+import java.util.Collections;
 import java.util.List; // Necessário para a interface LoxCallable
 import java.util.Map; // Necessário para o mapa de métodos
 
@@ -8,26 +9,34 @@ import java.util.Map; // Necessário para o mapa de métodos
 public class LoxClass implements LoxCallable {
     public final String name; // Nome da classe
     public final LoxClass superclass; // A superclasse, se houver (para herança)
-    private final Map<String, LoxFunction> methods; // Métodos da classe (nome do método -> LoxFunction)
+    // Métodos da classe (nome do método -> LoxFunction), já incluindo os herdados
+    // das superclasses, então uma busca é uma única consulta ao mapa. Os nomes são
+    // internados, e findMethod deve ser chamado com nomes da mesma tabela de
+    // strings (veja Engine.strings). A tabela não muda depois que a classe é criada.
+    private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer; // O método 'init', se houver (próprio ou herdado)
+    // O Shape inicial (sem campos) das instâncias desta classe.
+    final Shape rootShape = new Shape(this);
+    // Maior número de campos já visto em uma instância desta classe, usado para
+    // dimensionar o armazenamento das próximas instâncias.
+    int expectedFields = 0;
 
     public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
         this.methods = methods;
+        this.initializer = methods.get("init");
     }
 
-    // Busca um método pelo nome nesta classe ou em suas superclasses.
+    // Busca um método pelo nome nesta classe ou em suas superclasses. Como a
+    // tabela já contém os métodos herdados, não é preciso subir a hierarquia.
     public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        // Se o método não está nesta classe, verifica a superclasse.
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
+        return methods.get(name); // null se o método não foi encontrado
+    }
 
-        return null; // Método não encontrado
+    // A tabela completa de métodos, usada para montar a tabela das subclasses.
+    Map<String, LoxFunction> methodTable() {
+        return Collections.unmodifiableMap(methods);
     }
 
     @Override
@@ -35,13 +44,18 @@ public class LoxClass implements LoxCallable {
         return name; // Representação em string da classe
     }
 
+    // O método 'init', se houver, para o interpretador chamar o construtor sem
+    // passar por call().
+    LoxFunction initializer() {
+        return initializer;
+    }
+
     // --- Implementação da interface LoxCallable ---
 
     @Override
     public int arity() {
         // O "construtor" de uma classe Lox é o método 'init'.
         // Se a classe tem um método 'init', sua aridade é a aridade do 'init'.
-        LoxFunction initializer = findMethod("init");
         if (initializer == null)
             return 0; // Se não tem 'init', não espera argumentos (aridade 0)
         return initializer.arity();
@@ -53,10 +67,10 @@ public class LoxClass implements LoxCallable {
         LoxInstance instance = new LoxInstance(this); // Cria uma nova instância da classe
 
         // Se a classe tem um método 'init', ele é chamado como construtor.
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            // Chamamos o inicializador, ligando 'this' à nova instância.
-            initializer.bind(instance).call(interpreter, arguments);
+            // Chamamos o inicializador com 'this' sendo a nova instância, sem precisar
+            // criar um método ligado.
+            initializer.callMethod(interpreter, instance, arguments);
         }
 
         return instance; // Retorna a nova instância criada
@@ -5,27 +5,28 @@ import java.util.List;
 
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
-    private final Environment closure;
+    private final Object[] upvalues; // Apenas as variáveis de escopos envolventes que o corpo usa
     private final boolean isInitializer; // Flag para construtores (init)
+    private final LoxInstance receiver; // 'this' de um método ligado (null para funções comuns)
 
     // Construtor para LoxFunction
-    public LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    public LoxFunction(Stmt.Function declaration, Object[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Object[] upvalues, boolean isInitializer,
+            LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.isInitializer = isInitializer; // Inicializa a flag
+        this.receiver = receiver;
     }
 
     // NOVO MÉTODO: 'bind' para criar um método ligado a uma instância ('this')
-    // Ele retorna uma nova LoxFunction com um ambiente de closure modificado.
+    // Ele retorna uma nova LoxFunction que compartilha os mesmos upvalues e
+    // guarda a instância, que vai para o slot 0 do frame de cada chamada.
     public LoxFunction bind(LoxInstance instance) {
-        // Cria um novo ambiente que herda do ambiente de closure original da função.
-        // Neste novo ambiente, a variável 'this' é definida para apontar para a
-        // instância.
-        Environment environment = new Environment(closure);
-        environment.define("this", instance); // 'this' é definido no novo ambiente
-        // Retorna uma nova LoxFunction, mas com o ambiente de closure modificado para
-        // incluir 'this'.
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, upvalues, isInitializer, instance);
     }
 
     @Override
@@ -35,33 +36,115 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        // Cria um novo ambiente para a execução da função, aninhado no ambiente
-        // 'closure'.
-        Environment environment = new Environment(closure);
+        return callMethod(interpreter, receiver, arguments);
+    }
 
-        // Vincula os argumentos passados aos parâmetros da função no novo ambiente.
+    // Chama a função com 'instance' como 'this', sem criar um método ligado. Usado
+    // pelos construtores; 'instance' é null para funções comuns.
+    //
+    // Estas entradas são usadas a partir de código Java, sem uma expressão de
+    // chamada; a declaração da função faz as vezes do ponto de chamada.
+    Object callMethod(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        Environment frame = newFrame(instance);
+
+        // Vincula os argumentos passados aos parâmetros da função no novo frame.
+        // Os parâmetros ocupam os slots seguintes, na ordem da declaração.
+        int slot = firstParameterSlot(instance);
         for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            frame.set(slot++, arguments.get(i));
+        }
+        return run(interpreter, frame, instance, declaration.name);
+    }
+
+    // --- Protocolo de chamada em partes, usado pelo interpretador para avaliar os
+    // argumentos direto nos slots do frame ---
+
+    // A declaração da função, que as closures da mesma declaração compartilham.
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
+    // O 'this' de um método ligado (null para funções comuns).
+    LoxInstance receiver() {
+        return receiver;
+    }
+
+    // As variáveis de escopos envolventes, para o corpo compilado chamado
+    // direto pelo código gerado (veja CompiledBody.upvalues).
+    Object[] upvalues() {
+        return upvalues;
+    }
+
+    // Cria o frame da chamada, com um slot para cada variável local da função
+    // (inclusive as de blocos aninhados). O que a função usa de fora chega
+    // pelos upvalues. Métodos recebem 'this' ('instance') no slot 0.
+    Environment newFrame(LoxInstance instance) {
+        Environment frame = new Environment(declaration.frameSize);
+        if (instance != null) {
+            frame.set(0, instance);
+        }
+        return frame;
+    }
+
+    // O slot do primeiro parâmetro: os parâmetros vêm logo depois de 'this'.
+    int firstParameterSlot(LoxInstance instance) {
+        return instance == null ? 0 : 1;
+    }
+
+    // Executa o corpo com o frame já preenchido com 'this' e os argumentos.
+    // 'callSite' é o token da chamada, registrado na pilha de chamadas Lox.
+    //
+    // Se o corpo termina em uma chamada de cauda ('return g(...)'), o interpretador
+    // devolve Interpreter.TAIL_CALL com a chamada pendente, e este laço executa a
+    // função chamada no lugar da atual. Recursões de cauda rodam assim com pilha
+    // Java constante.
+    //
+    // Um erro que atravessa a chamada não a tira da pilha de chamadas: ele sobe
+    // até o nível superior, que o reporta e esvazia a pilha (veja
+    // Interpreter.interpret).
+    Object run(Interpreter interpreter, Environment frame, LoxInstance instance, Token callSite) {
+        CallStack callStack = interpreter.callStack;
+        callStack.push(this, callSite);
+        Object result = finish(interpreter, execute(interpreter, frame), instance);
+        callStack.pop();
+        return result;
+    }
+
+    // Executa o corpo da função no frame dado.
+    private Object execute(Interpreter interpreter, Environment frame) {
+        // Parâmetros capturados por closures que os alteram vivem em Cells.
+        for (int boxed : declaration.boxedParams) {
+            frame.set(boxed, new Cell(frame.get(boxed)));
         }
+        return interpreter.executeBody(declaration, frame, upvalues);
+    }
 
-        // Executa o corpo da função.
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) { // Captura a exceção de retorno
-            // Se for um inicializador e houver um 'return' explícito, ele deve retornar
-            // 'this'.
-            if (isInitializer)
-                return closure.getAt(0, "this"); // 'this' está a 0 de distância no ambiente da closure
-            return returnValue.value; // Retorna o valor contido na exceção
+    // Conclui a chamada a partir do valor devolvido pelo corpo: executa as
+    // chamadas de cauda pendentes, uma depois da outra, e aplica a regra dos
+    // inicializadores à função que terminou por último.
+    Object finish(Interpreter interpreter, Object value, LoxInstance instance) {
+        LoxFunction function = this;
+        while (value == Interpreter.TAIL_CALL) {
+            function = interpreter.tailFunction;
+            Environment frame = interpreter.tailFrame;
+            instance = interpreter.tailInstance;
+            interpreter.tailFunction = null;
+            interpreter.tailFrame = null;
+            interpreter.tailInstance = null;
+            interpreter.callStack.replaceTop(function);
+            value = function.execute(interpreter, frame);
         }
 
-        // Se a função é um inicializador e termina sem um 'return' explícito, retorna
-        // 'this'.
-        if (isInitializer)
-            return closure.getAt(0, "this");
+        // Um inicializador sempre retorna 'this', com ou sem um 'return' explícito.
+        if (function.isInitializer)
+            return instance;
+
+        return value; // Sem 'return' explícito, o valor é 'nil' (Java null)
+    }
 
-        return null; // Funções em Lox implicitamente retornam 'nil' (Java null) se não houver
-                     // 'return' explícito.
+    // O nome da função, usado no rastro de chamadas.
+    String name() {
+        return declaration.name.lexeme;
     }
 
     @Override
@@ -70,4 +153,4 @@ public class LoxFunction implements LoxCallable {
             return "<fun>"; // Para funções anônimas (ainda não implementadas)
         return "<fun " + declaration.name.lexeme + ">";
     }
-}
\ No newline at end of file
+}
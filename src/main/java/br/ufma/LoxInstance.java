@@ -1,23 +1,32 @@
 // src/main/java/br/ufma/LoxInstance.java
 package br.ufma;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 // Representa uma instância (objeto) de uma classe Lox em tempo de execução.
 public class LoxInstance {
     private final LoxClass klass; // A classe da qual esta instância foi criada
-    private final Map<String, Object> fields = new HashMap<>(); // Campos da instância (propriedades)
+    // Campos da instância (propriedades): o Shape, compartilhado entre instâncias
+    // com o mesmo layout, dá a posição de cada campo, e os valores ficam na
+    // representação de Value, sem empacotar números e booleanos.
+    private Shape shape;
+    private long[] values;
+    private Object[] refs;
 
     public LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        // Reserva espaço para os campos que as instâncias desta classe costumam ter.
+        this.values = new long[klass.expectedFields];
+        this.refs = new Object[klass.expectedFields];
     }
 
     // Obtém o valor de uma propriedade da instância.
     public Object get(Token name) {
         // Primeiro, verifica se o campo existe diretamente na instância.
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot >= 0) {
+            return Value.get(values, refs, slot);
         }
 
         // Se não for um campo, tenta encontrar um método na classe da instância.
@@ -33,11 +42,49 @@ public class LoxInstance {
 
     // Define o valor de uma propriedade da instância.
     public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot < 0) {
+            // Campo novo: a instância passa para o Shape com esse campo no fim.
+            addField(shape.withField(name.lexeme), value);
+            return;
+        }
+        Value.set(values, refs, slot, value);
+    }
+
+    // --- Acesso direto usado pelos caches inline (PropertyCache) ---
+
+    Shape shape() {
+        return shape;
+    }
+
+    // Lê o campo na posição dada pelo Shape atual.
+    Object getField(int slot) {
+        return Value.get(values, refs, slot);
+    }
+
+    // Atribui o campo na posição dada pelo Shape atual.
+    void setField(int slot, Object value) {
+        Value.set(values, refs, slot, value);
+    }
+
+    // Passa a instância para 'next', o Shape atual com um campo a mais, e grava
+    // o valor desse campo.
+    void addField(Shape next, Object value) {
+        int slot = next.fieldCount - 1;
+        if (slot == values.length) {
+            int capacity = Math.max(4, slot * 2);
+            values = Arrays.copyOf(values, capacity);
+            refs = Arrays.copyOf(refs, capacity);
+        }
+        if (next.fieldCount > klass.expectedFields) {
+            klass.expectedFields = next.fieldCount;
+        }
+        shape = next;
+        Value.set(values, refs, slot, value);
     }
 
     @Override
     public String toString() {
         return klass.name + " instance"; // Representação em string da instância
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package br.ufma;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Uma string Lox resultante de concatenações, guardada como uma árvore (rope)
+// em vez de ser copiada a cada '+'. Montar uma string pedaço a pedaço em um laço
+// passa a custar tempo linear: o texto só é montado (uma única vez) quando é
+// realmente necessário, ao imprimir, comparar ou calcular o hash.
+//
+// Em tempo de execução, uma string Lox é um String ou um LoxRope.
+public final class LoxRope implements CharSequence {
+    // Concatenações cujo resultado é menor que isto são feitas na hora: para
+    // strings curtas, copiar é mais barato que manter um nó da árvore.
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    private final int length;
+    private Object left; // String ou LoxRope (null depois de achatado)
+    private Object right; // String ou LoxRope (null depois de achatado)
+    private String flat; // O texto completo, calculado sob demanda
+
+    private LoxRope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    // Concatena duas strings Lox (String ou LoxRope).
+    public static Object concat(Object left, Object right) {
+        int length = length(left) + length(right);
+        if (length < MIN_ROPE_LENGTH) {
+            return left.toString() + right.toString();
+        }
+        return new LoxRope(left, right, length);
+    }
+
+    // Verifica se o valor é uma string Lox.
+    public static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxRope;
+    }
+
+    private static int length(Object text) {
+        return ((CharSequence) text).length();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    // Achata a árvore em um único String. Percorre os nós com uma pilha explícita,
+    // já que ropes montados em laços podem ter milhares de níveis.
+    @Override
+    public String toString() {
+        if (flat != null) {
+            return flat;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object node = pending.pop();
+            if (node instanceof LoxRope && ((LoxRope) node).flat == null) {
+                LoxRope rope = (LoxRope) node;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(node.toString());
+            }
+        }
+        flat = builder.toString();
+        // Os filhos não são mais necessários e podem ser coletados.
+        left = null;
+        right = null;
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LoxRope && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,109 @@
+package br.ufma;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+// A base dos nós executáveis (ExprNode e StmtNode). Cada nó conhece o pai, e
+// um nó pode se trocar na árvore por outro com replace: é assim que um nó se
+// especializa para os tipos que já viu (um '+' que só somou números vira uma
+// soma de doubles) e volta para uma versão geral quando a suposição falha.
+//
+// Os filhos são os campos de instância cujo tipo é um nó ou um array de nós.
+// Eles não são 'final', para que replace possa trocá-los. Trocas são raras (no
+// máximo algumas por nó), então os campos são encontrados por reflexão, uma
+// vez por classe, em vez de cada classe de nó implementar a troca dos seus
+// filhos.
+abstract class Node {
+    private static final ClassValue<Field[]> CHILD_FIELDS = new ClassValue<>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != Node.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    Class<?> fieldType = field.getType();
+                    boolean child = Node.class.isAssignableFrom(fieldType)
+                            || (fieldType.isArray() && Node.class.isAssignableFrom(fieldType.getComponentType()));
+                    if (child && !Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[0]);
+        }
+    };
+
+    private Node parent;
+
+    // Liga a este nó os filhos e, recursivamente, os filhos deles. O
+    // NodeCompiler chama isto na raiz de cada árvore compilada.
+    final void adoptTree() {
+        for (Node child : children()) {
+            child.parent = this;
+            child.adoptTree();
+        }
+    }
+
+    // Coloca 'replacement' no lugar deste nó, no campo (ou na posição do array)
+    // do pai que apontava para ele, e o retorna. Os filhos de 'replacement'
+    // (normalmente os mesmos deste nó) passam a tê-lo como pai.
+    //
+    // Se este nó já saiu da árvore, nada muda: em uma recursão, a execução
+    // mais interna de um nó pode tê-lo trocado enquanto a mais externa ainda
+    // roda a versão antiga.
+    final <T extends Node> T replace(T replacement) {
+        Node node = replacement;
+        if (parent != null && parent.replaceChild(this, node)) {
+            node.parent = parent;
+            for (Node child : node.children()) {
+                child.parent = node;
+            }
+        }
+        return replacement;
+    }
+
+    private boolean replaceChild(Node child, Node replacement) {
+        try {
+            for (Field field : CHILD_FIELDS.get(getClass())) {
+                Object value = field.get(this);
+                if (value == child) {
+                    field.set(this, replacement);
+                    return true;
+                }
+                if (value instanceof Node[]) {
+                    Node[] array = (Node[]) value;
+                    for (int i = 0; i < array.length; i++) {
+                        if (array[i] == child) {
+                            array[i] = replacement;
+                            return true;
+                        }
+                    }
+                }
+            }
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+        return false;
+    }
+
+    private List<Node> children() {
+        List<Node> children = new ArrayList<>();
+        try {
+            for (Field field : CHILD_FIELDS.get(getClass())) {
+                Object value = field.get(this);
+                if (value instanceof Node) {
+                    children.add((Node) value);
+                } else if (value instanceof Node[]) {
+                    for (Node child : (Node[]) value) {
+                        children.add(child);
+                    }
+                }
+            }
+        } catch (IllegalAccessException error) {
+            throw new IllegalStateException(error);
+        }
+        return children;
+    }
+}
@@ -0,0 +1,283 @@
+package br.ufma;
+
+import java.util.List;
+
+// Converte a AST já resolvida em nós executáveis (ExprNode e StmtNode). Cada
+// nó da AST é visitado uma única vez: o tipo do operador, o tipo do literal e
+// onde cada variável mora, que o Interpreter consulta a cada avaliação, viram
+// aqui a escolha da classe do nó. O corpo de cada função é compilado junto com
+// a sua declaração e guardado na tabela de corpos do NodeInterpreter.
+final class NodeCompiler implements Expr.Visitor<ExprNode>, Stmt.Visitor<StmtNode> {
+    private final NodeInterpreter interpreter;
+    private final GlobalTable globals;
+
+    // Se o código sendo compilado roda com um frame (dentro de uma função ou de
+    // um bloco): lá as declarações vão para slots, e no nível superior, para as
+    // globais.
+    private boolean local = false;
+
+    NodeCompiler(NodeInterpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals();
+    }
+
+    // Compila as declarações de nível superior de um programa (ou de uma linha
+    // do REPL).
+    StmtNode.Sequence compile(List<Stmt> statements) {
+        StmtNode.Sequence program = sequence(statements);
+        program.adoptTree();
+        return program;
+    }
+
+    private StmtNode.Sequence sequence(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = statements.get(i).accept(this);
+        }
+        return new StmtNode.Sequence(nodes);
+    }
+
+    private ExprNode compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // Compila o corpo da função, que roda sempre com o frame da chamada.
+    private void compileBody(Stmt.Function function) {
+        boolean enclosing = local;
+        local = true;
+        StmtNode.Sequence body = sequence(function.body);
+        body.adoptTree();
+        interpreter.bodies.put(function, body);
+        local = enclosing;
+    }
+
+    // ----------------------------------------------------
+    // Declarações
+    // ----------------------------------------------------
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        if (local) {
+            return sequence(stmt.statements);
+        }
+        local = true;
+        StmtNode.Sequence body = sequence(stmt.statements);
+        local = false;
+        // Um bloco sem variáveis locais não precisa de frame.
+        if (stmt.frameSize == 0) {
+            return body;
+        }
+        return new StmtNode.TopLevelBlock(stmt.frameSize, body);
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        ExprNode superclass = stmt.superclass == null ? null : compile(stmt.superclass);
+        for (Stmt.Function method : stmt.methods) {
+            compileBody(method);
+        }
+        return new StmtNode.Class(globals, stmt, superclass);
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StmtNode.Expression(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        compileBody(stmt);
+        return new StmtNode.Function(globals, stmt);
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        StmtNode elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        return new StmtNode.If(compile(stmt.condition), stmt.thenBranch.accept(this), elseBranch);
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        return new StmtNode.Print(compile(stmt.expression));
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        ExprNode value = stmt.value == null ? new ExprNode.NilLiteral() : compile(stmt.value);
+        return new StmtNode.Return(interpreter, value);
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        ExprNode initializer = stmt.initializer == null ? new ExprNode.NilLiteral() : compile(stmt.initializer);
+        if (!local) {
+            return new StmtNode.GlobalVar(globals, stmt.slot, initializer);
+        }
+        if (stmt.boxed) {
+            return new StmtNode.LocalCellVar(stmt.slot, initializer);
+        }
+        if (stmt.initializer == null) {
+            return new StmtNode.LocalVar(stmt.slot, initializer);
+        }
+        return new StmtNode.LocalNumberVar(stmt.slot, initializer);
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return new StmtNode.While(compile(stmt.condition), stmt.body.accept(this));
+    }
+
+    // ----------------------------------------------------
+    // Expressões
+    // ----------------------------------------------------
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        if (expr.depth == Expr.GLOBAL) {
+            return new ExprNode.GlobalWrite(globals, expr.slot, expr.name, value);
+        }
+        if (expr.depth == Expr.UPVALUE) {
+            // Um upvalue que é atribuído sempre foi capturado em uma Cell.
+            return new ExprNode.UpvalueCellWrite(expr.slot, value);
+        }
+        if (expr.boxed) {
+            return new ExprNode.LocalCellWrite(expr.slot, value);
+        }
+        return new ExprNode.LocalNumberWrite(expr.slot, value);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case GREATER:
+                return new ExprNode.Greater(left, operator, right);
+            case GREATER_EQUAL:
+                return new ExprNode.GreaterEqual(left, operator, right);
+            case LESS:
+                return new ExprNode.Less(left, operator, right);
+            case LESS_EQUAL:
+                return new ExprNode.LessEqual(left, operator, right);
+            case BANG_EQUAL:
+                return new ExprNode.Equal(left, operator, right, true);
+            case EQUAL_EQUAL:
+                return new ExprNode.Equal(left, operator, right, false);
+            case MINUS:
+                return new ExprNode.Subtract(left, operator, right);
+            case STAR:
+                return new ExprNode.Multiply(left, operator, right);
+            case SLASH:
+                return new ExprNode.Divide(left, operator, right);
+            default: // PLUS
+                // Um '+' que o Resolver sabe que é numérico já nasce especializado.
+                if (expr.numeric) {
+                    return new ExprNode.NumberAdd(left, operator, right);
+                }
+                return new ExprNode.Add(left, operator, right);
+        }
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        if (expr.callee instanceof Expr.Get) {
+            // O objeto é avaliado antes dos argumentos, então é compilado antes.
+            Expr.Get get = (Expr.Get) expr.callee;
+            ExprNode object = compile(get.object);
+            compileArguments(expr, arguments);
+            return new ExprNode.Invoke(interpreter, object, get.name, expr.paren, arguments, expr.tailCall);
+        }
+        ExprNode callee = compile(expr.callee);
+        compileArguments(expr, arguments);
+        return new ExprNode.Call(interpreter, callee, expr.paren, arguments, expr.tailCall);
+    }
+
+    private void compileArguments(Expr.Call expr, ExprNode[] arguments) {
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        return new ExprNode.Get(compile(expr.object), expr.name);
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        // Os parênteses só existem na sintaxe: não geram nó.
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) {
+            return new ExprNode.NilLiteral();
+        }
+        if (value instanceof Boolean) {
+            return new ExprNode.BooleanLiteral((boolean) value);
+        }
+        if (value instanceof Double) {
+            return new ExprNode.NumberLiteral((double) value);
+        }
+        return new ExprNode.StringLiteral((String) value);
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return new ExprNode.Or(left, right);
+        }
+        return new ExprNode.And(left, right);
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value));
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Expr.Super expr) {
+        return new ExprNode.Super(slot(expr.depth, expr.slot), slot(expr.thisDepth, expr.thisSlot), expr.method);
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return slot(expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            return new ExprNode.Not(right);
+        }
+        return new ExprNode.Negate(expr.operator, right);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == Expr.GLOBAL) {
+            return new ExprNode.GlobalRead(globals, expr.slot, expr.name);
+        }
+        if (expr.depth == Expr.UPVALUE) {
+            return expr.boxed ? new ExprNode.UpvalueCellRead(expr.slot) : new ExprNode.UpvalueRead(expr.slot);
+        }
+        return expr.boxed ? new ExprNode.LocalCellRead(expr.slot) : new ExprNode.LocalRead(expr.slot);
+    }
+
+    // A leitura de um slot do frame ou de um upvalue ('this' e a superclasse,
+    // que nunca ficam em Cells).
+    private ExprNode slot(int depth, int slot) {
+        if (depth == Expr.UPVALUE) {
+            return new ExprNode.UpvalueRead(slot);
+        }
+        return new ExprNode.LocalRead(slot);
+    }
+}
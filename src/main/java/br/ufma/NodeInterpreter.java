@@ -0,0 +1,47 @@
+package br.ufma;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// O interpretador de nós executáveis ("nodes"): o mesmo modelo de execução do
+// Interpreter (frames, funções, classes, instâncias, pilha de chamadas e
+// chamadas de cauda), mas o programa é antes compilado pelo NodeCompiler em
+// uma árvore de nós especializados, executada sem passar pelos visitors.
+public class NodeInterpreter extends Interpreter {
+    static final Object[] NO_UPVALUES = new Object[0];
+
+    // O corpo compilado de cada declaração de função, preenchido pelo
+    // NodeCompiler. Fica aqui, e não na AST, que é a mesma para todos os motores.
+    final Map<Stmt.Function, StmtNode> bodies = new IdentityHashMap<>();
+
+    public NodeInterpreter(int maxCallDepth) {
+        super(maxCallDepth);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        StmtNode program = new NodeCompiler(this).compile(statements);
+        try {
+            // No nível superior não há frame nem upvalues.
+            program.execute(null, null);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } catch (StackOverflowError error) {
+            Lox.runtimeError(callStack.overflow(error)); // Veja Interpreter.interpret
+        } finally {
+            callStack.reset();
+        }
+    }
+
+    // Executa o corpo compilado da função (veja LoxFunction.run).
+    @Override
+    public Object executeBody(Stmt.Function function, Environment frame, Object[] upvalues) {
+        if (bodies.get(function).execute(frame, upvalues) == Completion.NORMAL) {
+            return null;
+        }
+        Object value = returnValue;
+        returnValue = null; // Não mantém o valor vivo depois do retorno
+        return value;
+    }
+}
@@ -0,0 +1,455 @@
+package br.ufma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Otimiza a AST já resolvida, antes da execução: dobra as subexpressões cujos
+// operandos são literais ('60 * 60 * 24' vira '86400') e simplifica o que a
+// semântica do Lox permite, como parênteses, '!true', a dupla negação e as
+// identidades aritméticas. Também remove o código que nunca roda: o ramo de um
+// 'if' com condição constante que não é tomado, laços cuja condição é sempre
+// falsa, o que vem depois de um 'return' no mesmo bloco e as variáveis e
+// funções locais que nunca são usadas (variáveis só se o inicializador não
+// tem efeitos). Todos os mecanismos de execução recebem a AST já otimizada.
+//
+// Um literal é dobrado avaliando-o com um Interpreter, então o resultado é
+// exatamente o que a execução produziria. Se a avaliação lança um erro (uma
+// divisão por zero, operandos de tipos errados), a expressão fica como está, e
+// o erro acontece na execução, com a linha original. Uma string dobrada é
+// internada na tabela do mecanismo, como os literais do Scanner.
+//
+// Um nó cujos filhos mudaram é recriado com as anotações do Resolver; os
+// demais são mantidos. O corpo das funções e a lista de argumentos das
+// chamadas são atualizados no lugar, para que as declarações de função (que
+// guardam o estado da execução) não mudem. Uma declaração removida é null.
+final class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Avalia as expressões formadas só por literais.
+    private final Interpreter evaluator = new Interpreter();
+
+    // Se cada remoção de código morto é informada na saída de erro
+    // (--report-dead-code=on).
+    private final boolean report;
+
+    // A tabela de strings do mecanismo que vai executar o programa.
+    private final Map<String, String> strings;
+
+    Optimizer(boolean report, Map<String, String> strings) {
+        this.report = report;
+        this.strings = strings;
+    }
+
+    // Otimiza, no lugar, as declarações do programa ou do corpo de uma função.
+    void optimize(List<Stmt> statements) {
+        List<Stmt> optimized = statements(statements);
+        if (optimized != statements) {
+            statements.clear();
+            statements.addAll(optimized);
+        }
+    }
+
+    // Otimiza uma lista de declarações, sem as removidas e sem as que vêm
+    // depois de uma que sempre retorna. Retorna a própria lista se nada mudou.
+    private List<Stmt> statements(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            Stmt optimized = optimize(statement);
+            changed |= optimized != statement;
+            if (optimized == null) {
+                continue;
+            }
+            result.add(optimized);
+            Token exit = exit(optimized);
+            int rest = statements.size() - i - 1;
+            if (exit != null && rest > 0) {
+                report(exit, "Removed " + rest + (rest == 1 ? " unreachable statement" : " unreachable statements")
+                        + " after '" + exit.lexeme + "'");
+                changed = true;
+                break;
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    // Um ramo de 'if' ou o corpo de um laço, que precisa continuar existindo
+    // mesmo se tudo nele for removido.
+    private Stmt branch(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        return optimized != null ? optimized : new Stmt.Block(new ArrayList<>());
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    // Avalia uma expressão cujos operandos são literais e a troca pelo literal
+    // do resultado, ou a mantém se a avaliação falha.
+    private Expr fold(Expr expr) {
+        Object value;
+        try {
+            value = expr.accept(evaluator);
+        } catch (RuntimeError error) {
+            return expr; // O erro fica para a execução
+        }
+        if (value instanceof LoxRope) {
+            value = value.toString();
+        }
+        if (value instanceof String) {
+            String existing = strings.putIfAbsent((String) value, (String) value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        return literal(value);
+    }
+
+    private static Expr.Literal literal(Object value) {
+        Expr.Literal literal = new Expr.Literal(value);
+        literal.numeric = value instanceof Double;
+        return literal;
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    // Se o valor da expressão é sempre um booleano (ou ela lança um erro).
+    private static boolean isBoolean(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Boolean;
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.BANG;
+        }
+        if (expr instanceof Expr.Binary) {
+            switch (((Expr.Binary) expr).operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // Se avaliar a expressão nunca lança um erro nem muda estado.
+    private static boolean isPure(Expr expr) {
+        if (expr == null || expr instanceof Expr.Literal || expr instanceof Expr.This) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable) {
+            return ((Expr.Variable) expr).depth != Expr.GLOBAL; // Uma global pode não estar definida
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return unary.operator.type == TokenType.BANG && isPure(unary.right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return isPure(logical.left) && isPure(logical.right);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            TokenType type = binary.operator.type;
+            return (type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL) && isPure(binary.left)
+                    && isPure(binary.right);
+        }
+        return false;
+    }
+
+    // O 'return' (ou o 'if' com dois ramos que retornam) que faz a declaração
+    // nunca terminar normalmente, ou null se ela pode terminar.
+    private static Token exit(Stmt stmt) {
+        if (stmt instanceof Stmt.Return) {
+            return ((Stmt.Return) stmt).keyword;
+        }
+        if (stmt instanceof Stmt.Block) {
+            List<Stmt> statements = ((Stmt.Block) stmt).statements;
+            return statements.isEmpty() ? null : exit(statements.get(statements.size() - 1));
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            if (ifStmt.elseBranch != null && exit(ifStmt.thenBranch) != null && exit(ifStmt.elseBranch) != null) {
+                return ifStmt.keyword;
+            }
+        }
+        return null;
+    }
+
+    private void report(Token token, String message) {
+        if (report) {
+            System.err.println("[line " + token.line + "] " + message + ".");
+        }
+    }
+
+    private static boolean isNumber(Expr expr, double value) {
+        return expr instanceof Expr.Literal && Double.valueOf(value).equals(((Expr.Literal) expr).value);
+    }
+
+    // ----------------------------------------------------
+    // Declarações
+    // ----------------------------------------------------
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = statements(stmt.statements);
+        if (statements == stmt.statements) {
+            return stmt;
+        }
+        Stmt.Block block = new Stmt.Block(statements);
+        block.frameSize = stmt.frameSize;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            optimize(method.body);
+        }
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.unused) {
+            report(stmt.name, "Removed unused function '" + stmt.name.lexeme + "'");
+            return null;
+        }
+        optimize(stmt.body);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isLiteral(condition)) {
+            // Só um dos ramos pode rodar; sem 'else', o 'if' todo pode sumir.
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) condition).value);
+            if ((truthy ? stmt.elseBranch : stmt.thenBranch) != null) {
+                report(stmt.keyword, "Removed '" + (truthy ? "else" : "if") + "' branch that is never taken");
+            }
+            return optimize(truthy ? stmt.thenBranch : stmt.elseBranch);
+        }
+        Stmt thenBranch = branch(stmt.thenBranch);
+        Stmt elseBranch = optimize(stmt.elseBranch); // Um 'else' que ficou vazio some
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(stmt.keyword, condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        if (stmt.unused && isPure(initializer)) {
+            report(stmt.name, "Removed unused variable '" + stmt.name.lexeme + "'");
+            return null;
+        }
+        if (initializer == stmt.initializer) {
+            return stmt;
+        }
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.boxed = stmt.boxed;
+        var.unused = stmt.unused;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isLiteral(condition) && !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+            report(stmt.keyword, "Removed '" + stmt.keyword.lexeme + "' loop that never runs");
+            return null;
+        }
+        Stmt body = branch(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) {
+            return stmt;
+        }
+        return new Stmt.While(stmt.keyword, condition, body);
+    }
+
+    // ----------------------------------------------------
+    // Expressões
+    // ----------------------------------------------------
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) {
+            return expr;
+        }
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        assign.boxed = expr.boxed;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        Expr.Binary binary = expr;
+        if (left != expr.left || right != expr.right) {
+            binary = new Expr.Binary(left, expr.operator, right);
+            binary.numeric = expr.numeric;
+        }
+        if (isLiteral(left) && isLiteral(right)) {
+            return fold(binary);
+        }
+
+        // Identidades que valem para qualquer double, inclusive NaN e -0: o outro
+        // lado precisa ser numérico, para que um erro de tipo não desapareça.
+        // 'x + 0' não entra, porque -0 + 0 é 0.
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+                if (left.numeric && isNumber(right, expr.operator.type == TokenType.MINUS ? 0 : 1)) {
+                    return left;
+                }
+                break;
+            case STAR:
+                if (left.numeric && isNumber(right, 1)) {
+                    return left;
+                }
+                if (right.numeric && isNumber(left, 1)) {
+                    return right;
+                }
+                break;
+            default:
+                break;
+        }
+        return binary;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            expr.arguments.set(i, optimize(expr.arguments.get(i)));
+        }
+        if (callee == expr.callee) {
+            return expr;
+        }
+        Expr.Call call = new Expr.Call(callee, expr.paren, expr.arguments);
+        call.tailCall = expr.tailCall;
+        return call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) {
+            return expr;
+        }
+        Expr.Get get = new Expr.Get(object, expr.name);
+        get.cache = expr.cache;
+        return get;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Os parênteses só agrupam na sintaxe; a árvore já tem a forma certa.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        // Com o lado esquerdo conhecido, o resultado é ele ou o lado direito.
+        if (isLiteral(left)) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            boolean or = expr.operator.type == TokenType.OR;
+            return truthy == or ? left : right;
+        }
+        if (left == expr.left && right == expr.right) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) {
+            return expr;
+        }
+        Expr.Set set = new Expr.Set(object, expr.name, value);
+        set.cache = expr.cache;
+        return set;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        Expr.Unary unary = expr;
+        if (right != expr.right) {
+            unary = new Expr.Unary(expr.operator, right);
+            unary.numeric = expr.numeric;
+        }
+        if (isLiteral(right)) {
+            return fold(unary);
+        }
+
+        // '!!x' é x quando x já é um booleano, e '-(-x)' é x quando x é um número.
+        if (right instanceof Expr.Unary && ((Expr.Unary) right).operator.type == expr.operator.type) {
+            Expr operand = ((Expr.Unary) right).right;
+            if (expr.operator.type == TokenType.BANG ? isBoolean(operand) : operand.numeric) {
+                return operand;
+            }
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -125,6 +125,7 @@ public class Parser {
 
     // Regra para a declaração 'if'
     private Stmt ifStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after if condition.");
@@ -135,20 +136,22 @@ public class Parser {
             elseBranch = statement(); // O corpo do 'else' também
         }
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        return new Stmt.If(keyword, condition, thenBranch, elseBranch);
     }
 
     // Regra para while statement (Cap. 9 - Loops)
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after while condition.");
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     // Regra para for statement (Cap. 9 - Loops)
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -184,7 +187,7 @@ public class Parser {
 
         if (condition == null)
             condition = new Expr.Literal(true); // Loop infinito se não houver condição
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null) {
             body = new Stmt.Block(
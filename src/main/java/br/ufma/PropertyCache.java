@@ -0,0 +1,125 @@
+package br.ufma;
+
+// Cache inline de um acesso a propriedade ('obj.nome' ou 'obj.nome = valor').
+// Cada nó Get/Set da AST tem o seu e lembra, para os Shapes de receptor que já
+// viu, onde a propriedade foi encontrada. Como cada classe tem sua própria árvore
+// de Shapes, o Shape basta para saber tanto a posição do campo quanto o método.
+//
+// Estados:
+// - monomórfico/polimórfico: até MAX_ENTRIES Shapes lembrados, testados em ordem;
+// - megamórfico: o ponto de acesso viu Shapes demais e passa a usar sempre o
+// caminho lento, sem tentar mais lembrar.
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private Shape[] shapes; // Shape do receptor de cada entrada
+    private int[] slots; // Posição do campo, ou -1 se a propriedade é um método
+    // Para leituras, o método encontrado (LoxFunction); para escritas, o Shape do
+    // receptor depois da atribuição (o mesmo, se o campo já existia).
+    private Object[] targets;
+    private int count = 0;
+    private boolean megamorphic = false;
+
+    // Lê a propriedade 'name' da instância.
+    Object get(LoxInstance instance, Token name) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                int slot = slots[i];
+                if (slot >= 0) {
+                    return instance.getField(slot);
+                }
+                return ((LoxFunction) targets[i]).bind(instance);
+            }
+        }
+        if (megamorphic) {
+            return instance.get(name);
+        }
+
+        // Falha no cache: procura como o caminho lento e lembra o resultado.
+        int slot = shape.slotOf(name.lexeme);
+        if (slot >= 0) {
+            remember(shape, slot, null);
+            return instance.getField(slot);
+        }
+        LoxFunction method = shape.klass.findMethod(name.lexeme);
+        if (method == null) {
+            return instance.get(name); // O caminho lento reporta a propriedade indefinida
+        }
+        remember(shape, -1, method);
+        return method.bind(instance);
+    }
+
+    // Para uma chamada 'obj.nome(...)': retorna o método que a propriedade 'name'
+    // da instância resolve, sem ligá-lo, ou null se ela não é um método (é um
+    // campo ou não existe), caso em que a chamada usa get().
+    LoxFunction findMethod(LoxInstance instance, Token name) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                return slots[i] >= 0 ? null : (LoxFunction) targets[i];
+            }
+        }
+        if (shape.slotOf(name.lexeme) >= 0) {
+            return null;
+        }
+        LoxFunction method = shape.klass.findMethod(name.lexeme);
+        if (method != null && !megamorphic) {
+            remember(shape, -1, method);
+        }
+        return method;
+    }
+
+    // Atribui 'value' à propriedade 'name' da instância.
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                Shape next = (Shape) targets[i];
+                if (next == shape) {
+                    instance.setField(slots[i], value);
+                } else {
+                    instance.addField(next, value);
+                }
+                return;
+            }
+        }
+        if (megamorphic) {
+            instance.set(name, value);
+            return;
+        }
+
+        // Falha no cache: resolve o campo (ou a transição para um campo novo) e
+        // lembra o resultado.
+        int slot = shape.slotOf(name.lexeme);
+        if (slot >= 0) {
+            remember(shape, slot, shape);
+            instance.setField(slot, value);
+        } else {
+            Shape next = shape.withField(name.lexeme);
+            remember(shape, next.fieldCount - 1, next);
+            instance.addField(next, value);
+        }
+    }
+
+    private void remember(Shape shape, int slot, Object target) {
+        if (count == MAX_ENTRIES) {
+            // Receptores demais neste ponto: desiste de lembrar.
+            megamorphic = true;
+            shapes = null;
+            slots = null;
+            targets = null;
+            count = 0;
+            return;
+        }
+        if (shapes == null) {
+            shapes = new Shape[MAX_ENTRIES];
+            slots = new int[MAX_ENTRIES];
+            targets = new Object[MAX_ENTRIES];
+        }
+        shapes[count] = shape;
+        slots[count] = slot;
+        targets[count] = target;
+        count++;
+    }
+}
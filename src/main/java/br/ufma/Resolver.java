@@ -2,14 +2,15 @@
 
 package br.ufma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final GlobalTable globals;
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
 
     // Usado para controlar o tipo de contexto de função atual.
     private FunctionType currentFunction = FunctionType.NONE;
@@ -32,8 +33,93 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS // Dentro de uma subclasse (onde 'super' pode ser usado)
     }
 
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Uma variável local declarada em um escopo: o slot que ela ocupa no frame
+    // da função e o que o Resolver descobriu sobre seu uso.
+    private static final class Local {
+        final int slot;
+        final Stmt declaration; // Var, Function ou Class que a declarou (null para parâmetros e nomes implícitos)
+        final List<Expr> references = new ArrayList<>(); // Leituras e atribuições que a resolvem
+        boolean defined = false; // O inicializador já foi resolvido
+        boolean initialized = false; // A declaração inteira já foi resolvida
+        boolean captured = false; // Alguma closure a captura
+        boolean capturedEarly = false; // Capturada antes de terminar a declaração (ex: função recursiva)
+        boolean assigned = false; // É alvo de alguma atribuição
+        boolean declared = true; // false para uma função do escopo ainda não declarada (veja hoistFunctions)
+        boolean capturedBeforeDeclared = false; // Capturada por uma closure criada antes da declaração
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+
+        // Uma variável capturada precisa morar em uma Cell compartilhada quando
+        // seu valor pode mudar depois da captura. Caso contrário, a closure
+        // simplesmente copia o valor.
+        boolean isBoxed() {
+            return captured && (assigned || capturedEarly);
+        }
+    }
+
+    // Uma função sendo resolvida: o primeiro escopo que pertence a ela, os
+    // upvalues que ela captura da função envolvente e a alocação de slots do seu
+    // frame. O código de nível superior é tratado como a função mais externa, sem
+    // upvalues.
+    private static final class FunctionScope {
+        final FunctionScope enclosing;
+        final int baseScope; // Índice em 'scopes' do escopo dos parâmetros
+        final List<Integer> upvalueDepths = new ArrayList<>();
+        final List<Integer> upvalueSlots = new ArrayList<>();
+        int nextSlot = 0; // Próximo slot livre do frame
+        int maxSlots = 0; // Maior número de slots ocupados ao mesmo tempo
+
+        FunctionScope(FunctionScope enclosing, int baseScope) {
+            this.enclosing = enclosing;
+            this.baseScope = baseScope;
+        }
+
+        // Todos os escopos de uma função dividem o mesmo frame. Um bloco ocupa os
+        // slots seguintes aos dos escopos que o envolvem e os devolve ao terminar,
+        // então blocos irmãos reaproveitam os mesmos slots.
+        int allocateSlot() {
+            int slot = nextSlot++;
+            maxSlots = Math.max(maxSlots, nextSlot);
+            return slot;
+        }
+
+        // Retorna o índice do upvalue que captura a posição (depth, slot) da
+        // função envolvente, registrando-o se for novo.
+        int addUpvalue(int depth, int slot) {
+            for (int i = 0; i < upvalueDepths.size(); i++) {
+                if (upvalueDepths.get(i) == depth && upvalueSlots.get(i) == slot) {
+                    return i;
+                }
+            }
+            upvalueDepths.add(depth);
+            upvalueSlots.add(slot);
+            return upvalueDepths.size() - 1;
+        }
+    }
+
+    // O resultado de resolver um nome: a posição (depth, slot) vista de onde ele
+    // é usado e a variável local que o declarou (null para globais).
+    private static final class Binding {
+        final int depth;
+        final int slot;
+        final Local local;
+
+        Binding(int depth, int slot, Local local) {
+            this.depth = depth;
+            this.slot = slot;
+            this.local = local;
+        }
+    }
+
+    private FunctionScope currentScope = new FunctionScope(null, 0);
+
+    // 'globals' é a tabela de globais do mecanismo que vai executar o programa,
+    // de onde vêm os índices gravados nos nós.
+    public Resolver(GlobalTable globals) {
+        this.globals = globals;
     }
 
     public void resolve(List<Stmt> statements) {
@@ -52,64 +138,245 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     // --- Gerenciamento de Escopos ---
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<String, Local>());
     }
 
     private void endScope() {
-        scopes.pop();
+        // Agora que todos os usos do escopo são conhecidos, marca as variáveis que
+        // precisam de uma Cell na declaração e em todas as referências.
+        Map<String, Local> scope = scopes.pop();
+        currentScope.nextSlot -= scope.size(); // Libera os slots do escopo
+        for (Local local : scope.values()) {
+            // Uma variável ou função local que nunca é lida nem atribuída pode
+            // ser removida pelo Optimizer.
+            if (local.references.isEmpty()) {
+                if (local.declaration instanceof Stmt.Var) {
+                    ((Stmt.Var) local.declaration).unused = true;
+                } else if (local.declaration instanceof Stmt.Function) {
+                    ((Stmt.Function) local.declaration).unused = true;
+                }
+            }
+            if (!local.isBoxed())
+                continue;
+            for (Expr reference : local.references) {
+                if (reference instanceof Expr.Variable) {
+                    ((Expr.Variable) reference).boxed = true;
+                } else {
+                    ((Expr.Assign) reference).boxed = true;
+                }
+            }
+            if (local.declaration instanceof Stmt.Var) {
+                ((Stmt.Var) local.declaration).boxed = true;
+            } else if (local.declaration instanceof Stmt.Function) {
+                ((Stmt.Function) local.declaration).boxed = true;
+            } else if (local.declaration instanceof Stmt.Class) {
+                ((Stmt.Class) local.declaration).boxed = true;
+            }
+        }
     }
 
-    private void declare(Token name) {
+    // Declara um nome no escopo atual e retorna o slot dele: o slot local ou, no
+    // nível superior, o índice na tabela de globais.
+    private int declare(Token name, Stmt declaration) {
         if (scopes.isEmpty())
-            return;
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
+            return globals.indexOf(name.lexeme);
+        Map<String, Local> scope = scopes.peek();
+        Local hoisted = scope.get(name.lexeme);
+        if (hoisted != null && !hoisted.declared && hoisted.declaration == declaration) {
+            hoisted.declared = true;
+            return hoisted.slot;
+        }
+        if (hoisted != null) {
             Lox.error(name.line,
                     "Already a variable with this name in this scope.");
         }
-        scope.put(name.lexeme, false);
+        // Cada declaração recebe o próximo slot livre do frame da função.
+        Local local = new Local(currentScope.allocateSlot(), declaration);
+        scope.put(name.lexeme, local);
+        return local.slot;
+    }
+
+    // Registra as funções declaradas direto em 'statements' antes de resolver o
+    // escopo, para que funções locais possam chamar umas às outras (recursão
+    // mútua). Só as closures criadas dentro do escopo enxergam uma função ainda
+    // não declarada; no próprio escopo, o nome continua indefinido até a
+    // declaração. Nomes declarados mais de uma vez ficam de fora, e o erro é
+    // reportado na segunda declaração.
+    private void hoistFunctions(List<Stmt> statements) {
+        Map<String, Local> scope = scopes.peek();
+        Map<String, Stmt> declarations = new HashMap<>();
+        for (Stmt statement : statements) {
+            Token name = declaredName(statement);
+            if (name != null) {
+                declarations.put(name.lexeme, declarations.containsKey(name.lexeme) ? null : statement);
+            }
+        }
+        for (Stmt declaration : declarations.values()) {
+            if (declaration instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) declaration;
+                if (!scope.containsKey(function.name.lexeme)) {
+                    Local local = new Local(currentScope.allocateSlot(), function);
+                    local.declared = false;
+                    scope.put(function.name.lexeme, local);
+                }
+            }
+        }
+    }
+
+    private static Token declaredName(Stmt statement) {
+        if (statement instanceof Stmt.Var)
+            return ((Stmt.Var) statement).name;
+        if (statement instanceof Stmt.Function)
+            return ((Stmt.Function) statement).name;
+        if (statement instanceof Stmt.Class)
+            return ((Stmt.Class) statement).name;
+        return null;
+    }
+
+    // Uma função capturada antes de ser declarada precisa que sua Cell exista
+    // desde o início do escopo: uma variável com o mesmo slot, sem valor, a cria
+    // no início de 'statements', e a declaração da função só a preenche.
+    private void createHoistedCells(List<Stmt> statements) {
+        for (Local local : scopes.peek().values()) {
+            if (local.capturedBeforeDeclared) {
+                Stmt.Function function = (Stmt.Function) local.declaration;
+                Stmt.Var cell = new Stmt.Var(function.name, null);
+                cell.slot = local.slot;
+                cell.boxed = true;
+                statements.add(0, cell);
+                function.hoisted = true;
+            }
+        }
     }
 
     private void define(Token name) {
         if (scopes.isEmpty())
             return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    // Marca o fim da declaração: capturas feitas a partir daqui já enxergam o
+    // valor final da variável.
+    private void initialize(Token name) {
+        if (scopes.isEmpty())
+            return;
+        scopes.peek().get(name.lexeme).initialized = true;
+    }
+
+    // Declara e define de uma vez um nome implícito ('this' ou 'super') no escopo
+    // atual e retorna o slot dele.
+    private int defineImplicit(String name) {
+        Local local = new Local(currentScope.allocateSlot(), null);
+        local.defined = true;
+        local.initialized = true;
+        scopes.peek().put(name, local);
+        return local.slot;
+    }
+
+    // Resolve um nome a partir do ponto atual. Retorna null se for global.
+    private Binding resolveName(String name) {
+        return resolveIn(currentScope, scopes.size() - 1, name);
+    }
+
+    // Procura o nome nos escopos da função dada, do escopo 'top' até o primeiro
+    // escopo dela. Se não encontrar, procura na função envolvente e, se o nome
+    // for local de alguma delas, registra um upvalue em cada função no caminho.
+    // Locais estão sempre no frame da própria função (profundidade LOCAL). Uma
+    // função ainda não declarada só é achada a partir de uma closure.
+    private Binding resolveIn(FunctionScope function, int top, String name) {
+        for (int i = top; i >= function.baseScope; i--) {
+            Local local = scopes.get(i).get(name);
+            if (local != null && (local.declared || function != currentScope)) {
+                return new Binding(Expr.LOCAL, local.slot, local);
             }
         }
+
+        if (function.enclosing == null)
+            return null;
+        // A closure é criada no escopo mais interno da função envolvente, logo
+        // antes do primeiro escopo desta função.
+        Binding outer = resolveIn(function.enclosing, function.baseScope - 1, name);
+        if (outer == null)
+            return null;
+
+        outer.local.captured = true;
+        if (!outer.local.initialized) {
+            outer.local.capturedEarly = true;
+        }
+        if (!outer.local.declared) {
+            outer.local.capturedBeforeDeclared = true;
+        }
+        return new Binding(Expr.UPVALUE, function.addUpvalue(outer.depth, outer.slot), outer.local);
     }
 
     // Resolve o corpo de uma função ou método.
-    private void resolveFunction(List<Stmt> body, FunctionType type) {
+    private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction; // Salva o tipo de função atual
         currentFunction = type; // Define o novo tipo de função
 
+        FunctionScope enclosingScope = currentScope;
+        currentScope = new FunctionScope(enclosingScope, scopes.size());
         beginScope(); // Funções criam um novo escopo
-        // Parâmetros da função são declarados e definidos no novo escopo.
-        // Para 'init', seus parâmetros não podem ser usados antes de 'this' estar
-        // disponível.
-        // (Esta parte será preenchida quando o Parser lidar com parâmetros reais)
+
+        // Métodos recebem 'this' no slot 0 do próprio frame.
+        function.method = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        if (function.method) {
+            defineImplicit("this");
+        }
+        // Parâmetros da função são declarados e definidos no novo escopo, ocupando
+        // os slots seguintes do frame da chamada.
+        for (Token param : function.params) {
+            declare(param, null);
+            define(param);
+            initialize(param);
+        }
 
         // Resolve o corpo da função.
-        resolve(body);
+        hoistFunctions(function.body);
+        resolve(function.body);
+        createHoistedCells(function.body);
+
+        // Grava na declaração o que a chamada e a criação da closure precisam saber.
+        function.upvalueDepths = toArray(currentScope.upvalueDepths);
+        function.upvalueSlots = toArray(currentScope.upvalueSlots);
+        List<Integer> boxedParams = new ArrayList<>();
+        for (Token param : function.params) {
+            Local local = scopes.peek().get(param.lexeme);
+            if (local.isBoxed()) {
+                boxedParams.add(local.slot);
+            }
+        }
+        function.boxedParams = toArray(boxedParams);
 
         endScope(); // Finaliza o escopo da função
+        function.frameSize = currentScope.maxSlots;
+        currentScope = enclosingScope;
         currentFunction = enclosingFunction; // Restaura o tipo de função anterior
     }
 
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
     // --- Implementações dos métodos visit para Declarações (Stmt) ---
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // Um bloco no nível superior tem um frame próprio, do tamanho necessário
+        // para ele e os blocos aninhados. Dentro de funções, o frame é o da função.
+        if (scopes.isEmpty()) {
+            currentScope.maxSlots = 0;
+        }
         beginScope();
+        hoistFunctions(stmt.statements);
         resolve(stmt.statements);
+        createHoistedCells(stmt.statements);
         endScope();
+        stmt.frameSize = currentScope.maxSlots;
         return null;
     }
 
@@ -118,7 +385,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass; // Salva o tipo de classe atual
         currentClass = ClassType.CLASS; // Define o novo tipo de classe (inicialmente CLASS)
 
-        declare(stmt.name); // Declara o nome da classe
+        stmt.slot = declare(stmt.name, stmt); // Declara o nome da classe
         define(stmt.name); // Define o nome da classe (permitindo recursão para classes estáticas, etc.)
 
         // Resolução de herança:
@@ -128,26 +395,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             resolve(stmt.superclass); // Resolve o nome da superclasse
             beginScope(); // Cria um escopo para 'super'
-            scopes.peek().put("super", true); // Define 'super' no escopo
+            stmt.superSlot = defineImplicit("super"); // Define 'super' no escopo
             currentClass = ClassType.SUBCLASS; // Marca como subclasse
         }
 
-        beginScope(); // Cria um novo escopo para os campos e métodos da instância (onde 'this' vive)
-        scopes.peek().put("this", true); // Define 'this' no escopo
-
-        // Resolve os métodos da classe
+        // Resolve os métodos da classe ('this' vive no slot 0 de cada método)
         for (Stmt.Function method : stmt.methods) {
             FunctionType declarationType = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) { // Se for o construtor 'init'
                 declarationType = FunctionType.INITIALIZER;
             }
-            resolveFunction(method.body, declarationType); // Resolve o corpo de cada método
+            resolveFunction(method, declarationType); // Resolve o corpo de cada método
         }
 
-        endScope(); // Finaliza o escopo de 'this'
         if (stmt.superclass != null) {
             endScope(); // Finaliza o escopo de 'super' se houver herança
         }
+        initialize(stmt.name);
         currentClass = enclosingClass; // Restaura o tipo de classe anterior
         return null;
     }
@@ -160,11 +424,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         define(stmt.name);
 
         // Resolve o corpo da função.
-        resolveFunction(stmt.body, FunctionType.FUNCTION);
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        initialize(stmt.name);
         return null;
     }
 
@@ -194,6 +459,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             if (currentFunction == FunctionType.INITIALIZER) {
                 Lox.error(stmt.keyword.line, "Can't return a value from an initializer.");
             }
+            // 'return f(...)' é uma chamada em posição de cauda: o interpretador
+            // pode executá-la reaproveitando o nível de pilha da função atual.
+            if (stmt.value instanceof Expr.Call && currentFunction != FunctionType.NONE) {
+                ((Expr.Call) stmt.value).tailCall = true;
+            }
             resolve(stmt.value);
         }
         return null;
@@ -201,11 +471,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
         define(stmt.name);
+        initialize(stmt.name);
         return null;
     }
 
@@ -221,7 +492,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        Binding binding = resolveName(expr.name.lexeme);
+        if (binding == null) {
+            expr.depth = Expr.GLOBAL;
+            expr.slot = globals.indexOf(expr.name.lexeme);
+        } else {
+            expr.depth = binding.depth;
+            expr.slot = binding.slot;
+            binding.local.assigned = true;
+            binding.local.references.add(expr);
+        }
         return null;
     }
 
@@ -229,6 +509,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        // '-', '*' e '/' só produzem números; '+' só quando os dois lados são números.
+        switch (expr.operator.type) {
+            case MINUS:
+            case STAR:
+            case SLASH:
+                expr.numeric = true;
+                break;
+            case PLUS:
+                expr.numeric = expr.left.numeric && expr.right.numeric;
+                break;
+            default:
+                break;
+        }
         return null;
     }
 
@@ -250,11 +543,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
+        expr.numeric = expr.expression.numeric;
         return null;
     }
 
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
+        expr.numeric = expr.value instanceof Double;
         return null;
     }
 
@@ -279,7 +574,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) { // 'super' só pode ser usado em uma subclasse
             Lox.error(expr.keyword.line, "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword); // Resolve a palavra-chave 'super'
+        // Resolve a palavra-chave 'super' e o 'this' do método, que o interpretador
+        // usa para ligar o método da superclasse.
+        Binding superclass = resolveName("super");
+        Binding instance = resolveName("this");
+        if (superclass != null && instance != null) {
+            expr.depth = superclass.depth;
+            expr.slot = superclass.slot;
+            expr.thisDepth = instance.depth;
+            expr.thisSlot = instance.slot;
+        }
         // Não precisa resolver expr.method, pois é um nome e será buscado em tempo de
         // execução.
         return null;
@@ -290,13 +594,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (currentClass == ClassType.NONE) { // 'this' só pode ser usado dentro de uma classe
             Lox.error(expr.keyword.line, "Can't use 'this' outside of a class.");
         }
-        resolveLocal(expr, expr.keyword); // Resolve a palavra-chave 'this'
+        Binding binding = resolveName("this"); // Resolve a palavra-chave 'this'
+        if (binding != null) {
+            expr.depth = binding.depth;
+            expr.slot = binding.slot;
+        }
         return null;
     }
 
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.numeric = expr.operator.type == TokenType.MINUS;
         return null;
     }
 
@@ -305,13 +614,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // Verifica se a variável está sendo usada antes de ser inicializada no escopo
         // atual.
         if (!scopes.isEmpty()) {
-            Map<String, Boolean> scope = scopes.peek();
-            if (scope.containsKey(expr.name.lexeme) && scope.get(expr.name.lexeme) == false) {
+            Local local = scopes.peek().get(expr.name.lexeme);
+            if (local != null && local.declared && !local.defined) {
                 Lox.error(expr.name.line,
                         "Can't read local variable in its own initializer.");
             }
         }
-        resolveLocal(expr, expr.name);
+        Binding binding = resolveName(expr.name.lexeme);
+        if (binding == null) {
+            expr.depth = Expr.GLOBAL;
+            expr.slot = globals.indexOf(expr.name.lexeme);
+        } else {
+            expr.depth = binding.depth;
+            expr.slot = binding.slot;
+            binding.local.references.add(expr);
+        }
         return null;
     }
 }
\ No newline at end of file
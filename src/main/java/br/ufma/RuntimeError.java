@@ -1,10 +1,19 @@
 package br.ufma;
 
+import java.util.Collections;
+import java.util.List;
+
 public class RuntimeError extends RuntimeException {
-    final Token token;
+    public final Token token;
+    public final List<String> trace; // Rastro das chamadas Lox ativas (vazio se não houver)
+
+    public RuntimeError(Token token, String message) {
+        this(token, message, Collections.emptyList());
+    }
 
-    RuntimeError(Token token, String message) {
+    public RuntimeError(Token token, String message, List<String> trace) {
         super(message);
         this.token = token;
+        this.trace = trace;
     }
-}
\ No newline at end of file
+}
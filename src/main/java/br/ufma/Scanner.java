@@ -8,6 +8,7 @@ import java.util.Map;
 
 public class Scanner {
     private final String source;
+    private final Map<String, String> strings; // Veja Engine.strings
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
@@ -35,8 +36,9 @@ public class Scanner {
         keywords.put("while", TokenType.WHILE);
     }
 
-    public Scanner(String source) {
+    public Scanner(String source, Map<String, String> strings) {
         this.source = source;
+        this.strings = strings;
     }
 
     public List<Token> scanTokens() {
@@ -141,10 +143,21 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
+        addToken(type, source.substring(start, current), literal);
+    }
+
+    private void addToken(TokenType type, String text, Object literal) {
         tokens.add(new Token(type, text, literal, line));
     }
 
+    // A cópia de 'text' que está na tabela de strings do mecanismo. Só os nomes
+    // dos identificadores e os valores dos literais de string passam por ela,
+    // porque só eles são comparados por referência; a tabela nunca encolhe.
+    private String intern(String text) {
+        String existing = strings.putIfAbsent(text, text);
+        return existing != null ? existing : text;
+    }
+
     private boolean match(char expected) {
         if (isAtEnd())
             return false;
@@ -181,7 +194,9 @@ public class Scanner {
 
         advance();
 
-        String value = source.substring(start + 1, current - 1);
+        // Literais iguais também viram o mesmo objeto, o que torna a comparação
+        // entre eles uma checagem de identidade.
+        String value = intern(source.substring(start + 1, current - 1));
         addToken(TokenType.STRING, value);
     }
 
@@ -221,8 +236,11 @@ public class Scanner {
         String text = source.substring(start, current);
         TokenType type = keywords.get(text);
 
+        // Os nomes são internados: o mesmo identificador é sempre o mesmo
+        // objeto String, e o interpretador pode comparar nomes por referência.
         if (type == null)
-            type = TokenType.IDENTIFIER;
-        addToken(type);
+            addToken(TokenType.IDENTIFIER, intern(text), null);
+        else
+            addToken(type, text, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package br.ufma;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// O layout (hidden class) de uma instância: quais campos ela tem e em que
+// posição de seu array de valores cada um está. Instâncias da mesma classe que
+// recebem os mesmos campos na mesma ordem compartilham o mesmo Shape, então o
+// mapa de nomes existe uma vez por layout em vez de uma vez por objeto.
+//
+// Shapes são imutáveis: atribuir um campo novo leva a instância para o Shape
+// seguinte, obtido por uma transição que fica guardada no Shape anterior. Cada
+// classe tem a própria árvore de Shapes, então o Shape também identifica a
+// classe da instância.
+final class Shape {
+    final LoxClass klass;
+    final int fieldCount;
+    // Nome do campo -> posição. Os nomes são lexemas internados pelo Scanner.
+    private final Map<String, Integer> slots;
+    // Transições já criadas a partir deste Shape (nome do campo novo -> Shape).
+    private Map<String, Shape> transitions = null;
+
+    // Cria o Shape inicial, sem campos, de uma classe.
+    Shape(LoxClass klass) {
+        this(klass, new IdentityHashMap<String, Integer>());
+    }
+
+    private Shape(LoxClass klass, Map<String, Integer> slots) {
+        this.klass = klass;
+        this.slots = slots;
+        this.fieldCount = slots.size();
+    }
+
+    // Retorna a posição do campo, ou -1 se o layout não tem esse campo.
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // Retorna o Shape com um campo a mais, no fim do array de valores.
+    Shape withField(String name) {
+        if (transitions == null) {
+            transitions = new IdentityHashMap<>();
+        }
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new IdentityHashMap<>(slots);
+            nextSlots.put(name, fieldCount);
+            next = new Shape(klass, nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
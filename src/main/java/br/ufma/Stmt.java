@@ -33,6 +33,9 @@ public abstract class Stmt {
 
   public static class Block extends Stmt {
     public final List<Stmt> statements;
+    // Anotações preenchidas após o parsing.
+    public int frameSize;
+    public Environment frame;
 
     public Block(List<Stmt> statements) {
       this.statements = statements;
@@ -48,6 +51,10 @@ public abstract class Stmt {
     public final Token name;
     public final Expr.Variable superclass; // Representa a superclasse, se houver
     public final List<Stmt.Function> methods; // Lista de métodos da classe
+    // Anotações preenchidas após o parsing.
+    public int slot;
+    public boolean boxed;
+    public int superSlot;
 
     public Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
       this.name = name;
@@ -78,6 +85,16 @@ public abstract class Stmt {
     public final Token name;
     public final List<Token> params;
     public final List<Stmt> body;
+    // Anotações preenchidas após o parsing.
+    public int slot;
+    public boolean boxed;
+    public boolean unused;
+    public int[] boxedParams;
+    public int[] upvalueDepths;
+    public int[] upvalueSlots;
+    public int frameSize;
+    public boolean method;
+    public boolean hoisted;
 
     public Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
@@ -92,11 +109,13 @@ public abstract class Stmt {
   }
 
   public static class If extends Stmt {
+    public final Token keyword;
     public final Expr condition;
     public final Stmt thenBranch;
     public final Stmt elseBranch;
 
-    public If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+    public If(Token keyword, Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      this.keyword = keyword;
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
@@ -139,6 +158,10 @@ public abstract class Stmt {
   public static class Var extends Stmt {
     public final Token name;
     public final Expr initializer;
+    // Anotações preenchidas após o parsing.
+    public int slot;
+    public boolean boxed;
+    public boolean unused;
 
     public Var(Token name, Expr initializer) {
       this.name = name;
@@ -152,10 +175,12 @@ public abstract class Stmt {
   }
 
   public static class While extends Stmt { // NOVO
+    public final Token keyword;
     public final Expr condition;
     public final Stmt body;
 
-    public While(Expr condition, Stmt body) {
+    public While(Token keyword, Expr condition, Stmt body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -0,0 +1,325 @@
+package br.ufma;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Um nó executável de declaração, criado pelo NodeCompiler (veja ExprNode). A
+// execução devolve a conclusão, como no Interpreter: um 'return' guarda o valor
+// em Interpreter.returnValue e devolve RETURN, que sobe até o corpo da função.
+abstract class StmtNode extends Node {
+    abstract Interpreter.Completion execute(Environment frame, Object[] upvalues);
+
+    static final class Expression extends StmtNode {
+        private ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            expression.executeVoid(frame, upvalues);
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    static final class Print extends StmtNode {
+        private ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            System.out.println(Interpreter.stringify(expression.execute(frame, upvalues)));
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    static final class Return extends StmtNode {
+        private final Interpreter interpreter;
+        private ExprNode value;
+
+        Return(Interpreter interpreter, ExprNode value) {
+            this.interpreter = interpreter;
+            this.value = value;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            interpreter.returnValue = value.execute(frame, upvalues);
+            return Interpreter.Completion.RETURN;
+        }
+    }
+
+    // Uma lista de declarações no frame atual (o corpo de uma função ou um bloco
+    // dentro dela, cujas variáveis já têm slots no frame da chamada).
+    static final class Sequence extends StmtNode {
+        private StmtNode[] statements;
+
+        Sequence(StmtNode[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            for (StmtNode statement : statements) {
+                if (statement.execute(frame, upvalues) == Interpreter.Completion.RETURN) {
+                    return Interpreter.Completion.RETURN;
+                }
+            }
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    // Um bloco no nível superior, que ganha um frame próprio para suas variáveis.
+    // O frame é o mesmo em todas as execuções do bloco, como no Interpreter.
+    static final class TopLevelBlock extends StmtNode {
+        private final Environment frame;
+        private Sequence body;
+
+        TopLevelBlock(int frameSize, Sequence body) {
+            this.frame = new Environment(frameSize);
+            this.body = body;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            return body.execute(this.frame, upvalues);
+        }
+    }
+
+    static final class If extends StmtNode {
+        private ExprNode condition;
+        private StmtNode thenBranch;
+        private StmtNode elseBranch; // null se não há 'else'
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            if (condition.executeCondition(frame, upvalues)) {
+                return thenBranch.execute(frame, upvalues);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(frame, upvalues);
+            }
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    static final class While extends StmtNode {
+        private ExprNode condition;
+        private StmtNode body;
+
+        While(ExprNode condition, StmtNode body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            while (condition.executeCondition(frame, upvalues)) {
+                if (body.execute(frame, upvalues) == Interpreter.Completion.RETURN) {
+                    return Interpreter.Completion.RETURN;
+                }
+            }
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    // ----------------------------------------------------
+    // Declarações de variáveis
+    // ----------------------------------------------------
+
+    // Um local inicializado supondo que o valor é um número, que vai direto
+    // para o frame. No primeiro valor que não é um número, o nó passa a LocalVar
+    // (como ExprNode.LocalNumberWrite).
+    static final class LocalNumberVar extends StmtNode {
+        private final int slot;
+        private ExprNode initializer;
+
+        LocalNumberVar(int slot, ExprNode initializer) {
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            try {
+                frame.setNumber(slot, initializer.executeNumber(frame, upvalues));
+            } catch (UnexpectedResultException miss) {
+                frame.set(slot, miss.result);
+                replace(new LocalVar(slot, initializer));
+            }
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    static final class LocalVar extends StmtNode {
+        private final int slot;
+        private ExprNode initializer;
+
+        LocalVar(int slot, ExprNode initializer) {
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            frame.set(slot, initializer.execute(frame, upvalues));
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    // Um local capturado por closures que o alteram mora em uma Cell.
+    static final class LocalCellVar extends StmtNode {
+        private final int slot;
+        private ExprNode initializer;
+
+        LocalCellVar(int slot, ExprNode initializer) {
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            frame.set(slot, new Cell(initializer.execute(frame, upvalues)));
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    static final class GlobalVar extends StmtNode {
+        private final GlobalTable globals;
+        private final int slot;
+        private ExprNode initializer;
+
+        GlobalVar(GlobalTable globals, int slot, ExprNode initializer) {
+            this.globals = globals;
+            this.slot = slot;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            globals.define(slot, initializer.execute(frame, upvalues));
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    // ----------------------------------------------------
+    // Funções e classes
+    // ----------------------------------------------------
+
+    static final class Function extends StmtNode {
+        private final GlobalTable globals;
+        private final Stmt.Function declaration; // Com o corpo já compilado em 'node'
+
+        Function(GlobalTable globals, Stmt.Function declaration) {
+            this.globals = globals;
+            this.declaration = declaration;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            // Uma função que captura a si mesma precisa que sua Cell exista antes
+            // de a closure ser criada. Na recursão mútua, a Cell já foi criada no
+            // início do escopo.
+            if (declaration.hoisted) {
+                Cell cell = (Cell) frame.get(declaration.slot);
+                cell.value = new LoxFunction(declaration, capture(declaration, frame, upvalues), false);
+            } else if (declaration.boxed) {
+                Cell cell = new Cell(null);
+                declare(globals, frame, declaration.slot, cell);
+                cell.value = new LoxFunction(declaration, capture(declaration, frame, upvalues), false);
+            } else {
+                LoxFunction function = new LoxFunction(declaration, capture(declaration, frame, upvalues), false);
+                declare(globals, frame, declaration.slot, function);
+            }
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    static final class Class extends StmtNode {
+        private final GlobalTable globals;
+        private final Stmt.Class declaration; // Com o corpo dos métodos já compilado
+        private ExprNode superclass; // null se não há superclasse
+
+        Class(GlobalTable globals, Stmt.Class declaration, ExprNode superclass) {
+            this.globals = globals;
+            this.declaration = declaration;
+            this.superclass = superclass;
+        }
+
+        @Override
+        Interpreter.Completion execute(Environment frame, Object[] upvalues) {
+            LoxClass parent = null;
+            if (superclass != null) {
+                Object value = superclass.execute(frame, upvalues);
+                if (!(value instanceof LoxClass)) {
+                    throw new RuntimeError(declaration.superclass.name, "Superclass must be a class.");
+                }
+                parent = (LoxClass) value;
+            }
+
+            Cell cell = declaration.boxed ? new Cell(null) : null;
+            declare(globals, frame, declaration.slot, cell);
+
+            // Os métodos capturam a superclasse do slot de 'super'. No nível
+            // superior não há frame, então um frame temporário é usado.
+            Environment scope = frame;
+            if (parent != null) {
+                if (scope == null) {
+                    scope = new Environment(1);
+                }
+                scope.set(declaration.superSlot, parent);
+            }
+
+            Map<String, LoxFunction> methods = new IdentityHashMap<>();
+            if (parent != null) {
+                methods.putAll(parent.methodTable());
+            }
+            for (Stmt.Function method : declaration.methods) {
+                boolean isInitializer = method.name.lexeme.equals("init");
+                methods.put(method.name.lexeme, new LoxFunction(method, capture(method, scope, upvalues), isInitializer));
+            }
+            LoxClass klass = new LoxClass(declaration.name.lexeme, parent, methods);
+
+            if (cell != null) {
+                cell.value = klass;
+            } else {
+                declare(globals, frame, declaration.slot, klass);
+            }
+            return Interpreter.Completion.NORMAL;
+        }
+    }
+
+    // Declara uma função ou classe no seu slot do frame ou, no nível superior,
+    // no índice da tabela de globais.
+    private static void declare(GlobalTable globals, Environment frame, int slot, Object value) {
+        if (frame == null) {
+            globals.define(slot, value);
+        } else {
+            frame.set(slot, value);
+        }
+    }
+
+    // Copia do frame (ou dos upvalues atuais) as variáveis que a função usa de
+    // escopos envolventes, como Interpreter.capture.
+    private static Object[] capture(Stmt.Function function, Environment frame, Object[] upvalues) {
+        int count = function.upvalueDepths.length;
+        if (count == 0) {
+            return NodeInterpreter.NO_UPVALUES;
+        }
+        Object[] captured = new Object[count];
+        for (int i = 0; i < count; i++) {
+            int slot = function.upvalueSlots[i];
+            captured[i] = function.upvalueDepths[i] == Expr.UPVALUE ? upvalues[slot] : frame.get(slot);
+        }
+        return captured;
+    }
+}
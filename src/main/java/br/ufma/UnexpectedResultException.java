@@ -0,0 +1,14 @@
+package br.ufma;
+
+// Lançada por ExprNode.executeNumber quando a expressão não produziu um número.
+// Leva o valor que foi produzido, para que quem chamou possa terminar a
+// operação com ele (e se trocar por uma versão geral) sem avaliar a expressão
+// de novo. Não guarda o rastro da pilha, que nunca é usado.
+final class UnexpectedResultException extends Exception {
+    final Object result;
+
+    UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
@@ -0,0 +1,69 @@
+package br.ufma;
+
+// Representação compacta dos valores Lox guardados em frames e em campos de
+// instâncias (NaN-boxing). Cada valor ocupa um 'long': números são os próprios
+// bits do double; nil, true e false são NaNs silenciosos com uma etiqueta que
+// nenhum double produz. Objetos do heap (strings, funções, classes, instâncias,
+// Cells) ficam em um array de referências paralelo, e o 'long' do mesmo índice
+// guarda apenas a etiqueta OBJECT.
+//
+// Assim, gravar e ler números não cria objetos Double, e descobrir o tipo de um
+// valor é uma comparação de etiqueta em vez de uma cadeia de instanceof.
+public final class Value {
+    // Bits de NaN silencioso usados pelas etiquetas. Double.doubleToLongBits
+    // normaliza qualquer NaN para 0x7ff8000000000000, que não tem esses bits.
+    private static final long QNAN = 0x7ffc000000000000L;
+
+    public static final long NIL = QNAN | 1;
+    public static final long FALSE = QNAN | 2;
+    public static final long TRUE = QNAN | 3;
+    public static final long OBJECT = QNAN | 4; // O valor está no array de referências
+
+    private Value() {
+    }
+
+    public static boolean isNumber(long value) {
+        return (value & QNAN) != QNAN;
+    }
+
+    public static long number(double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    public static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    // Lê o valor do índice dado como um objeto Java (Double, Boolean, null ou a
+    // referência).
+    public static Object get(long[] values, Object[] refs, int index) {
+        long value = values[index];
+        if (isNumber(value)) {
+            return asNumber(value);
+        }
+        if (value == OBJECT) {
+            return refs[index];
+        }
+        if (value == NIL) {
+            return null;
+        }
+        return value == TRUE;
+    }
+
+    // Grava um objeto Java no índice dado, desempacotando números e booleanos.
+    public static void set(long[] values, Object[] refs, int index, Object value) {
+        if (value instanceof Double) {
+            values[index] = number((double) value);
+            refs[index] = null;
+        } else if (value == null) {
+            values[index] = NIL;
+            refs[index] = null;
+        } else if (value instanceof Boolean) {
+            values[index] = (boolean) value ? TRUE : FALSE;
+            refs[index] = null;
+        } else {
+            values[index] = OBJECT;
+            refs[index] = value;
+        }
+    }
+}
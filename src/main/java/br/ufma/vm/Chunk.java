@@ -0,0 +1,97 @@
+package br.ufma.vm;
+
+import br.ufma.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// O código de uma função em construção: as instruções, a linha do código fonte
+// de cada posição (para as mensagens de erro) e o pool de constantes. Cada
+// posição guarda um byte do bytecode da VM de pilha ou uma palavra inteira das
+// instruções da VM de registradores.
+final class Chunk {
+    private int[] code = new int[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+
+    private final List<Object> constants = new ArrayList<>();
+    // Números e strings repetidos ocupam uma única entrada do pool.
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    private int cacheCount = 0; // Caches inline reservados pelas instruções de propriedade
+
+    int count() {
+        return count;
+    }
+
+    void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    // Sobrescreve um operando de 16 bits já escrito (usado para corrigir saltos).
+    void patch(int offset, int value) {
+        code[offset] = (value >> 8) & 0xff;
+        code[offset + 1] = value & 0xff;
+    }
+
+    // Sobrescreve uma palavra já escrita (os saltos da VM de registradores).
+    void set(int offset, int value) {
+        code[offset] = value;
+    }
+
+    // Adiciona uma constante ao pool (ou reaproveita uma igual) e retorna o índice.
+    int addConstant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index != null) {
+            return index;
+        }
+        constants.add(value);
+        constantIndices.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    int constantCount() {
+        return constants.size();
+    }
+
+    // Reserva um cache inline para uma instrução e retorna o índice dele.
+    int addCache() {
+        return cacheCount++;
+    }
+
+    int cacheCount() {
+        return cacheCount;
+    }
+
+    byte[] code() {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) code[i];
+        }
+        return bytes;
+    }
+
+    int[] instructions() {
+        return Arrays.copyOf(code, count);
+    }
+
+    int[] lines() {
+        return Arrays.copyOf(lines, count);
+    }
+
+    // Copia o pool para 'values' e 'refs' na representação de Value, pronto para
+    // ser copiado para a pilha.
+    void copyConstants(long[] values, Object[] refs) {
+        for (int i = 0; i < constants.size(); i++) {
+            Value.set(values, refs, i, constants.get(i));
+        }
+    }
+}
@@ -0,0 +1,765 @@
+package br.ufma.vm;
+
+import br.ufma.Expr;
+import br.ufma.Lox;
+import br.ufma.Stmt;
+import br.ufma.TokenType;
+import java.util.List;
+
+// Compila a AST já resolvida em bytecode. O compilador não refaz a análise de
+// escopos: usa as anotações do Resolver (slots dos frames, upvalues, Cells,
+// índices das globais e chamadas de cauda), então cada variável vira um acesso
+// direto a um slot, a um upvalue ou a um índice da tabela de globais.
+final class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    // O estado da função sendo compilada.
+    private Chunk chunk;
+    private int stackDepth; // Valores na pilha de operandos neste ponto do código
+    private int maxStack;
+
+    // Quantos escopos (blocos ou corpos de funções) envolvem o código atual. No
+    // nível superior (0), as declarações vão para a tabela de globais.
+    private int scopeDepth = 0;
+
+    // Slots usados pelos blocos e pelas classes do nível superior, que rodam no
+    // frame do script.
+    private int scriptFrameSize = 0;
+
+    private int line = 1; // Linha do token mais recente, gravada em cada byte emitido
+    private boolean hadError = false;
+
+    // Compila o programa na função do script. Retorna null se houve um erro,
+    // já reportado via Lox.error.
+    ObjFunction compile(List<Stmt> statements) {
+        chunk = new Chunk();
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+        if (hadError) {
+            return null;
+        }
+        return new ObjFunction(null, 0, false, chunk, false, scriptFrameSize, maxStack,
+                new int[0], new int[0], new int[0]);
+    }
+
+    // ----------------------------------------------------
+    // Declarações
+    // ----------------------------------------------------
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // As variáveis do bloco já têm slots no frame atual: entrar no bloco não
+        // gera código. No nível superior, o frame é o do script.
+        if (scopeDepth == 0) {
+            scriptFrameSize = Math.max(scriptFrameSize, stmt.frameSize);
+        }
+        scopeDepth++;
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        scopeDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // A superclasse é verificada e guardada no slot de 'super', de onde os
+        // métodos a capturam.
+        if (stmt.superclass != null) {
+            stmt.superclass.accept(this);
+            line = stmt.superclass.name.line;
+            emit(OpCode.CHECK_SUPERCLASS, 0);
+            if (scopeDepth == 0) {
+                scriptFrameSize = Math.max(scriptFrameSize, stmt.superSlot + 1);
+            }
+            emit(OpCode.STORE_LOCAL, -1);
+            emitShort(stmt.superSlot);
+        }
+
+        // O nome existe (como nil) enquanto os métodos são criados.
+        line = stmt.name.line;
+        emit(OpCode.NIL, 1);
+        if (stmt.boxed) {
+            emit(OpCode.NEW_CELL, 0);
+        }
+        define(stmt.slot);
+
+        if (stmt.superclass != null) {
+            emit(OpCode.GET_LOCAL, 1);
+            emitShort(stmt.superSlot);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        for (Stmt.Function method : stmt.methods) {
+            function(method, method.name.lexeme.equals("init"));
+        }
+        line = stmt.name.line;
+        emit(OpCode.CLASS, -stmt.methods.size());
+        emitShort(constant(stmt.name.lexeme));
+        emitShort(stmt.methods.size());
+
+        if (stmt.boxed) {
+            emit(OpCode.SET_LOCAL_CELL, 0);
+            emitShort(stmt.slot);
+            emit(OpCode.POP, -1);
+        } else {
+            define(stmt.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        // Uma atribuição cujo valor é descartado grava e desempilha com uma só
+        // instrução.
+        if (stmt.expression instanceof Expr.Assign) {
+            if (!addToLocal((Expr.Assign) stmt.expression)) {
+                assign((Expr.Assign) stmt.expression, true);
+            }
+            return null;
+        }
+        if (stmt.expression instanceof Expr.Set) {
+            set((Expr.Set) stmt.expression, true);
+            return null;
+        }
+        stmt.expression.accept(this);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        if (stmt.hoisted) {
+            // Na recursão mútua, a Cell já foi criada no início do escopo.
+            function(stmt, false);
+            emit(OpCode.SET_LOCAL_CELL, 0);
+            emitShort(stmt.slot);
+            emit(OpCode.POP, -1);
+            return null;
+        }
+        if (stmt.boxed) {
+            // Uma função que captura a si mesma precisa que sua Cell exista antes
+            // de a closure ser criada.
+            emit(OpCode.NIL, 1);
+            emit(OpCode.NEW_CELL, 0);
+            define(stmt.slot);
+            function(stmt, false);
+            emit(OpCode.SET_LOCAL_CELL, 0);
+            emitShort(stmt.slot);
+            emit(OpCode.POP, -1);
+            return null;
+        }
+        function(stmt, false);
+        define(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = condition(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(OpCode.JUMP, 0);
+        patchJump(thenJump);
+        stmt.elseBranch.accept(this);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression.accept(this);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // Um inicializador retorna 'this' mesmo com 'return;': a instrução RETURN
+        // cuida disso.
+        line = stmt.keyword.line;
+        if (stmt.value != null) {
+            stmt.value.accept(this);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        line = stmt.name.line;
+        if (stmt.boxed) {
+            emit(OpCode.NEW_CELL, 0);
+        }
+        define(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count();
+        int exitJump = condition(stmt.condition);
+        stmt.body.accept(this);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+
+    // ----------------------------------------------------
+    // Expressões: cada uma deixa exatamente um valor na pilha
+    // ----------------------------------------------------
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        assign(expr, false);
+        return null;
+    }
+
+    // Compila 'x = x + y' ou 'x = x - k', com 'x' local, como uma conta direto
+    // no slot. Retorna false se a atribuição não tem essa forma.
+    private boolean addToLocal(Expr.Assign assign) {
+        if (assign.depth != Expr.LOCAL || assign.boxed || !(assign.value instanceof Expr.Binary)) {
+            return false;
+        }
+        Expr.Binary binary = (Expr.Binary) assign.value;
+        TokenType operator = binary.operator.type;
+        if ((operator != TokenType.PLUS && operator != TokenType.MINUS)
+                || !(binary.left instanceof Expr.Variable)
+                || !isLocal((Expr.Variable) binary.left)
+                || ((Expr.Variable) binary.left).slot != assign.slot) {
+            return false;
+        }
+        if (binary.right instanceof Expr.Literal && ((Expr.Literal) binary.right).value instanceof Double) {
+            int constant = constant(((Expr.Literal) binary.right).value);
+            line = binary.operator.line;
+            emit(operator == TokenType.PLUS ? OpCode.ADD_CONSTANT_TO_LOCAL : OpCode.SUBTRACT_CONSTANT_FROM_LOCAL, 0);
+            emitShort(assign.slot);
+            emitShort(constant);
+            return true;
+        }
+        // 'x' é lido depois de 'y' ser avaliado, então 'y' não pode alterá-lo.
+        if (operator != TokenType.PLUS || assigns(binary.right, assign.slot)) {
+            return false;
+        }
+        binary.right.accept(this);
+        line = binary.operator.line;
+        emit(OpCode.ADD_TO_LOCAL, -1);
+        emitShort(assign.slot);
+        return true;
+    }
+
+    // Se todos os argumentos são literais ou variáveis que não são globais, cuja
+    // leitura não falha.
+    private static boolean simple(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            while (argument instanceof Expr.Grouping) {
+                argument = ((Expr.Grouping) argument).expression;
+            }
+            if (!(argument instanceof Expr.Literal || argument instanceof Expr.This
+                    || (argument instanceof Expr.Variable && ((Expr.Variable) argument).depth != Expr.GLOBAL))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Se avaliar 'expr' pode atribuir ao local 'slot'. Um local fora de uma Cell
+    // só é alterado pelo código da própria função, então basta procurar as
+    // atribuições na expressão.
+    private static boolean assigns(Expr expr, int slot) {
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            return (assign.depth == Expr.LOCAL && assign.slot == slot) || assigns(assign.value, slot);
+        }
+        if (expr instanceof Expr.Binary) {
+            return assigns(((Expr.Binary) expr).left, slot) || assigns(((Expr.Binary) expr).right, slot);
+        }
+        if (expr instanceof Expr.Logical) {
+            return assigns(((Expr.Logical) expr).left, slot) || assigns(((Expr.Logical) expr).right, slot);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return assigns(((Expr.Grouping) expr).expression, slot);
+        }
+        if (expr instanceof Expr.Unary) {
+            return assigns(((Expr.Unary) expr).right, slot);
+        }
+        if (expr instanceof Expr.Get) {
+            return assigns(((Expr.Get) expr).object, slot);
+        }
+        if (expr instanceof Expr.Set) {
+            return assigns(((Expr.Set) expr).object, slot) || assigns(((Expr.Set) expr).value, slot);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if (assigns(call.callee, slot)) {
+                return true;
+            }
+            for (Expr argument : call.arguments) {
+                if (assigns(argument, slot)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Compila a atribuição; com 'store', o valor não fica na pilha.
+    private void assign(Expr.Assign expr, boolean store) {
+        expr.value.accept(this);
+        line = expr.name.line;
+        int effect = store ? -1 : 0;
+        if (expr.depth == Expr.GLOBAL) {
+            emit(store ? OpCode.STORE_GLOBAL : OpCode.SET_GLOBAL, effect);
+        } else if (expr.boxed && expr.depth == Expr.UPVALUE) {
+            emit(store ? OpCode.STORE_UPVALUE_CELL : OpCode.SET_UPVALUE_CELL, effect);
+        } else if (expr.boxed) {
+            emit(store ? OpCode.STORE_LOCAL_CELL : OpCode.SET_LOCAL_CELL, effect);
+        } else {
+            emit(store ? OpCode.STORE_LOCAL : OpCode.SET_LOCAL, effect);
+        }
+        emitShort(expr.slot);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        // Com um número literal à direita, uma instrução combinada faz a conta;
+        // se o lado esquerdo é um local, ela o lê direto do slot.
+        byte withConstant = withConstant(expr.operator.type);
+        if (withConstant >= 0 && expr.right instanceof Expr.Literal
+                && ((Expr.Literal) expr.right).value instanceof Double) {
+            int constant = constant(((Expr.Literal) expr.right).value);
+            if (expr.left instanceof Expr.Variable && isLocal((Expr.Variable) expr.left)) {
+                line = expr.operator.line;
+                emit(withLocalConstant(expr.operator.type), 1);
+                emitShort(((Expr.Variable) expr.left).slot);
+            } else {
+                expr.left.accept(this);
+                line = expr.operator.line;
+                emit(withConstant, 0);
+            }
+            emitShort(constant);
+            return null;
+        }
+
+        expr.left.accept(this);
+        expr.right.accept(this);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER:
+                emit(OpCode.GREATER, -1);
+                break;
+            case GREATER_EQUAL:
+                emit(OpCode.GREATER_EQUAL, -1);
+                break;
+            case LESS:
+                emit(OpCode.LESS, -1);
+                break;
+            case LESS_EQUAL:
+                emit(OpCode.LESS_EQUAL, -1);
+                break;
+            case BANG_EQUAL:
+                emit(OpCode.NOT_EQUAL, -1);
+                break;
+            case EQUAL_EQUAL:
+                emit(OpCode.EQUAL, -1);
+                break;
+            case MINUS:
+                emit(OpCode.SUBTRACT, -1);
+                break;
+            case PLUS:
+                emit(OpCode.ADD, -1);
+                break;
+            case SLASH:
+                emit(OpCode.DIVIDE, -1);
+                break;
+            case STAR:
+                emit(OpCode.MULTIPLY, -1);
+                break;
+            default:
+                break; // Não deveria ser alcançado
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int count = expr.arguments.size();
+
+        // 'obj.metodo(...)': o método é procurado antes dos argumentos serem
+        // avaliados (como no interpretador) e chamado sem criar o método ligado.
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            // Se avaliar os argumentos não pode falhar nem ter efeitos, procurar o
+            // método depois deles dá no mesmo.
+            if (!expr.tailCall && get.name.line == expr.paren.line && simple(expr.arguments)) {
+                get.object.accept(this);
+                arguments(expr.arguments);
+                line = get.name.line;
+                emit(OpCode.INVOKE, -count);
+                emitShort(constant(get.name.lexeme));
+                emitShort(chunk.addCache());
+                emitByte(count);
+                return null;
+            }
+            get.object.accept(this);
+            line = get.name.line;
+            emit(OpCode.GET_METHOD, 1);
+            emitShort(constant(get.name.lexeme));
+            emitShort(chunk.addCache());
+            arguments(expr.arguments);
+            line = expr.paren.line;
+            emit(expr.tailCall ? OpCode.TAIL_CALL_METHOD : OpCode.CALL_METHOD, -(count + 1));
+            emitByte(count);
+            return null;
+        }
+
+        expr.callee.accept(this);
+        arguments(expr.arguments);
+        line = expr.paren.line;
+        emit(expr.tailCall ? OpCode.TAIL_CALL : OpCode.CALL, -count);
+        emitByte(count);
+        return null;
+    }
+
+    // A instrução combinada de um operador com uma constante à direita, ou -1
+    // se ele não tem uma.
+    private static byte withConstant(TokenType operator) {
+        switch (operator) {
+            case PLUS:
+                return OpCode.ADD_CONSTANT;
+            case MINUS:
+                return OpCode.SUBTRACT_CONSTANT;
+            case STAR:
+                return OpCode.MULTIPLY_CONSTANT;
+            case GREATER:
+                return OpCode.GREATER_CONSTANT;
+            case GREATER_EQUAL:
+                return OpCode.GREATER_EQUAL_CONSTANT;
+            case LESS:
+                return OpCode.LESS_CONSTANT;
+            case LESS_EQUAL:
+                return OpCode.LESS_EQUAL_CONSTANT;
+            default:
+                return -1;
+        }
+    }
+
+    // O mesmo, com o operando esquerdo em um slot local.
+    private static byte withLocalConstant(TokenType operator) {
+        switch (operator) {
+            case PLUS:
+                return OpCode.ADD_LOCAL_CONSTANT;
+            case MINUS:
+                return OpCode.SUBTRACT_LOCAL_CONSTANT;
+            case STAR:
+                return OpCode.MULTIPLY_LOCAL_CONSTANT;
+            case GREATER:
+                return OpCode.GREATER_LOCAL_CONSTANT;
+            case GREATER_EQUAL:
+                return OpCode.GREATER_EQUAL_LOCAL_CONSTANT;
+            case LESS:
+                return OpCode.LESS_LOCAL_CONSTANT;
+            default:
+                return OpCode.LESS_EQUAL_LOCAL_CONSTANT;
+        }
+    }
+
+    // Uma variável lida direto de um slot do frame atual (fora de uma Cell).
+    private static boolean isLocal(Expr.Variable variable) {
+        return variable.depth == Expr.LOCAL && !variable.boxed;
+    }
+
+    // O slot de uma variável local (ou de 'this' no próprio método) fora de uma
+    // Cell, ou -1 se a expressão não é uma.
+    private static int localSlot(Expr expr) {
+        if (expr instanceof Expr.Variable && isLocal((Expr.Variable) expr)) {
+            return ((Expr.Variable) expr).slot;
+        }
+        if (expr instanceof Expr.This && ((Expr.This) expr).depth == Expr.LOCAL) {
+            return ((Expr.This) expr).slot;
+        }
+        return -1;
+    }
+
+    // Compila a condição de um 'if' ou 'while' e o salto para quando ela é
+    // falsa, e retorna a posição do deslocamento a corrigir. A comparação de um
+    // local com uma constante numérica vira uma só instrução.
+    private int condition(Expr condition) {
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            byte jump = jumpIfNot(binary.operator.type);
+            if (jump >= 0 && binary.left instanceof Expr.Variable && isLocal((Expr.Variable) binary.left)
+                    && binary.right instanceof Expr.Literal && ((Expr.Literal) binary.right).value instanceof Double) {
+                int constant = constant(((Expr.Literal) binary.right).value);
+                line = binary.operator.line;
+                emit(jump, 0);
+                emitShort(((Expr.Variable) binary.left).slot);
+                emitShort(constant);
+                emitShort(0xffff);
+                return chunk.count() - 2;
+            }
+        }
+        condition.accept(this);
+        return emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+    }
+
+    // O salto combinado com a comparação de um local com uma constante, ou -1
+    // se o operador não é uma comparação de ordem.
+    private static byte jumpIfNot(TokenType operator) {
+        switch (operator) {
+            case GREATER:
+                return OpCode.JUMP_IF_NOT_GREATER_LOCAL_CONSTANT;
+            case GREATER_EQUAL:
+                return OpCode.JUMP_IF_NOT_GREATER_EQUAL_LOCAL_CONSTANT;
+            case LESS:
+                return OpCode.JUMP_IF_NOT_LESS_LOCAL_CONSTANT;
+            case LESS_EQUAL:
+                return OpCode.JUMP_IF_NOT_LESS_EQUAL_LOCAL_CONSTANT;
+            default:
+                return -1;
+        }
+    }
+
+    private void arguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            argument.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        int slot = localSlot(expr.object);
+        if (slot >= 0) {
+            line = expr.name.line;
+            emit(OpCode.GET_LOCAL_PROPERTY, 1);
+            emitShort(slot);
+            emitShort(constant(expr.name.lexeme));
+            emitShort(chunk.addCache());
+            return null;
+        }
+        expr.object.accept(this);
+        line = expr.name.line;
+        emit(OpCode.GET_PROPERTY, 0);
+        emitShort(constant(expr.name.lexeme));
+        emitShort(chunk.addCache());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean) expr.value ? OpCode.TRUE : OpCode.FALSE, 1);
+        } else {
+            emit(OpCode.CONSTANT, 1);
+            emitShort(constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        // O lado esquerdo fica na pilha como resultado se decidir a expressão.
+        expr.left.accept(this);
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE, 0);
+        emit(OpCode.POP, -1);
+        expr.right.accept(this);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        set(expr, false);
+        return null;
+    }
+
+    // Compila a atribuição a um campo; com 'store', o valor não fica na pilha.
+    private void set(Expr.Set expr, boolean store) {
+        if (store && expr.object instanceof Expr.This && ((Expr.This) expr.object).depth == Expr.LOCAL) {
+            expr.value.accept(this);
+            line = expr.name.line;
+            emit(OpCode.STORE_THIS_PROPERTY, -1);
+            emitShort(((Expr.This) expr.object).slot);
+            emitShort(constant(expr.name.lexeme));
+            emitShort(chunk.addCache());
+            return;
+        }
+        // O objeto é verificado antes de o valor ser avaliado. 'this' é sempre
+        // uma instância e dispensa a verificação.
+        expr.object.accept(this);
+        line = expr.name.line;
+        if (!(expr.object instanceof Expr.This)) {
+            emit(OpCode.CHECK_INSTANCE, 0);
+        }
+        expr.value.accept(this);
+        line = expr.name.line;
+        emit(store ? OpCode.STORE_PROPERTY : OpCode.SET_PROPERTY, store ? -2 : -1);
+        emitShort(constant(expr.name.lexeme));
+        emitShort(chunk.addCache());
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        slot(expr.thisDepth, expr.thisSlot);
+        slot(expr.depth, expr.slot);
+        line = expr.method.line;
+        emit(OpCode.GET_SUPER, -1);
+        emitShort(constant(expr.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        slot(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.depth == Expr.GLOBAL) {
+            emit(OpCode.GET_GLOBAL, 1);
+            emitShort(expr.slot);
+        } else if (expr.boxed) {
+            emit(expr.depth == Expr.UPVALUE ? OpCode.GET_UPVALUE_CELL : OpCode.GET_LOCAL_CELL, 1);
+            emitShort(expr.slot);
+        } else {
+            slot(expr.depth, expr.slot);
+        }
+        return null;
+    }
+
+    // ----------------------------------------------------
+    // Auxiliares
+    // ----------------------------------------------------
+
+    // Compila o corpo de uma função em um ObjFunction próprio e emite a
+    // instrução que cria a closure.
+    private void function(Stmt.Function stmt, boolean isInitializer) {
+        Chunk enclosingChunk = chunk;
+        int enclosingDepth = stackDepth;
+        int enclosingMax = maxStack;
+        chunk = new Chunk();
+        stackDepth = 0;
+        maxStack = 0;
+        scopeDepth++;
+
+        for (Stmt statement : stmt.body) {
+            statement.accept(this);
+        }
+        // Um inicializador retorna 'this', que RETURN lê do slot 0.
+        if (!isInitializer) {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, isInitializer ? 0 : -1);
+
+        ObjFunction function = new ObjFunction(stmt.name.lexeme, stmt.params.size(), isInitializer, chunk,
+                false, stmt.frameSize, maxStack, stmt.upvalueDepths, stmt.upvalueSlots, stmt.boxedParams);
+
+        scopeDepth--;
+        chunk = enclosingChunk;
+        stackDepth = enclosingDepth;
+        maxStack = enclosingMax;
+
+        line = stmt.name.line;
+        emit(OpCode.CLOSURE, 1);
+        emitShort(constant(function));
+    }
+
+    // Grava o valor do topo da pilha na variável declarada: na global ou no slot
+    // local.
+    private void define(int slot) {
+        emit(scopeDepth == 0 ? OpCode.DEFINE_GLOBAL : OpCode.STORE_LOCAL, -1);
+        emitShort(slot);
+    }
+
+    // Empilha um slot local ou um upvalue que não está em uma Cell.
+    private void slot(int depth, int slot) {
+        emit(depth == Expr.UPVALUE ? OpCode.GET_UPVALUE : OpCode.GET_LOCAL, 1);
+        emitShort(slot);
+    }
+
+    private int constant(Object value) {
+        int index = chunk.addConstant(value);
+        if (index > 0xffff) {
+            error("Too many constants in one function.");
+        }
+        return index;
+    }
+
+    // Emite uma instrução, registrando seu efeito na profundidade da pilha.
+    private void emit(byte op, int stackEffect) {
+        chunk.write(op, line);
+        stackDepth += stackEffect;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private void emitByte(int value) {
+        chunk.write(value, line);
+    }
+
+    private void emitShort(int value) {
+        chunk.write(value >> 8, line);
+        chunk.write(value, line);
+    }
+
+    // Emite um salto para frente com o deslocamento a ser corrigido depois e
+    // retorna a posição do operando.
+    private int emitJump(byte op, int stackEffect) {
+        emit(op, stackEffect);
+        emitShort(0xffff);
+        return chunk.count() - 2;
+    }
+
+    // Faz o salto emitido em 'offset' chegar na posição atual.
+    private void patchJump(int offset) {
+        int jump = chunk.count() - offset - 2;
+        if (jump > 0xffff) {
+            error("Too much code to jump over.");
+        }
+        chunk.patch(offset, jump);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, 0);
+        int offset = chunk.count() - loopStart + 2;
+        if (offset > 0xffff) {
+            error("Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void error(String message) {
+        Lox.error(line, message);
+        hadError = true;
+    }
+}
@@ -0,0 +1,18 @@
+package br.ufma.vm;
+
+// Um método usado como valor ('obj.metodo' fora de uma chamada), que lembra a
+// instância que será o 'this' da chamada.
+final class ObjBoundMethod {
+    final Object receiver;
+    final ObjClosure method;
+
+    ObjBoundMethod(Object receiver, ObjClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package br.ufma.vm;
+
+// Uma variável local capturada por closures que a alteram, como br.ufma.Cell,
+// mas com o valor na representação de Value: ler e gravar um número na Cell
+// não cria um Double.
+final class ObjCell {
+    long value;
+    Object ref; // null se o valor não é um objeto
+
+    ObjCell(long value, Object ref) {
+        this.value = value;
+        this.ref = ref;
+    }
+}
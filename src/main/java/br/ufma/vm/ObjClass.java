@@ -0,0 +1,31 @@
+package br.ufma.vm;
+
+import java.util.Map;
+
+// Uma classe Lox. A tabela de métodos já vem achatada (com os métodos herdados),
+// e os nomes são lexemas internados, então ela é um IdentityHashMap.
+final class ObjClass {
+    final String name;
+    final ObjShape rootShape = new ObjShape(); // Shape das instâncias sem campos
+    private final Map<String, ObjClosure> methods;
+    final ObjClosure initializer;
+
+    ObjClass(String name, Map<String, ObjClosure> methods) {
+        this.name = name;
+        this.methods = methods;
+        this.initializer = methods.get("init");
+    }
+
+    ObjClosure findMethod(String name) {
+        return methods.get(name);
+    }
+
+    Map<String, ObjClosure> methods() {
+        return methods;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,54 @@
+package br.ufma.vm;
+
+import br.ufma.Expr;
+import br.ufma.Value;
+
+// Uma função Lox em tempo de execução: a função compilada e os valores que ela
+// capturou dos escopos envolventes (ObjCells para as variáveis que mudam), na
+// representação de Value, em dois arrays paralelos como os da pilha.
+final class ObjClosure {
+    private static final long[] NO_VALUES = new long[0];
+    private static final Object[] NO_REFS = new Object[0];
+
+    final ObjFunction function;
+    final long[] upvalueValues;
+    final Object[] upvalueRefs;
+
+    // A closure do script, que não captura nada.
+    ObjClosure(ObjFunction function) {
+        this.function = function;
+        this.upvalueValues = NO_VALUES;
+        this.upvalueRefs = NO_REFS;
+    }
+
+    // Cria a closure de 'function' dentro de 'enclosing', a closure em execução,
+    // cujos slots começam em 'base' na pilha. Copia da pilha (ou dos upvalues de
+    // 'enclosing') as variáveis que a função usa de escopos envolventes.
+    ObjClosure(ObjFunction function, ObjClosure enclosing, long[] values, Object[] refs, int base) {
+        this.function = function;
+        int count = function.upvalueDepths.length;
+        if (count == 0) {
+            this.upvalueValues = NO_VALUES;
+            this.upvalueRefs = NO_REFS;
+            return;
+        }
+        this.upvalueValues = new long[count];
+        this.upvalueRefs = new Object[count];
+        for (int i = 0; i < count; i++) {
+            int slot = function.upvalueSlots[i];
+            if (function.upvalueDepths[i] == Expr.UPVALUE) {
+                upvalueValues[i] = enclosing.upvalueValues[slot];
+                upvalueRefs[i] = enclosing.upvalueRefs[slot];
+            } else {
+                long value = values[base + slot];
+                upvalueValues[i] = value;
+                upvalueRefs[i] = value == Value.OBJECT ? refs[base + slot] : null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package br.ufma.vm;
+
+// Uma função compilada: o código e tudo o que a máquina virtual precisa para
+// montar o frame de uma chamada. As closures criadas a partir dela (ObjClosure)
+// compartilham este objeto.
+final class ObjFunction {
+    final String name; // null para o script de nível superior
+    final int arity;
+    final boolean isInitializer;
+
+    final byte[] code; // Bytecode da VM de pilha (null na de registradores)
+    final int[] instructions; // Instruções da VM de registradores (null na de pilha)
+    final int[] lines; // Linha do código fonte de cada posição do código
+    final long[] constantValues; // Pool de constantes, na representação de Value
+    final Object[] constantRefs;
+
+    final int frameSize; // Slots das variáveis locais ('this' e parâmetros primeiro)
+    // Posições usadas acima do frame: a profundidade máxima da pilha de operandos
+    // ou o número de registradores temporários.
+    final int maxStack;
+    final int[] upvalueDepths; // De onde vem cada upvalue: Expr.LOCAL ou Expr.UPVALUE
+    final int[] upvalueSlots;
+    final int[] boxedParams; // Parâmetros que vivem em Cells
+
+    // Caches inline das instruções de propriedade, indexados pelo operando de
+    // cache: o último shape visto, o slot do campo nele (-1 se não é um campo) e
+    // o método encontrado (GET) ou o shape seguinte na criação do campo (SET).
+    final ObjShape[] cacheShapes;
+    final int[] cacheSlots;
+    final Object[] cacheTargets;
+
+    ObjFunction(String name, int arity, boolean isInitializer, Chunk chunk, boolean registers, int frameSize,
+            int maxStack, int[] upvalueDepths, int[] upvalueSlots, int[] boxedParams) {
+        this.name = name;
+        this.arity = arity;
+        this.isInitializer = isInitializer;
+        this.code = registers ? null : chunk.code();
+        this.instructions = registers ? chunk.instructions() : null;
+        this.lines = chunk.lines();
+        this.constantValues = new long[chunk.constantCount()];
+        this.constantRefs = new Object[chunk.constantCount()];
+        chunk.copyConstants(constantValues, constantRefs);
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.upvalueDepths = upvalueDepths;
+        this.upvalueSlots = upvalueSlots;
+        this.boxedParams = boxedParams;
+        this.cacheShapes = new ObjShape[chunk.cacheCount()];
+        this.cacheSlots = new int[chunk.cacheCount()];
+        this.cacheTargets = new Object[chunk.cacheCount()];
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "<script>" : "<fun " + name + ">";
+    }
+}
@@ -0,0 +1,36 @@
+package br.ufma.vm;
+
+import java.util.Arrays;
+
+// Uma instância de uma classe Lox. Os campos ficam nos slots definidos pelo
+// shape, na representação de Value (números não são empacotados).
+final class ObjInstance {
+    final ObjClass klass;
+    ObjShape shape;
+    long[] values;
+    Object[] refs;
+
+    ObjInstance(ObjClass klass) {
+        this.klass = klass;
+        this.shape = klass.rootShape;
+        this.values = new long[4];
+        this.refs = new Object[4];
+    }
+
+    // Adiciona um campo, passando para o shape 'next' (o atual com o campo no fim).
+    void addField(ObjShape next, long value, Object ref) {
+        int slot = next.fieldCount - 1;
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, slot * 2);
+            refs = Arrays.copyOf(refs, slot * 2);
+        }
+        values[slot] = value;
+        refs[slot] = ref;
+        shape = next;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
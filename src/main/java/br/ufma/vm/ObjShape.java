@@ -0,0 +1,40 @@
+package br.ufma.vm;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// O layout dos campos de uma instância, como em br.ufma.Shape: instâncias que
+// receberam os mesmos campos na mesma ordem compartilham o shape, e cada campo
+// tem um slot fixo. Cada classe tem sua própria árvore de shapes.
+final class ObjShape {
+    final int fieldCount;
+    private final Map<String, Integer> slots;
+    private final Map<String, ObjShape> transitions = new IdentityHashMap<>();
+
+    ObjShape() {
+        this(0, new IdentityHashMap<>());
+    }
+
+    private ObjShape(int fieldCount, Map<String, Integer> slots) {
+        this.fieldCount = fieldCount;
+        this.slots = slots;
+    }
+
+    // O slot do campo 'name', ou -1 se o shape não tem esse campo.
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // O shape com o campo 'name' adicionado no próximo slot.
+    ObjShape withField(String name) {
+        ObjShape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new IdentityHashMap<>(slots);
+            nextSlots.put(name, fieldCount);
+            next = new ObjShape(fieldCount + 1, nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
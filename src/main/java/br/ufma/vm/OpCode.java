@@ -0,0 +1,113 @@
+package br.ufma.vm;
+
+// As instruções da máquina virtual. Cada instrução é um byte, seguido dos seus
+// operandos: 'u8' é um byte sem sinal e 'u16' são dois bytes (big-endian).
+// O efeito de cada instrução na pilha de operandos está ao lado.
+final class OpCode {
+    static final byte CONSTANT = 0; // u16 constante               -> valor
+    static final byte NIL = 1; //                                  -> nil
+    static final byte TRUE = 2; //                                 -> true
+    static final byte FALSE = 3; //                                -> false
+    static final byte POP = 4; // valor                            ->
+
+    static final byte GET_LOCAL = 5; // u16 slot                   -> valor
+    static final byte SET_LOCAL = 6; // u16 slot; valor            -> valor
+    static final byte STORE_LOCAL = 7; // u16 slot; valor          ->
+    static final byte GET_LOCAL_CELL = 8; // u16 slot              -> valor
+    static final byte SET_LOCAL_CELL = 9; // u16 slot; valor       -> valor
+    static final byte NEW_CELL = 10; // valor                      -> Cell
+    static final byte GET_UPVALUE = 11; // u16 índice              -> valor
+    static final byte GET_UPVALUE_CELL = 12; // u16 índice         -> valor
+    static final byte SET_UPVALUE_CELL = 13; // u16 índice; valor  -> valor
+    static final byte GET_GLOBAL = 14; // u16 índice               -> valor
+    static final byte SET_GLOBAL = 15; // u16 índice; valor        -> valor
+    static final byte DEFINE_GLOBAL = 16; // u16 índice; valor     ->
+
+    static final byte EQUAL = 17; // a b                           -> a == b
+    static final byte NOT_EQUAL = 18; // a b                       -> a != b
+    static final byte GREATER = 19; // a b                         -> a > b
+    static final byte GREATER_EQUAL = 20; // a b                   -> a >= b
+    static final byte LESS = 21; // a b                            -> a < b
+    static final byte LESS_EQUAL = 22; // a b                      -> a <= b
+    static final byte ADD = 23; // a b                             -> a + b
+    static final byte SUBTRACT = 24; // a b                        -> a - b
+    static final byte MULTIPLY = 25; // a b                        -> a * b
+    static final byte DIVIDE = 26; // a b                          -> a / b
+    static final byte NOT = 27; // a                               -> !a
+    static final byte NEGATE = 28; // a                            -> -a
+    static final byte PRINT = 29; // valor                         ->
+
+    // Os deslocamentos dos saltos contam a partir do fim da instrução.
+    static final byte JUMP = 30; // u16 deslocamento
+    static final byte JUMP_IF_FALSE = 31; // u16 deslocamento; não desempilha
+    static final byte JUMP_IF_TRUE = 32; // u16 deslocamento; não desempilha
+    static final byte POP_JUMP_IF_FALSE = 33; // u16 deslocamento; valor ->
+    static final byte LOOP = 34; // u16 deslocamento para trás
+
+    static final byte CALL = 35; // u8 n; função args...           -> resultado
+    static final byte TAIL_CALL = 36; // u8 n; como CALL, no lugar do frame atual
+    static final byte GET_METHOD = 37; // u16 nome, u16 cache; obj -> obj método
+    static final byte CALL_METHOD = 38; // u8 n; obj método args... -> resultado
+    static final byte TAIL_CALL_METHOD = 39; // u8 n; como CALL_METHOD, no lugar do frame atual
+    static final byte CLOSURE = 40; // u16 função                  -> closure
+    static final byte RETURN = 41; // valor                        -> (no frame de quem chamou)
+
+    static final byte CLASS = 42; // u16 nome, u16 n; superclasse métodos... -> classe
+    static final byte CHECK_SUPERCLASS = 43; // valor              -> valor
+    static final byte GET_PROPERTY = 44; // u16 nome, u16 cache; obj -> valor
+    static final byte CHECK_INSTANCE = 45; // obj                  -> obj
+    static final byte SET_PROPERTY = 46; // u16 nome, u16 cache; obj valor -> valor
+    static final byte GET_SUPER = 47; // u16 nome; this superclasse -> método ligado
+
+    // Instruções combinadas para as contas e comparações com uma constante
+    // numérica à direita, as mais comuns nos laços: o operando esquerdo vem da
+    // pilha (_CONSTANT) ou direto de um slot local (_LOCAL_CONSTANT), sem as
+    // instruções GET_LOCAL e CONSTANT.
+    static final byte ADD_CONSTANT = 48; // u16 constante; a       -> a + k
+    static final byte SUBTRACT_CONSTANT = 49; // u16 constante; a  -> a - k
+    static final byte MULTIPLY_CONSTANT = 50; // u16 constante; a  -> a * k
+    static final byte GREATER_CONSTANT = 51; // u16 constante; a   -> a > k
+    static final byte GREATER_EQUAL_CONSTANT = 52; // u16 constante; a -> a >= k
+    static final byte LESS_CONSTANT = 53; // u16 constante; a      -> a < k
+    static final byte LESS_EQUAL_CONSTANT = 54; // u16 constante; a -> a <= k
+    static final byte ADD_LOCAL_CONSTANT = 55; // u16 slot, u16 constante -> local + k
+    static final byte SUBTRACT_LOCAL_CONSTANT = 56; // u16 slot, u16 constante -> local - k
+    static final byte MULTIPLY_LOCAL_CONSTANT = 57; // u16 slot, u16 constante -> local * k
+    static final byte GREATER_LOCAL_CONSTANT = 58; // u16 slot, u16 constante -> local > k
+    static final byte GREATER_EQUAL_LOCAL_CONSTANT = 59; // u16 slot, u16 constante -> local >= k
+    static final byte LESS_LOCAL_CONSTANT = 60; // u16 slot, u16 constante -> local < k
+    static final byte LESS_EQUAL_LOCAL_CONSTANT = 61; // u16 slot, u16 constante -> local <= k
+
+    // Um 'if' ou 'while' cuja condição compara um local com uma constante
+    // numérica: a comparação e o salto para quando ela é falsa, em uma instrução.
+    static final byte JUMP_IF_NOT_GREATER_LOCAL_CONSTANT = 62; // u16 slot, u16 constante, u16 deslocamento
+    static final byte JUMP_IF_NOT_GREATER_EQUAL_LOCAL_CONSTANT = 63; // u16 slot, u16 constante, u16 deslocamento
+    static final byte JUMP_IF_NOT_LESS_LOCAL_CONSTANT = 64; // u16 slot, u16 constante, u16 deslocamento
+    static final byte JUMP_IF_NOT_LESS_EQUAL_LOCAL_CONSTANT = 65; // u16 slot, u16 constante, u16 deslocamento
+
+    // Atribuições cujo valor é descartado (em uma declaração de expressão):
+    // gravam e desempilham, como STORE_LOCAL.
+    static final byte STORE_LOCAL_CELL = 66; // u16 slot; valor        ->
+    static final byte STORE_UPVALUE_CELL = 67; // u16 índice; valor    ->
+    static final byte STORE_GLOBAL = 68; // u16 índice; valor          ->
+    static final byte STORE_PROPERTY = 69; // u16 nome, u16 cache; obj valor ->
+
+    // A propriedade de um objeto em um slot local (como 'this.x' em um método).
+    static final byte GET_LOCAL_PROPERTY = 70; // u16 slot, u16 nome, u16 cache -> valor
+
+    // Declarações 'x = x + y' e 'x = x - k' com 'x' local: a conta é feita
+    // direto no slot, sem empilhar 'x' nem o resultado.
+    static final byte ADD_CONSTANT_TO_LOCAL = 71; // u16 slot, u16 constante
+    static final byte SUBTRACT_CONSTANT_FROM_LOCAL = 72; // u16 slot, u16 constante
+    static final byte ADD_TO_LOCAL = 73; // u16 slot; valor ->
+
+    // 'this.campo = valor;' em um método: 'this' (que é sempre uma instância e
+    // não pode ser reatribuído) é lido do slot depois do valor.
+    static final byte STORE_THIS_PROPERTY = 74; // u16 slot, u16 nome, u16 cache; valor ->
+    // 'obj.metodo(...)' com argumentos que não falham nem têm efeitos: procura o
+    // método e o chama, sem empilhá-lo.
+    static final byte INVOKE = 75; // u16 nome, u16 cache, u8 argumentos; obj args... -> resultado
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,116 @@
+package br.ufma.vm;
+
+import br.ufma.LoxRope;
+import br.ufma.RuntimeError;
+import br.ufma.Token;
+import br.ufma.TokenType;
+import br.ufma.Value;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Operações da linguagem compartilhadas pelas máquinas virtuais: igualdade,
+// conversão para texto, concatenação, classes e acesso a propriedades pelos
+// caches inline. As regras são as mesmas do Interpreter.
+final class Operations {
+    private Operations() {
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if (a == b)
+            return true;
+        if (a == null)
+            return false;
+        // Ropes são comparados pelo texto, inclusive com um String de mesmo conteúdo.
+        if (a instanceof LoxRope)
+            a = a.toString();
+        if (b instanceof LoxRope)
+            b = b.toString();
+        return a.equals(b);
+    }
+
+    static String stringify(Object object) {
+        if (object == null)
+            return "nil";
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+        return object.toString();
+    }
+
+    // O '+' entre operandos que não são dois números.
+    static Object concatenate(Object left, Object right, int line) {
+        if (LoxRope.isString(left) || LoxRope.isString(right)) {
+            return LoxRope.concat(LoxRope.isString(left) ? left : stringify(left),
+                    LoxRope.isString(right) ? right : stringify(right));
+        }
+        throw error(line, "Operands must be two numbers or at least one string for concatenation.");
+    }
+
+    // Cria a classe a partir da superclasse (ou nil) em 'first' e dos 'count'
+    // métodos logo acima dela.
+    static ObjClass newClass(String name, long[] values, Object[] refs, int first, int count) {
+        Map<String, ObjClosure> methods = new IdentityHashMap<>();
+        if (values[first] == Value.OBJECT) {
+            methods.putAll(((ObjClass) refs[first]).methods());
+        }
+        for (int i = 1; i <= count; i++) {
+            ObjClosure method = (ObjClosure) refs[first + i];
+            methods.put(method.function.name, method);
+        }
+        return new ObjClass(name, methods);
+    }
+
+    // Procura a propriedade 'name' pelo cache inline da instrução e retorna o
+    // slot do campo, ou -1 se não há um campo (o método, se houver, fica em
+    // cacheTargets).
+    static int lookUp(ObjFunction function, int cache, ObjInstance instance, String name) {
+        ObjShape shape = instance.shape;
+        if (function.cacheShapes[cache] == shape) {
+            return function.cacheSlots[cache];
+        }
+        int slot = shape.slotOf(name);
+        function.cacheShapes[cache] = shape;
+        function.cacheSlots[cache] = slot;
+        function.cacheTargets[cache] = slot < 0 ? instance.klass.findMethod(name) : null;
+        return slot;
+    }
+
+    // O método achado por lookUp, ou o erro de propriedade indefinida.
+    static ObjClosure method(ObjFunction function, int cache, String name, int line) {
+        ObjClosure method = (ObjClosure) function.cacheTargets[cache];
+        if (method == null) {
+            throw error(line, "Undefined property '" + name + "'.");
+        }
+        return method;
+    }
+
+    // Atribui um campo pelo cache inline, que lembra o slot de um campo existente
+    // ou o shape seguinte de um campo novo.
+    static void setField(ObjFunction function, int cache, ObjInstance instance, String name,
+            long value, Object ref) {
+        ObjShape shape = instance.shape;
+        if (function.cacheShapes[cache] != shape) {
+            int slot = shape.slotOf(name);
+            function.cacheShapes[cache] = shape;
+            function.cacheSlots[cache] = slot;
+            function.cacheTargets[cache] = slot < 0 ? shape.withField(name) : null;
+        }
+        int slot = function.cacheSlots[cache];
+        if (slot >= 0) {
+            instance.values[slot] = value;
+            instance.refs[slot] = ref;
+        } else {
+            instance.addField((ObjShape) function.cacheTargets[cache], value, ref);
+        }
+    }
+
+    // Um erro de execução na linha dada (só a linha do token é usada ao
+    // reportá-lo).
+    static RuntimeError error(int line, String message) {
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, "", null, line), message);
+    }
+}
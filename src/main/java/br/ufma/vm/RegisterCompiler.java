@@ -0,0 +1,688 @@
+package br.ufma.vm;
+
+import br.ufma.Expr;
+import br.ufma.Stmt;
+import br.ufma.TokenType;
+import java.util.List;
+
+// Compila a AST já resolvida para as instruções da máquina de registradores
+// (RegisterOp). Os slots que o Resolver deu às variáveis locais são os próprios
+// registradores, então ler ou escrever um local não gera instrução nenhuma: as
+// operações endereçam o slot diretamente. Os valores intermediários vão para
+// registradores temporários, alocados como uma pilha logo acima dos slots do
+// frame e liberados no fim de cada expressão.
+//
+// Cada expressão é compilada para um registrador de destino ('target'), que é
+// escrito só pela última instrução dela. Assim 'i = i + 1' vira um único
+// 'ADD i i #1', sem cópias.
+final class RegisterCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // Destino das expressões cujo valor é descartado (atribuições, chamadas e
+    // 'obj.campo = valor' usados como comando).
+    private static final int NO_REGISTER = -1;
+
+    // O estado da função sendo compilada.
+    private Chunk chunk;
+    private int frameSize; // Registradores das variáveis locais; os temporários vêm depois
+    private int nextRegister; // Primeiro temporário livre
+    private int maxRegister;
+    private int target; // Onde a expressão sendo compilada deixa o seu valor
+
+    // Quantos escopos (blocos ou corpos de funções) envolvem o código atual. No
+    // nível superior (0), as declarações vão para a tabela de globais.
+    private int scopeDepth = 0;
+
+    private int line = 1; // Linha do token mais recente, gravada em cada palavra emitida
+
+    // Compila o programa na função do script.
+    ObjFunction compile(List<Stmt> statements) {
+        chunk = new Chunk();
+        // Os temporários do script ficam acima dos slots dos blocos e classes do
+        // nível superior, então o tamanho do frame é calculado antes.
+        frameSize = scriptFrameSize(statements);
+        nextRegister = frameSize;
+        maxRegister = frameSize;
+        for (Stmt statement : statements) {
+            statement(statement);
+        }
+        emitReturnNil();
+        return new ObjFunction(null, 0, false, chunk, true, frameSize, maxRegister - frameSize,
+                new int[0], new int[0], new int[0]);
+    }
+
+    private static int scriptFrameSize(List<Stmt> statements) {
+        int size = 0;
+        for (Stmt statement : statements) {
+            size = Math.max(size, scriptFrameSize(statement));
+        }
+        return size;
+    }
+
+    private static int scriptFrameSize(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) {
+            return ((Stmt.Block) stmt).frameSize;
+        }
+        if (stmt instanceof Stmt.Class) {
+            Stmt.Class klass = (Stmt.Class) stmt;
+            return klass.superclass != null ? klass.superSlot + 1 : 0;
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If branch = (Stmt.If) stmt;
+            int size = scriptFrameSize(branch.thenBranch);
+            return branch.elseBranch != null ? Math.max(size, scriptFrameSize(branch.elseBranch)) : size;
+        }
+        if (stmt instanceof Stmt.While) {
+            return scriptFrameSize(((Stmt.While) stmt).body);
+        }
+        return 0;
+    }
+
+    // ----------------------------------------------------
+    // Declarações
+    // ----------------------------------------------------
+
+    // Compila um comando, liberando os temporários que ele usou.
+    private void statement(Stmt stmt) {
+        int saved = nextRegister;
+        stmt.accept(this);
+        nextRegister = saved;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // As variáveis do bloco já têm registradores no frame atual: entrar no
+        // bloco não gera código.
+        scopeDepth++;
+        for (Stmt statement : stmt.statements) {
+            statement(statement);
+        }
+        scopeDepth--;
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // A superclasse é verificada e guardada no slot de 'super', de onde os
+        // métodos a capturam.
+        if (stmt.superclass != null) {
+            compileTo(stmt.superclass, stmt.superSlot);
+            line = stmt.superclass.name.line;
+            emit(RegisterOp.CHECK_SUPERCLASS, stmt.superSlot);
+        }
+
+        // O nome existe (como nil) enquanto os métodos são criados.
+        line = stmt.name.line;
+        if (stmt.boxed || scopeDepth == 0) {
+            int nil = allocate();
+            emit(RegisterOp.LOAD_NIL, nil);
+            emit(stmt.boxed ? RegisterOp.NEW_CELL : RegisterOp.DEFINE_GLOBAL, stmt.slot, nil);
+        } else {
+            emit(RegisterOp.LOAD_NIL, stmt.slot);
+        }
+
+        int klass = allocate();
+        if (stmt.superclass != null) {
+            emit(RegisterOp.MOVE, klass, stmt.superSlot);
+        } else {
+            emit(RegisterOp.LOAD_NIL, klass);
+        }
+        for (Stmt.Function method : stmt.methods) {
+            function(method, method.name.lexeme.equals("init"), allocate());
+        }
+        line = stmt.name.line;
+        emit(RegisterOp.CLASS, klass, constant(stmt.name.lexeme), stmt.methods.size());
+        define(stmt.slot, stmt.boxed, klass);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = stmt.expression;
+        if (expression instanceof Expr.Assign || expression instanceof Expr.Set
+                || expression instanceof Expr.Call) {
+            compileTo(expression, NO_REGISTER);
+        } else {
+            compileTo(expression, allocate());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        if (stmt.hoisted) {
+            // Na recursão mútua, a Cell já foi criada no início do escopo.
+            int closure = allocate();
+            function(stmt, false, closure);
+            emit(RegisterOp.SET_CELL, stmt.slot, closure);
+        } else if (stmt.boxed) {
+            // Uma função que captura a si mesma precisa que sua Cell exista antes
+            // de a closure ser criada.
+            int closure = allocate();
+            emit(RegisterOp.LOAD_NIL, closure);
+            emit(RegisterOp.NEW_CELL, stmt.slot, closure);
+            function(stmt, false, closure);
+            emit(RegisterOp.SET_CELL, stmt.slot, closure);
+        } else if (scopeDepth == 0) {
+            int closure = allocate();
+            function(stmt, false, closure);
+            emit(RegisterOp.DEFINE_GLOBAL, stmt.slot, closure);
+        } else {
+            function(stmt, false, stmt.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = jumpIfFalse(stmt.condition);
+        statement(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(RegisterOp.JUMP);
+        patchJump(thenJump);
+        statement(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit(RegisterOp.PRINT, register(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // Um inicializador retorna 'this' mesmo com 'return;': a instrução RETURN
+        // cuida disso.
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturnNil();
+            return null;
+        }
+        int value = register(stmt.value);
+        line = stmt.keyword.line;
+        emit(RegisterOp.RETURN, value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (scopeDepth > 0 && !stmt.boxed) {
+            // O inicializador é compilado direto para o registrador da variável.
+            if (stmt.initializer != null) {
+                compileTo(stmt.initializer, stmt.slot);
+            } else {
+                emit(RegisterOp.LOAD_NIL, stmt.slot);
+            }
+            return null;
+        }
+        int value;
+        if (stmt.initializer != null) {
+            value = register(stmt.initializer);
+        } else {
+            value = allocate();
+            emit(RegisterOp.LOAD_NIL, value);
+        }
+        line = stmt.name.line;
+        emit(stmt.boxed ? RegisterOp.NEW_CELL : RegisterOp.DEFINE_GLOBAL, stmt.slot, value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = chunk.count();
+        int exitJump = jumpIfFalse(stmt.condition);
+        statement(stmt.body);
+        emit(RegisterOp.JUMP, loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+
+    // ----------------------------------------------------
+    // Expressões: cada uma deixa o seu valor em R[target]
+    // ----------------------------------------------------
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        int target = this.target;
+        if (expr.depth == Expr.LOCAL && !expr.boxed) {
+            compileTo(expr.value, expr.slot);
+            move(target, expr.slot);
+            return null;
+        }
+        int value = register(expr.value);
+        line = expr.name.line;
+        if (expr.depth == Expr.GLOBAL) {
+            emit(RegisterOp.SET_GLOBAL, expr.slot, value);
+        } else if (expr.depth == Expr.UPVALUE) {
+            emit(RegisterOp.SET_UPVALUE_CELL, expr.slot, value);
+        } else {
+            emit(RegisterOp.SET_CELL, expr.slot, value);
+        }
+        move(target, value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int target = this.target;
+        int left = operand(expr.left, expr.right);
+        int right = operand(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER:
+                emit(RegisterOp.LESS, target, right, left);
+                break;
+            case GREATER_EQUAL:
+                emit(RegisterOp.LESS_EQUAL, target, right, left);
+                break;
+            case LESS:
+                emit(RegisterOp.LESS, target, left, right);
+                break;
+            case LESS_EQUAL:
+                emit(RegisterOp.LESS_EQUAL, target, left, right);
+                break;
+            case BANG_EQUAL:
+                emit(RegisterOp.NOT_EQUAL, target, left, right);
+                break;
+            case EQUAL_EQUAL:
+                emit(RegisterOp.EQUAL, target, left, right);
+                break;
+            case MINUS:
+                emit(RegisterOp.SUBTRACT, target, left, right);
+                break;
+            case PLUS:
+                emit(RegisterOp.ADD, target, left, right);
+                break;
+            case SLASH:
+                emit(RegisterOp.DIVIDE, target, left, right);
+                break;
+            case STAR:
+                emit(RegisterOp.MULTIPLY, target, left, right);
+                break;
+            default:
+                break; // Não deveria ser alcançado
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int target = this.target;
+        int count = expr.arguments.size();
+        // A função e os argumentos vão para registradores consecutivos. Se o
+        // destino é o último temporário alocado, a chamada começa nele e o
+        // resultado já fica no lugar.
+        int base = target >= frameSize && target == nextRegister - 1 ? target : allocate();
+
+        // 'obj.metodo(...)': o método é procurado antes dos argumentos serem
+        // avaliados (como no interpretador) e chamado sem criar o método ligado.
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            compileTo(get.object, base);
+            allocate(); // O método
+            line = get.name.line;
+            emit(RegisterOp.GET_METHOD, base, constant(get.name.lexeme), chunk.addCache());
+            arguments(expr.arguments);
+            line = expr.paren.line;
+            emit(expr.tailCall ? RegisterOp.TAIL_CALL_METHOD : RegisterOp.CALL_METHOD, base, count);
+        } else {
+            compileTo(expr.callee, base);
+            arguments(expr.arguments);
+            line = expr.paren.line;
+            emit(expr.tailCall ? RegisterOp.TAIL_CALL : RegisterOp.CALL, base, count);
+        }
+        move(target, base);
+        return null;
+    }
+
+    private void arguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compileTo(argument, allocate());
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        int target = this.target;
+        int object = register(expr.object);
+        line = expr.name.line;
+        emit(RegisterOp.GET_PROPERTY, target, object, constant(expr.name.lexeme), chunk.addCache());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compileTo(expr.expression, target);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(RegisterOp.LOAD_NIL, target);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean) expr.value ? RegisterOp.LOAD_TRUE : RegisterOp.LOAD_FALSE, target);
+        } else {
+            emit(RegisterOp.LOAD_CONSTANT, target, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        // O lado esquerdo fica no destino como resultado se decidir a expressão.
+        int target = this.target;
+        compileTo(expr.left, target);
+        int endJump = emitJump(expr.operator.type == TokenType.OR
+                ? RegisterOp.JUMP_IF_TRUE : RegisterOp.JUMP_IF_FALSE, target);
+        compileTo(expr.right, target);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        // O objeto é verificado antes de o valor ser avaliado.
+        int target = this.target;
+        int object = protect(register(expr.object), expr.value);
+        line = expr.name.line;
+        emit(RegisterOp.CHECK_INSTANCE, object);
+        int value = operand(expr.value);
+        line = expr.name.line;
+        emit(RegisterOp.SET_PROPERTY, object, constant(expr.name.lexeme), chunk.addCache(), value);
+        if (target != NO_REGISTER && value < 0) {
+            emit(RegisterOp.LOAD_CONSTANT, target, ~value);
+        } else {
+            move(target, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        int target = this.target;
+        int self = slot(expr.thisDepth, expr.thisSlot);
+        int superclass = slot(expr.depth, expr.slot);
+        line = expr.method.line;
+        emit(RegisterOp.GET_SUPER, target, self, superclass, constant(expr.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (expr.depth == Expr.UPVALUE) {
+            emit(RegisterOp.GET_UPVALUE, target, expr.slot);
+        } else {
+            move(target, expr.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        int target = this.target;
+        int operand = operand(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? RegisterOp.NOT : RegisterOp.NEGATE, target, operand);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.depth == Expr.GLOBAL) {
+            emit(RegisterOp.GET_GLOBAL, target, expr.slot);
+        } else if (expr.boxed) {
+            emit(expr.depth == Expr.UPVALUE ? RegisterOp.GET_UPVALUE_CELL : RegisterOp.GET_CELL,
+                    target, expr.slot);
+        } else if (expr.depth == Expr.UPVALUE) {
+            emit(RegisterOp.GET_UPVALUE, target, expr.slot);
+        } else {
+            move(target, expr.slot);
+        }
+        return null;
+    }
+
+    // ----------------------------------------------------
+    // Registradores
+    // ----------------------------------------------------
+
+    // Compila 'expr' deixando o valor em R[target] e libera os temporários que
+    // ela usou.
+    private void compileTo(Expr expr, int target) {
+        int saved = nextRegister;
+        if (target >= 0 && target < frameSize && expr instanceof Expr.Logical) {
+            // 'and' e 'or' escrevem o destino antes de avaliar o lado direito, que
+            // ainda pode ler a variável: o resultado passa por um temporário.
+            int temporary = allocate();
+            compileTo(expr, temporary);
+            emit(RegisterOp.MOVE, target, temporary);
+        } else {
+            int enclosing = this.target;
+            this.target = target;
+            expr.accept(this);
+            this.target = enclosing;
+        }
+        nextRegister = saved;
+    }
+
+    // Um registrador com o valor de 'expr': o da própria variável, se for um
+    // local fora de uma Cell, ou um temporário.
+    private int register(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.depth == Expr.LOCAL && !variable.boxed) {
+                return variable.slot;
+            }
+        }
+        if (expr instanceof Expr.This && ((Expr.This) expr).depth == Expr.LOCAL) {
+            return ((Expr.This) expr).slot;
+        }
+        int register = allocate();
+        compileTo(expr, register);
+        return register;
+    }
+
+    // Um operando RK: a constante de um literal numérico ou de texto, ou um
+    // registrador com o valor.
+    private int operand(Expr expr) {
+        while (expr instanceof Expr.Grouping) {
+            expr = ((Expr.Grouping) expr).expression;
+        }
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Double || value instanceof String) {
+                return ~constant(value);
+            }
+        }
+        return register(expr);
+    }
+
+    // O operando esquerdo de uma operação cujo operando direito, 'later', ainda
+    // vai ser avaliado.
+    private int operand(Expr expr, Expr later) {
+        return protect(operand(expr), later);
+    }
+
+    // Um local é lido só pela instrução que usa o operando. Se a expressão
+    // avaliada antes dela pode atribuir a variável (como em 'a + (a = 1)'), o
+    // valor atual é copiado para um temporário.
+    private int protect(int operand, Expr later) {
+        if (operand >= 0 && operand < frameSize && assigns(later)) {
+            int copy = allocate();
+            emit(RegisterOp.MOVE, copy, operand);
+            return copy;
+        }
+        return operand;
+    }
+
+    private static boolean assigns(Expr expr) {
+        if (expr instanceof Expr.Assign) {
+            return true;
+        }
+        if (expr instanceof Expr.Binary) {
+            return assigns(((Expr.Binary) expr).left) || assigns(((Expr.Binary) expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            return assigns(((Expr.Logical) expr).left) || assigns(((Expr.Logical) expr).right);
+        }
+        if (expr instanceof Expr.Unary) {
+            return assigns(((Expr.Unary) expr).right);
+        }
+        if (expr instanceof Expr.Grouping) {
+            return assigns(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Get) {
+            return assigns(((Expr.Get) expr).object);
+        }
+        if (expr instanceof Expr.Set) {
+            return assigns(((Expr.Set) expr).object) || assigns(((Expr.Set) expr).value);
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            if (assigns(call.callee)) {
+                return true;
+            }
+            for (Expr argument : call.arguments) {
+                if (assigns(argument)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // O registrador de 'this' ou 'super': o slot local ou um temporário com o
+    // upvalue.
+    private int slot(int depth, int slot) {
+        if (depth != Expr.UPVALUE) {
+            return slot;
+        }
+        int register = allocate();
+        emit(RegisterOp.GET_UPVALUE, register, slot);
+        return register;
+    }
+
+    private int allocate() {
+        int register = nextRegister++;
+        maxRegister = Math.max(maxRegister, nextRegister);
+        return register;
+    }
+
+    private void move(int target, int source) {
+        if (target != NO_REGISTER && target != source) {
+            emit(RegisterOp.MOVE, target, source);
+        }
+    }
+
+    // ----------------------------------------------------
+    // Auxiliares
+    // ----------------------------------------------------
+
+    // Compila o corpo de uma função em um ObjFunction próprio e emite a
+    // instrução que cria a closure em R[register].
+    private void function(Stmt.Function stmt, boolean isInitializer, int register) {
+        Chunk enclosingChunk = chunk;
+        int enclosingFrameSize = frameSize;
+        int enclosingNext = nextRegister;
+        int enclosingMax = maxRegister;
+        chunk = new Chunk();
+        frameSize = stmt.frameSize;
+        nextRegister = frameSize;
+        maxRegister = frameSize;
+        scopeDepth++;
+
+        for (Stmt statement : stmt.body) {
+            statement(statement);
+        }
+        emitReturnNil();
+
+        ObjFunction function = new ObjFunction(stmt.name.lexeme, stmt.params.size(), isInitializer, chunk,
+                true, frameSize, maxRegister - frameSize, stmt.upvalueDepths, stmt.upvalueSlots,
+                stmt.boxedParams);
+
+        scopeDepth--;
+        chunk = enclosingChunk;
+        frameSize = enclosingFrameSize;
+        nextRegister = enclosingNext;
+        maxRegister = enclosingMax;
+
+        line = stmt.name.line;
+        emit(RegisterOp.CLOSURE, register, constant(function));
+    }
+
+    // Grava o valor de R[value] na variável declarada: na Cell do slot, na global
+    // ou no slot local.
+    private void define(int slot, boolean boxed, int value) {
+        if (boxed) {
+            emit(RegisterOp.SET_CELL, slot, value);
+        } else if (scopeDepth == 0) {
+            emit(RegisterOp.DEFINE_GLOBAL, slot, value);
+        } else {
+            move(slot, value);
+        }
+    }
+
+    // Emite o salto tomado quando a condição é falsa e retorna a posição do
+    // destino, a ser corrigida. Uma comparação vira uma só instrução.
+    private int jumpIfFalse(Expr condition) {
+        int saved = nextRegister;
+        while (condition instanceof Expr.Grouping) {
+            condition = ((Expr.Grouping) condition).expression;
+        }
+        int jump;
+        TokenType type = condition instanceof Expr.Binary ? ((Expr.Binary) condition).operator.type : null;
+        if (type == TokenType.LESS || type == TokenType.LESS_EQUAL
+                || type == TokenType.GREATER || type == TokenType.GREATER_EQUAL) {
+            Expr.Binary comparison = (Expr.Binary) condition;
+            int left = operand(comparison.left, comparison.right);
+            int right = operand(comparison.right);
+            line = comparison.operator.line;
+            boolean swap = type == TokenType.GREATER || type == TokenType.GREATER_EQUAL;
+            int op = type == TokenType.LESS || type == TokenType.GREATER
+                    ? RegisterOp.JUMP_IF_NOT_LESS : RegisterOp.JUMP_IF_NOT_LESS_EQUAL;
+            jump = emitJump(op, swap ? right : left, swap ? left : right);
+        } else {
+            jump = emitJump(RegisterOp.JUMP_IF_FALSE, register(condition));
+        }
+        nextRegister = saved;
+        return jump;
+    }
+
+    private void emitReturnNil() {
+        int nil = allocate();
+        emit(RegisterOp.LOAD_NIL, nil);
+        emit(RegisterOp.RETURN, nil);
+    }
+
+    private int constant(Object value) {
+        return chunk.addConstant(value);
+    }
+
+    private void emit(int op, int... operands) {
+        chunk.write(op, line);
+        for (int operand : operands) {
+            chunk.write(operand, line);
+        }
+    }
+
+    // Emite um salto para frente com o destino a ser corrigido depois e retorna
+    // a posição dele.
+    private int emitJump(int op, int... operands) {
+        emit(op, operands);
+        chunk.write(-1, line);
+        return chunk.count() - 1;
+    }
+
+    // Faz o salto cujo destino está em 'offset' chegar na posição atual.
+    private void patchJump(int offset) {
+        chunk.set(offset, chunk.count());
+    }
+}
@@ -0,0 +1,66 @@
+package br.ufma.vm;
+
+// As instruções da máquina virtual de registradores. Cada instrução é uma
+// palavra com o código da operação seguida dos operandos, uma palavra cada.
+// R[x] é o registrador x do frame atual: os slots das variáveis locais vêm
+// primeiro (os mesmos do Resolver) e os temporários logo acima deles. Os
+// operandos marcados como RK são um registrador (>= 0) ou uma constante (~k
+// para a constante k), então uma conta como 'i + 1' não precisa carregar a
+// constante antes. Os saltos guardam a posição de destino.
+final class RegisterOp {
+    static final int MOVE = 0; // a b: R[a] = R[b]
+    static final int LOAD_CONSTANT = 1; // a k: R[a] = K[k]
+    static final int LOAD_NIL = 2; // a: R[a] = nil
+    static final int LOAD_TRUE = 3; // a: R[a] = true
+    static final int LOAD_FALSE = 4; // a: R[a] = false
+
+    static final int GET_CELL = 5; // a b: R[a] = R[b].value
+    static final int SET_CELL = 6; // a b: R[a].value = R[b]
+    static final int NEW_CELL = 7; // a b: R[a] = Cell(R[b])
+    static final int GET_UPVALUE = 8; // a u: R[a] = U[u]
+    static final int GET_UPVALUE_CELL = 9; // a u: R[a] = U[u].value
+    static final int SET_UPVALUE_CELL = 10; // u b: U[u].value = R[b]
+    static final int GET_GLOBAL = 11; // a g: R[a] = G[g]
+    static final int SET_GLOBAL = 12; // g b: G[g] = R[b] (a global já deve existir)
+    static final int DEFINE_GLOBAL = 13; // g b: G[g] = R[b]
+
+    static final int EQUAL = 14; // a RK RK: R[a] = b == c
+    static final int NOT_EQUAL = 15; // a RK RK: R[a] = b != c
+    static final int LESS = 16; // a RK RK: R[a] = b < c ('>' troca os operandos)
+    static final int LESS_EQUAL = 17; // a RK RK: R[a] = b <= c ('>=' troca os operandos)
+    static final int ADD = 18; // a RK RK: R[a] = b + c
+    static final int SUBTRACT = 19; // a RK RK: R[a] = b - c
+    static final int MULTIPLY = 20; // a RK RK: R[a] = b * c
+    static final int DIVIDE = 21; // a RK RK: R[a] = b / c
+    static final int NOT = 22; // a RK: R[a] = !b
+    static final int NEGATE = 23; // a RK: R[a] = -b
+    static final int PRINT = 24; // a: imprime R[a]
+
+    static final int JUMP = 25; // destino
+    static final int JUMP_IF_FALSE = 26; // a destino: salta se R[a] é falso
+    static final int JUMP_IF_TRUE = 27; // a destino: salta se R[a] é verdadeiro
+    // A comparação e o salto de uma condição de 'if' ou 'while' em uma instrução.
+    static final int JUMP_IF_NOT_LESS = 28; // RK RK destino: salta se !(b < c)
+    static final int JUMP_IF_NOT_LESS_EQUAL = 29; // RK RK destino: salta se !(b <= c)
+
+    // A função e os argumentos ficam em registradores consecutivos a partir de
+    // 'a', e o resultado volta para R[a].
+    static final int CALL = 30; // a n: R[a] = R[a](R[a+1] ... R[a+n])
+    static final int TAIL_CALL = 31; // a n: como CALL, no lugar do frame atual
+    // O objeto fica em R[a], o método vai para R[a+1] e os argumentos, acima.
+    static final int GET_METHOD = 32; // a nome cache
+    static final int CALL_METHOD = 33; // a n: R[a] = R[a].metodo(R[a+2] ... R[a+n+1])
+    static final int TAIL_CALL_METHOD = 34; // a n: como CALL_METHOD, no lugar do frame atual
+    static final int CLOSURE = 35; // a f: R[a] = closure da função K[f]
+    static final int RETURN = 36; // a: retorna R[a]
+
+    static final int CLASS = 37; // a nome n: R[a] = classe (superclasse em R[a], métodos acima)
+    static final int CHECK_SUPERCLASS = 38; // a: verifica que R[a] é uma classe
+    static final int GET_PROPERTY = 39; // a b nome cache: R[a] = R[b].nome
+    static final int CHECK_INSTANCE = 40; // a: verifica que R[a] é uma instância
+    static final int SET_PROPERTY = 41; // a nome cache RK: R[a].nome = c
+    static final int GET_SUPER = 42; // a b c nome: R[a] = método 'nome' de R[c] ligado a R[b]
+
+    private RegisterOp() {
+    }
+}
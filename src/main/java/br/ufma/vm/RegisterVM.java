@@ -0,0 +1,482 @@
+package br.ufma.vm;
+
+import br.ufma.Engine;
+import br.ufma.GlobalTable;
+import br.ufma.Lox;
+import br.ufma.RuntimeError;
+import br.ufma.Stmt;
+import br.ufma.Value;
+import br.ufma.vm.ValueStack.CallFrame;
+import java.util.List;
+import java.util.Map;
+
+// A máquina virtual de registradores: compila o programa resolvido para as
+// instruções de RegisterOp (RegisterCompiler) e as executa em um laço de
+// despacho único. Os registradores de uma chamada são a janela dela na
+// ValueStack, com as variáveis locais nos slots do Resolver, então as
+// instruções leem e escrevem os operandos direto, sem empilhar e desempilhar
+// como a VM de pilha. O protocolo de chamada, os erros e a saída são os
+// mesmos da VM de pilha e do Interpreter.
+public final class RegisterVM implements Engine {
+    private final GlobalTable globals = new GlobalTable();
+    private final Map<String, String> strings = Engine.newStringTable();
+    private final ValueStack stack;
+
+    // 'maxDepth' é o número máximo de chamadas Lox aninhadas antes de um erro
+    // "Stack overflow.".
+    public RegisterVM(int maxDepth) {
+        this.stack = new ValueStack(maxDepth);
+    }
+
+    @Override
+    public GlobalTable globals() {
+        return globals;
+    }
+
+    @Override
+    public Map<String, String> strings() {
+        return strings;
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        ObjFunction script = new RegisterCompiler().compile(statements);
+        try {
+            stack.pushFrame(new ObjClosure(script), 0, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } finally {
+            stack.reset();
+        }
+    }
+
+    // O laço de despacho. O estado do frame atual fica em variáveis locais; a
+    // cada chamada ou retorno, o laço externo o recarrega do novo frame atual.
+    // Os operandos são relativos a 'base', e 'pc' aponta para o início da
+    // instrução atual (as linhas dos erros vêm de lá).
+    private void run() {
+        ValueStack stack = this.stack;
+        reload: for (;;) {
+            CallFrame frame = stack.frames[stack.frameCount - 1];
+            ObjFunction function = frame.closure.function;
+            int[] code = function.instructions;
+            long[] constantValues = function.constantValues;
+            Object[] constantRefs = function.constantRefs;
+            long[] upvalueValues = frame.closure.upvalueValues;
+            Object[] upvalueRefs = frame.closure.upvalueRefs;
+            int pc = frame.ip;
+            int base = frame.base;
+            long[] values = stack.values;
+            Object[] refs = stack.refs;
+
+            for (;;) {
+                switch (code[pc]) {
+                    case RegisterOp.MOVE: {
+                        int a = base + code[pc + 1];
+                        int b = base + code[pc + 2];
+                        long value = values[b];
+                        values[a] = value;
+                        // Só objetos têm referência; nos outros valores, o registrador
+                        // de refs é limpo para não segurar um objeto que já saiu dele.
+                        refs[a] = value == Value.OBJECT ? refs[b] : null;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.LOAD_CONSTANT: {
+                        int a = base + code[pc + 1];
+                        int index = code[pc + 2];
+                        long value = constantValues[index];
+                        values[a] = value;
+                        refs[a] = value == Value.OBJECT ? constantRefs[index] : null;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.LOAD_NIL:
+                        values[base + code[pc + 1]] = Value.NIL;
+                        pc += 2;
+                        break;
+                    case RegisterOp.LOAD_TRUE:
+                        values[base + code[pc + 1]] = Value.TRUE;
+                        pc += 2;
+                        break;
+                    case RegisterOp.LOAD_FALSE:
+                        values[base + code[pc + 1]] = Value.FALSE;
+                        pc += 2;
+                        break;
+
+                    case RegisterOp.GET_CELL: {
+                        int a = base + code[pc + 1];
+                        ObjCell cell = (ObjCell) refs[base + code[pc + 2]];
+                        values[a] = cell.value;
+                        refs[a] = cell.ref;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.SET_CELL: {
+                        ObjCell cell = (ObjCell) refs[base + code[pc + 1]];
+                        int b = base + code[pc + 2];
+                        long value = values[b];
+                        cell.value = value;
+                        cell.ref = value == Value.OBJECT ? refs[b] : null;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.NEW_CELL: {
+                        int a = base + code[pc + 1];
+                        int b = base + code[pc + 2];
+                        long value = values[b];
+                        ObjCell cell = new ObjCell(value, value == Value.OBJECT ? refs[b] : null);
+                        values[a] = Value.OBJECT;
+                        refs[a] = cell;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.GET_UPVALUE: {
+                        int a = base + code[pc + 1];
+                        values[a] = upvalueValues[code[pc + 2]];
+                        refs[a] = upvalueRefs[code[pc + 2]];
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.GET_UPVALUE_CELL: {
+                        int a = base + code[pc + 1];
+                        ObjCell cell = (ObjCell) upvalueRefs[code[pc + 2]];
+                        values[a] = cell.value;
+                        refs[a] = cell.ref;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.SET_UPVALUE_CELL: {
+                        ObjCell cell = (ObjCell) upvalueRefs[code[pc + 1]];
+                        int b = base + code[pc + 2];
+                        long value = values[b];
+                        cell.value = value;
+                        cell.ref = value == Value.OBJECT ? refs[b] : null;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.GET_GLOBAL: {
+                        int index = code[pc + 2];
+                        Object value = globals.value(index);
+                        if (value == GlobalTable.UNDEFINED) {
+                            throw error(function, pc, "Undefined variable '" + globals.name(index) + "'.");
+                        }
+                        Value.set(values, refs, base + code[pc + 1], value);
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.SET_GLOBAL: {
+                        int index = code[pc + 1];
+                        if (globals.value(index) == GlobalTable.UNDEFINED) {
+                            throw error(function, pc,
+                                    "Undefined variable '" + globals.name(index) + "' for assignment.");
+                        }
+                        globals.define(index, Value.get(values, refs, base + code[pc + 2]));
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.DEFINE_GLOBAL:
+                        globals.define(code[pc + 1], Value.get(values, refs, base + code[pc + 2]));
+                        pc += 3;
+                        break;
+
+                    case RegisterOp.EQUAL:
+                    case RegisterOp.NOT_EQUAL: {
+                        // Valores com etiquetas diferentes nunca são iguais, e números
+                        // são iguais se os bits forem (como em Double.equals).
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        boolean equal = x == y && (x != Value.OBJECT || Operations.isEqual(
+                                object(values, refs, base, constantValues, constantRefs, b),
+                                object(values, refs, base, constantValues, constantRefs, c)));
+                        values[base + code[pc + 1]] = equal == (code[pc] == RegisterOp.EQUAL)
+                                ? Value.TRUE : Value.FALSE;
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.LESS: {
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        values[base + code[pc + 1]] = Value.asNumber(x) < Value.asNumber(y) ? Value.TRUE : Value.FALSE;
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.LESS_EQUAL: {
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        values[base + code[pc + 1]] = Value.asNumber(x) <= Value.asNumber(y) ? Value.TRUE : Value.FALSE;
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.ADD: {
+                        int a = base + code[pc + 1];
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        if (Value.isNumber(x) && Value.isNumber(y)) {
+                            values[a] = Value.number(Value.asNumber(x) + Value.asNumber(y));
+                        } else {
+                            Object result = Operations.concatenate(
+                                    object(values, refs, base, constantValues, constantRefs, b),
+                                    object(values, refs, base, constantValues, constantRefs, c),
+                                    function.lines[pc]);
+                            values[a] = Value.OBJECT;
+                            refs[a] = result;
+                        }
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.SUBTRACT: {
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        values[base + code[pc + 1]] = Value.number(Value.asNumber(x) - Value.asNumber(y));
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.MULTIPLY: {
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        values[base + code[pc + 1]] = Value.number(Value.asNumber(x) * Value.asNumber(y));
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.DIVIDE: {
+                        int b = code[pc + 2];
+                        int c = code[pc + 3];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        double right = Value.asNumber(y);
+                        if (right == 0.0) {
+                            throw error(function, pc, "Division by zero.");
+                        }
+                        values[base + code[pc + 1]] = Value.number(Value.asNumber(x) / right);
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.NOT: {
+                        int b = code[pc + 2];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        values[base + code[pc + 1]] = isFalsey(x) ? Value.TRUE : Value.FALSE;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.NEGATE: {
+                        int b = code[pc + 2];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        if (!Value.isNumber(x)) {
+                            throw error(function, pc, "Operand must be a number.");
+                        }
+                        values[base + code[pc + 1]] = Value.number(-Value.asNumber(x));
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.PRINT:
+                        System.out.println(Operations.stringify(Value.get(values, refs, base + code[pc + 1])));
+                        pc += 2;
+                        break;
+
+                    case RegisterOp.JUMP:
+                        pc = code[pc + 1];
+                        break;
+                    case RegisterOp.JUMP_IF_FALSE:
+                        pc = isFalsey(values[base + code[pc + 1]]) ? code[pc + 2] : pc + 3;
+                        break;
+                    case RegisterOp.JUMP_IF_TRUE:
+                        pc = isFalsey(values[base + code[pc + 1]]) ? pc + 3 : code[pc + 2];
+                        break;
+                    case RegisterOp.JUMP_IF_NOT_LESS: {
+                        int b = code[pc + 1];
+                        int c = code[pc + 2];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        pc = Value.asNumber(x) < Value.asNumber(y) ? pc + 4 : code[pc + 3];
+                        break;
+                    }
+                    case RegisterOp.JUMP_IF_NOT_LESS_EQUAL: {
+                        int b = code[pc + 1];
+                        int c = code[pc + 2];
+                        long x = b >= 0 ? values[base + b] : constantValues[~b];
+                        long y = c >= 0 ? values[base + c] : constantValues[~c];
+                        checkNumbers(function, pc, x, y);
+                        pc = Value.asNumber(x) <= Value.asNumber(y) ? pc + 4 : code[pc + 3];
+                        break;
+                    }
+
+                    case RegisterOp.CALL:
+                        frame.ip = pc + 3;
+                        stack.callValue(base + code[pc + 1], code[pc + 2]);
+                        continue reload;
+                    case RegisterOp.TAIL_CALL:
+                        frame.ip = pc + 3;
+                        stack.tailCall(frame, base + code[pc + 1], code[pc + 2]);
+                        continue reload;
+                    case RegisterOp.GET_METHOD: {
+                        int a = base + code[pc + 1];
+                        int cache = code[pc + 3];
+                        ObjInstance instance = instance(function, pc, values, refs, a,
+                                "Only instances have properties.");
+                        String key = (String) constantRefs[code[pc + 2]];
+                        int slot = Operations.lookUp(function, cache, instance, key);
+                        if (slot >= 0) {
+                            // Um campo: o valor dele é chamado no lugar do objeto.
+                            values[a] = instance.values[slot];
+                            refs[a] = instance.refs[slot];
+                            values[a + 1] = Value.OBJECT;
+                            refs[a + 1] = ValueStack.FIELD;
+                        } else {
+                            values[a + 1] = Value.OBJECT;
+                            refs[a + 1] = Operations.method(function, cache, key, function.lines[pc]);
+                        }
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.CALL_METHOD:
+                        frame.ip = pc + 3;
+                        stack.invoke(base + code[pc + 1] + 1, code[pc + 2]);
+                        continue reload;
+                    case RegisterOp.TAIL_CALL_METHOD:
+                        frame.ip = pc + 3;
+                        stack.tailInvoke(frame, base + code[pc + 1] + 1, code[pc + 2]);
+                        continue reload;
+                    case RegisterOp.CLOSURE: {
+                        int a = base + code[pc + 1];
+                        ObjFunction target = (ObjFunction) constantRefs[code[pc + 2]];
+                        ObjClosure closure = new ObjClosure(target, frame.closure, values, refs, base);
+                        values[a] = Value.OBJECT;
+                        refs[a] = closure;
+                        pc += 3;
+                        break;
+                    }
+                    case RegisterOp.RETURN: {
+                        // Um inicializador sempre retorna 'this' (o slot 0).
+                        int from = function.isInitializer ? base : base + code[pc + 1];
+                        stack.frameCount--;
+                        if (stack.frameCount == 0) {
+                            return; // Fim do script
+                        }
+                        int result = frame.resultSlot;
+                        values[result] = values[from];
+                        refs[result] = refs[from];
+                        stack.release(frame, result + 1);
+                        frame.closure = null;
+                        continue reload;
+                    }
+
+                    case RegisterOp.CLASS: {
+                        int a = base + code[pc + 1];
+                        String name = (String) constantRefs[code[pc + 2]];
+                        ObjClass klass = Operations.newClass(name, values, refs, a, code[pc + 3]);
+                        values[a] = Value.OBJECT;
+                        refs[a] = klass;
+                        pc += 4;
+                        break;
+                    }
+                    case RegisterOp.CHECK_SUPERCLASS: {
+                        int a = base + code[pc + 1];
+                        if (values[a] != Value.OBJECT || !(refs[a] instanceof ObjClass)) {
+                            throw error(function, pc, "Superclass must be a class.");
+                        }
+                        pc += 2;
+                        break;
+                    }
+                    case RegisterOp.GET_PROPERTY: {
+                        int a = base + code[pc + 1];
+                        int cache = code[pc + 4];
+                        ObjInstance instance = instance(function, pc, values, refs, base + code[pc + 2],
+                                "Only instances have properties.");
+                        String key = (String) constantRefs[code[pc + 3]];
+                        int slot = Operations.lookUp(function, cache, instance, key);
+                        if (slot >= 0) {
+                            values[a] = instance.values[slot];
+                            refs[a] = instance.refs[slot];
+                        } else {
+                            ObjClosure method = Operations.method(function, cache, key, function.lines[pc]);
+                            values[a] = Value.OBJECT;
+                            refs[a] = new ObjBoundMethod(instance, method);
+                        }
+                        pc += 5;
+                        break;
+                    }
+                    case RegisterOp.CHECK_INSTANCE:
+                        instance(function, pc, values, refs, base + code[pc + 1], "Only instances have fields.");
+                        pc += 2;
+                        break;
+                    case RegisterOp.SET_PROPERTY: {
+                        ObjInstance instance = (ObjInstance) refs[base + code[pc + 1]];
+                        int c = code[pc + 4];
+                        long value = c >= 0 ? values[base + c] : constantValues[~c];
+                        Object ref = c >= 0 ? refs[base + c] : constantRefs[~c];
+                        Operations.setField(function, code[pc + 3], instance, (String) constantRefs[code[pc + 2]],
+                                value, ref);
+                        pc += 5;
+                        break;
+                    }
+                    case RegisterOp.GET_SUPER: {
+                        int a = base + code[pc + 1];
+                        String name = (String) constantRefs[code[pc + 4]];
+                        ObjClosure method = ((ObjClass) refs[base + code[pc + 3]]).findMethod(name);
+                        if (method == null) {
+                            throw error(function, pc, "Undefined property '" + name + "'.");
+                        }
+                        ObjBoundMethod bound = new ObjBoundMethod(refs[base + code[pc + 2]], method);
+                        values[a] = Value.OBJECT;
+                        refs[a] = bound;
+                        pc += 5;
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[pc]);
+                }
+            }
+        }
+    }
+
+    // O valor de um operando RK como objeto.
+    private static Object object(long[] values, Object[] refs, int base, long[] constantValues,
+            Object[] constantRefs, int operand) {
+        return operand >= 0
+                ? Value.get(values, refs, base + operand)
+                : Value.get(constantValues, constantRefs, ~operand);
+    }
+
+    private static ObjInstance instance(ObjFunction function, int pc, long[] values, Object[] refs, int index,
+            String message) {
+        if (values[index] != Value.OBJECT || !(refs[index] instanceof ObjInstance)) {
+            throw error(function, pc, message);
+        }
+        return (ObjInstance) refs[index];
+    }
+
+    private static boolean isFalsey(long value) {
+        return value == Value.NIL || value == Value.FALSE;
+    }
+
+    private static void checkNumbers(ObjFunction function, int pc, long x, long y) {
+        if (!Value.isNumber(x) || !Value.isNumber(y)) {
+            throw error(function, pc, "Operands must be numbers.");
+        }
+    }
+
+    // Um erro na instrução que começa em 'pc'.
+    private static RuntimeError error(ObjFunction function, int pc, String message) {
+        return Operations.error(function.lines[pc], message);
+    }
+}
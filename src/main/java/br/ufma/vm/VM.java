@@ -0,0 +1,769 @@
+package br.ufma.vm;
+
+import br.ufma.Engine;
+import br.ufma.GlobalTable;
+import br.ufma.Lox;
+import br.ufma.RuntimeError;
+import br.ufma.Stmt;
+import br.ufma.Value;
+import br.ufma.vm.ValueStack.CallFrame;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// A máquina virtual de pilha: compila o programa resolvido para bytecode
+// (Compiler) e o executa em um laço de despacho único, sem recursão Java nas
+// chamadas Lox. Produz a mesma saída e os mesmos erros que o Interpreter. A
+// pilha e o protocolo de chamada estão em ValueStack.
+//
+// Nos programas do Benchmark, ela fica perto do interpretador da AST (entre
+// 0,7x e 1,8x, conforme o programa e a execução), longe de dez vezes mais
+// rápida: o interpretador da AST já lê slots resolvidos e números sem
+// empacotar, e sobra pouco para o bytecode ganhar. Para código Lox rápido, o
+// caminho é o --engine=jit. O que mais pesa aqui é que o laço de despacho é
+// chamado uma vez por frame (veja execute), o que deixa a JVM compilá-lo como
+// um método comum, e não só pela substituição na pilha (OSR) de uma única
+// chamada que dura o programa inteiro, que gerava código mais lento.
+public final class VM implements Engine {
+    private final GlobalTable globals = new GlobalTable();
+    private final Map<String, String> strings = Engine.newStringTable();
+    private final ValueStack stack;
+
+    // Os valores das globais, na representação de Value, nos índices dados pela
+    // GlobalTable (que aqui só guarda os índices e os nomes). Uma global ainda
+    // não declarada é o objeto GlobalTable.UNDEFINED.
+    private long[] globalValues = new long[0];
+    private Object[] globalRefs = new Object[0];
+
+    // 'maxDepth' é o número máximo de chamadas Lox aninhadas antes de um erro
+    // "Stack overflow.".
+    public VM(int maxDepth) {
+        this.stack = new ValueStack(maxDepth);
+    }
+
+    @Override
+    public GlobalTable globals() {
+        return globals;
+    }
+
+    @Override
+    public Map<String, String> strings() {
+        return strings;
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        ObjFunction script = new Compiler().compile(statements);
+        if (script == null) {
+            return; // O erro de compilação já foi reportado
+        }
+        growGlobals(globals.size());
+        try {
+            stack.pushFrame(new ObjClosure(script), 0, 0);
+            run();
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } finally {
+            stack.reset();
+        }
+    }
+
+    // Abre espaço para as globais que o Resolver acabou de indexar.
+    private void growGlobals(int count) {
+        int old = globalValues.length;
+        if (count > old) {
+            globalValues = Arrays.copyOf(globalValues, count);
+            globalRefs = Arrays.copyOf(globalRefs, count);
+            Arrays.fill(globalValues, old, count, Value.OBJECT);
+            Arrays.fill(globalRefs, old, count, GlobalTable.UNDEFINED);
+        }
+    }
+
+    // O laço de despacho. O estado do frame atual fica em variáveis locais de
+    // execute; a cada chamada ou retorno, execute volta e é chamado de novo para
+    // o novo frame atual.
+    //
+    // Toda escrita de um valor que não é objeto deixa a posição de 'refs' em
+    // null, para que a pilha não segure objetos que já saíram dela. As contas e
+    // as comparações numéricas não precisam gravá-la: os operandos são números,
+    // cujas posições já estão em null, e o resultado fica no lugar deles. Pela
+    // mesma razão, as cópias de valores copiam 'refs' sem olhar a etiqueta.
+    private void run() {
+        while (execute()) {
+            // Cada volta é uma chamada ou um retorno
+        }
+    }
+
+    // Executa o frame atual até uma chamada ou um retorno trocá-lo; retorna
+    // false no fim do script.
+    private boolean execute() {
+        ValueStack stack = this.stack;
+        CallFrame frame = stack.frames[stack.frameCount - 1];
+        ObjFunction function = frame.closure.function;
+        byte[] code = function.code;
+        long[] constantValues = function.constantValues;
+        Object[] constantRefs = function.constantRefs;
+        long[] upvalueValues = frame.closure.upvalueValues;
+        Object[] upvalueRefs = frame.closure.upvalueRefs;
+        int ip = frame.ip;
+        int base = frame.base;
+        int sp = stack.sp;
+        long[] values = stack.values;
+        Object[] refs = stack.refs;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT: {
+                    int index = readShort(code, ip);
+                    ip += 2;
+                    values[sp] = constantValues[index];
+                    refs[sp] = constantRefs[index];
+                    sp++;
+                    break;
+                }
+                case OpCode.NIL:
+                    values[sp] = Value.NIL;
+                    refs[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    values[sp] = Value.TRUE;
+                    refs[sp++] = null;
+                    break;
+                case OpCode.FALSE:
+                    values[sp] = Value.FALSE;
+                    refs[sp++] = null;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+
+                case OpCode.GET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    values[sp] = values[slot];
+                    refs[sp] = refs[slot];
+                    sp++;
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    values[slot] = values[sp - 1];
+                    refs[slot] = refs[sp - 1];
+                    break;
+                }
+                case OpCode.STORE_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    sp--;
+                    values[slot] = values[sp];
+                    refs[slot] = refs[sp];
+                    break;
+                }
+                case OpCode.GET_LOCAL_CELL: {
+                    ObjCell cell = (ObjCell) refs[base + readShort(code, ip)];
+                    ip += 2;
+                    values[sp] = cell.value;
+                    refs[sp++] = cell.ref;
+                    break;
+                }
+                case OpCode.SET_LOCAL_CELL: {
+                    ObjCell cell = (ObjCell) refs[base + readShort(code, ip)];
+                    ip += 2;
+                    cell.value = values[sp - 1];
+                    cell.ref = refs[sp - 1];
+                    break;
+                }
+                case OpCode.NEW_CELL:
+                    refs[sp - 1] = new ObjCell(values[sp - 1], refs[sp - 1]);
+                    values[sp - 1] = Value.OBJECT;
+                    break;
+                case OpCode.STORE_LOCAL_CELL: {
+                    ObjCell cell = (ObjCell) refs[base + readShort(code, ip)];
+                    ip += 2;
+                    sp--;
+                    cell.value = values[sp];
+                    cell.ref = refs[sp];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    int index = readShort(code, ip);
+                    ip += 2;
+                    values[sp] = upvalueValues[index];
+                    refs[sp++] = upvalueRefs[index];
+                    break;
+                }
+                case OpCode.GET_UPVALUE_CELL: {
+                    ObjCell cell = (ObjCell) upvalueRefs[readShort(code, ip)];
+                    ip += 2;
+                    values[sp] = cell.value;
+                    refs[sp++] = cell.ref;
+                    break;
+                }
+                case OpCode.SET_UPVALUE_CELL: {
+                    ObjCell cell = (ObjCell) upvalueRefs[readShort(code, ip)];
+                    ip += 2;
+                    cell.value = values[sp - 1];
+                    cell.ref = refs[sp - 1];
+                    break;
+                }
+                case OpCode.STORE_UPVALUE_CELL: {
+                    ObjCell cell = (ObjCell) upvalueRefs[readShort(code, ip)];
+                    ip += 2;
+                    sp--;
+                    cell.value = values[sp];
+                    cell.ref = refs[sp];
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    int index = readShort(code, ip);
+                    ip += 2;
+                    Object ref = globalRefs[index];
+                    if (ref == GlobalTable.UNDEFINED) {
+                        throw error(function, ip, "Undefined variable '" + globals.name(index) + "'.");
+                    }
+                    values[sp] = globalValues[index];
+                    refs[sp++] = ref;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int index = readShort(code, ip);
+                    ip += 2;
+                    if (globalRefs[index] == GlobalTable.UNDEFINED) {
+                        throw error(function, ip,
+                                "Undefined variable '" + globals.name(index) + "' for assignment.");
+                    }
+                    globalValues[index] = values[sp - 1];
+                    globalRefs[index] = refs[sp - 1];
+                    break;
+                }
+                case OpCode.STORE_GLOBAL: {
+                    int index = readShort(code, ip);
+                    ip += 2;
+                    if (globalRefs[index] == GlobalTable.UNDEFINED) {
+                        throw error(function, ip,
+                                "Undefined variable '" + globals.name(index) + "' for assignment.");
+                    }
+                    sp--;
+                    globalValues[index] = values[sp];
+                    globalRefs[index] = refs[sp];
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    int index = readShort(code, ip);
+                    ip += 2;
+                    sp--;
+                    globalValues[index] = values[sp];
+                    globalRefs[index] = refs[sp];
+                    break;
+                }
+
+                case OpCode.EQUAL:
+                case OpCode.NOT_EQUAL: {
+                    // Valores com etiquetas diferentes nunca são iguais, e números
+                    // são iguais se os bits forem (como em Double.equals).
+                    long a = values[sp - 2];
+                    long b = values[sp - 1];
+                    boolean equal = a == b && (a != Value.OBJECT || Operations.isEqual(refs[sp - 2], refs[sp - 1]));
+                    sp--;
+                    values[sp - 1] = equal == (code[ip - 1] == OpCode.EQUAL) ? Value.TRUE : Value.FALSE;
+                    refs[sp - 1] = null;
+                    break;
+                }
+                case OpCode.GREATER: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    values[sp - 1] = Value.asNumber(values[sp - 1]) > Value.asNumber(values[sp])
+                            ? Value.TRUE : Value.FALSE;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    values[sp - 1] = Value.asNumber(values[sp - 1]) >= Value.asNumber(values[sp])
+                            ? Value.TRUE : Value.FALSE;
+                    break;
+                }
+                case OpCode.LESS: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    values[sp - 1] = Value.asNumber(values[sp - 1]) < Value.asNumber(values[sp])
+                            ? Value.TRUE : Value.FALSE;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    values[sp - 1] = Value.asNumber(values[sp - 1]) <= Value.asNumber(values[sp])
+                            ? Value.TRUE : Value.FALSE;
+                    break;
+                }
+                case OpCode.ADD: {
+                    long a = values[sp - 2];
+                    long b = values[sp - 1];
+                    if (Value.isNumber(a) && Value.isNumber(b)) {
+                        values[sp - 2] = Value.number(Value.asNumber(a) + Value.asNumber(b));
+                    } else {
+                        refs[sp - 2] = Operations.concatenate(Value.get(values, refs, sp - 2),
+                                Value.get(values, refs, sp - 1), function.lines[ip - 1]);
+                        values[sp - 2] = Value.OBJECT;
+                    }
+                    sp--;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    values[sp - 1] = Value.number(Value.asNumber(values[sp - 1]) - Value.asNumber(values[sp]));
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    values[sp - 1] = Value.number(Value.asNumber(values[sp - 1]) * Value.asNumber(values[sp]));
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    checkNumbers(function, ip, values, sp);
+                    sp--;
+                    double right = Value.asNumber(values[sp]);
+                    if (right == 0.0) {
+                        throw error(function, ip, "Division by zero.");
+                    }
+                    values[sp - 1] = Value.number(Value.asNumber(values[sp - 1]) / right);
+                    break;
+                }
+                case OpCode.ADD_CONSTANT: {
+                    long a = values[sp - 1];
+                    double k = Value.asNumber(constantValues[readShort(code, ip)]);
+                    ip += 2;
+                    if (Value.isNumber(a)) {
+                        values[sp - 1] = Value.number(Value.asNumber(a) + k);
+                    } else {
+                        refs[sp - 1] = Operations.concatenate(Value.get(values, refs, sp - 1), k,
+                                function.lines[ip - 1]);
+                        values[sp - 1] = Value.OBJECT;
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT_CONSTANT: {
+                    double a = number(function, ip, values[sp - 1]);
+                    values[sp - 1] = Value.number(a - Value.asNumber(constantValues[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.MULTIPLY_CONSTANT: {
+                    double a = number(function, ip, values[sp - 1]);
+                    values[sp - 1] = Value.number(a * Value.asNumber(constantValues[readShort(code, ip)]));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GREATER_CONSTANT: {
+                    double a = number(function, ip, values[sp - 1]);
+                    values[sp - 1] = a > Value.asNumber(constantValues[readShort(code, ip)]) ? Value.TRUE : Value.FALSE;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL_CONSTANT: {
+                    double a = number(function, ip, values[sp - 1]);
+                    values[sp - 1] = a >= Value.asNumber(constantValues[readShort(code, ip)]) ? Value.TRUE : Value.FALSE;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.LESS_CONSTANT: {
+                    double a = number(function, ip, values[sp - 1]);
+                    values[sp - 1] = a < Value.asNumber(constantValues[readShort(code, ip)]) ? Value.TRUE : Value.FALSE;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.LESS_EQUAL_CONSTANT: {
+                    double a = number(function, ip, values[sp - 1]);
+                    values[sp - 1] = a <= Value.asNumber(constantValues[readShort(code, ip)]) ? Value.TRUE : Value.FALSE;
+                    ip += 2;
+                    break;
+                }
+                case OpCode.ADD_CONSTANT_TO_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    double k = Value.asNumber(constantValues[readShort(code, ip + 2)]);
+                    ip += 4;
+                    long a = values[slot];
+                    if (Value.isNumber(a)) {
+                        values[slot] = Value.number(Value.asNumber(a) + k);
+                    } else {
+                        refs[slot] = Operations.concatenate(Value.get(values, refs, slot), k, function.lines[ip - 1]);
+                        values[slot] = Value.OBJECT;
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT_CONSTANT_FROM_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    double k = Value.asNumber(constantValues[readShort(code, ip + 2)]);
+                    ip += 4;
+                    values[slot] = Value.number(number(function, ip, values[slot]) - k);
+                    break;
+                }
+                case OpCode.ADD_TO_LOCAL: {
+                    int slot = base + readShort(code, ip);
+                    ip += 2;
+                    sp--;
+                    long a = values[slot];
+                    long b = values[sp];
+                    if (Value.isNumber(a) && Value.isNumber(b)) {
+                        values[slot] = Value.number(Value.asNumber(a) + Value.asNumber(b));
+                    } else {
+                        refs[slot] = Operations.concatenate(Value.get(values, refs, slot),
+                                Value.get(values, refs, sp), function.lines[ip - 1]);
+                        values[slot] = Value.OBJECT;
+                    }
+                    break;
+                }
+                case OpCode.ADD_LOCAL_CONSTANT: {
+                    int slot = base + readShort(code, ip);
+                    double k = Value.asNumber(constantValues[readShort(code, ip + 2)]);
+                    ip += 4;
+                    long a = values[slot];
+                    if (Value.isNumber(a)) {
+                        values[sp] = Value.number(Value.asNumber(a) + k);
+                        refs[sp] = null;
+                    } else {
+                        refs[sp] = Operations.concatenate(Value.get(values, refs, slot), k, function.lines[ip - 1]);
+                        values[sp] = Value.OBJECT;
+                    }
+                    sp++;
+                    break;
+                }
+                case OpCode.SUBTRACT_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 4, values[base + readShort(code, ip)]);
+                    values[sp] = Value.number(a - Value.asNumber(constantValues[readShort(code, ip + 2)]));
+                    refs[sp++] = null;
+                    ip += 4;
+                    break;
+                }
+                case OpCode.MULTIPLY_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 4, values[base + readShort(code, ip)]);
+                    values[sp] = Value.number(a * Value.asNumber(constantValues[readShort(code, ip + 2)]));
+                    refs[sp++] = null;
+                    ip += 4;
+                    break;
+                }
+                case OpCode.GREATER_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 4, values[base + readShort(code, ip)]);
+                    values[sp] = a > Value.asNumber(constantValues[readShort(code, ip + 2)]) ? Value.TRUE : Value.FALSE;
+                    refs[sp++] = null;
+                    ip += 4;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 4, values[base + readShort(code, ip)]);
+                    values[sp] = a >= Value.asNumber(constantValues[readShort(code, ip + 2)]) ? Value.TRUE : Value.FALSE;
+                    refs[sp++] = null;
+                    ip += 4;
+                    break;
+                }
+                case OpCode.LESS_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 4, values[base + readShort(code, ip)]);
+                    values[sp] = a < Value.asNumber(constantValues[readShort(code, ip + 2)]) ? Value.TRUE : Value.FALSE;
+                    refs[sp++] = null;
+                    ip += 4;
+                    break;
+                }
+                case OpCode.LESS_EQUAL_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 4, values[base + readShort(code, ip)]);
+                    values[sp] = a <= Value.asNumber(constantValues[readShort(code, ip + 2)]) ? Value.TRUE : Value.FALSE;
+                    refs[sp++] = null;
+                    ip += 4;
+                    break;
+                }
+                case OpCode.NOT:
+                    values[sp - 1] = isFalsey(values[sp - 1]) ? Value.TRUE : Value.FALSE;
+                    refs[sp - 1] = null;
+                    break;
+                case OpCode.NEGATE: {
+                    if (!Value.isNumber(values[sp - 1])) {
+                        throw error(function, ip, "Operand must be a number.");
+                    }
+                    values[sp - 1] = Value.number(-Value.asNumber(values[sp - 1]));
+                    break;
+                }
+                case OpCode.PRINT:
+                    sp--;
+                    System.out.println(Operations.stringify(Value.get(values, refs, sp)));
+                    break;
+
+                case OpCode.JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    ip += isFalsey(values[sp - 1]) ? readShort(code, ip) + 2 : 2;
+                    break;
+                case OpCode.JUMP_IF_TRUE:
+                    ip += isFalsey(values[sp - 1]) ? 2 : readShort(code, ip) + 2;
+                    break;
+                case OpCode.POP_JUMP_IF_FALSE:
+                    sp--;
+                    ip += isFalsey(values[sp]) ? readShort(code, ip) + 2 : 2;
+                    break;
+                case OpCode.LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 6, values[base + readShort(code, ip)]);
+                    ip += a > Value.asNumber(constantValues[readShort(code, ip + 2)]) ? 6 : readShort(code, ip + 4) + 6;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 6, values[base + readShort(code, ip)]);
+                    ip += a >= Value.asNumber(constantValues[readShort(code, ip + 2)]) ? 6 : readShort(code, ip + 4) + 6;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 6, values[base + readShort(code, ip)]);
+                    ip += a < Value.asNumber(constantValues[readShort(code, ip + 2)]) ? 6 : readShort(code, ip + 4) + 6;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL_LOCAL_CONSTANT: {
+                    double a = number(function, ip + 6, values[base + readShort(code, ip)]);
+                    ip += a <= Value.asNumber(constantValues[readShort(code, ip + 2)]) ? 6 : readShort(code, ip + 4) + 6;
+                    break;
+                }
+
+                case OpCode.CALL: {
+                    int count = code[ip] & 0xff;
+                    frame.ip = ip + 1;
+                    stack.sp = sp;
+                    stack.callValue(sp - count - 1, count);
+                    return true;
+                }
+                case OpCode.TAIL_CALL: {
+                    int count = code[ip] & 0xff;
+                    frame.ip = ip + 1;
+                    stack.sp = sp;
+                    stack.tailCall(frame, sp - count - 1, count);
+                    return true;
+                }
+                case OpCode.GET_METHOD: {
+                    int name = readShort(code, ip);
+                    int cache = readShort(code, ip + 2);
+                    ip += 4;
+                    ObjInstance instance = instance(function, ip, values, refs, sp - 1,
+                            "Only instances have properties.");
+                    String key = (String) constantRefs[name];
+                    int slot = Operations.lookUp(function, cache, instance, key);
+                    if (slot >= 0) {
+                        // Um campo: o valor dele é chamado no lugar do objeto.
+                        values[sp - 1] = instance.values[slot];
+                        refs[sp - 1] = instance.refs[slot];
+                        values[sp] = Value.OBJECT;
+                        refs[sp] = ValueStack.FIELD;
+                    } else {
+                        values[sp] = Value.OBJECT;
+                        refs[sp] = Operations.method(function, cache, key, function.lines[ip - 1]);
+                    }
+                    sp++;
+                    break;
+                }
+                case OpCode.CALL_METHOD: {
+                    int count = code[ip] & 0xff;
+                    frame.ip = ip + 1;
+                    stack.sp = sp;
+                    stack.invoke(sp - count - 1, count);
+                    return true;
+                }
+                case OpCode.INVOKE: {
+                    int name = readShort(code, ip);
+                    int cache = readShort(code, ip + 2);
+                    int count = code[ip + 4] & 0xff;
+                    ip += 5;
+                    int receiver = sp - count - 1;
+                    ObjInstance instance = instance(function, ip, values, refs, receiver,
+                            "Only instances have properties.");
+                    String key = (String) constantRefs[name];
+                    int slot = Operations.lookUp(function, cache, instance, key);
+                    frame.ip = ip;
+                    stack.sp = sp;
+                    if (slot >= 0) {
+                        // Um campo: o valor dele é chamado no lugar do objeto.
+                        values[receiver] = instance.values[slot];
+                        refs[receiver] = instance.refs[slot];
+                        stack.callValue(receiver, count);
+                    } else {
+                        stack.invoke(Operations.method(function, cache, key, function.lines[ip - 1]), receiver, count);
+                    }
+                    return true;
+                }
+                case OpCode.TAIL_CALL_METHOD: {
+                    int count = code[ip] & 0xff;
+                    frame.ip = ip + 1;
+                    stack.sp = sp;
+                    stack.tailInvoke(frame, sp - count - 1, count);
+                    return true;
+                }
+                case OpCode.CLOSURE: {
+                    ObjFunction target = (ObjFunction) constantRefs[readShort(code, ip)];
+                    ip += 2;
+                    values[sp] = Value.OBJECT;
+                    refs[sp] = new ObjClosure(target, frame.closure, values, refs, base);
+                    sp++;
+                    break;
+                }
+                case OpCode.RETURN: {
+                    // Um inicializador sempre retorna 'this' (o slot 0).
+                    int from = function.isInitializer ? base : sp - 1;
+                    stack.frameCount--;
+                    if (stack.frameCount == 0) {
+                        stack.sp = 0;
+                        return false; // Fim do script
+                    }
+                    int result = frame.resultSlot;
+                    values[result] = values[from];
+                    refs[result] = refs[from];
+                    stack.release(frame, result + 1);
+                    stack.sp = result + 1;
+                    frame.closure = null;
+                    return true;
+                }
+
+                case OpCode.CLASS: {
+                    String name = (String) constantRefs[readShort(code, ip)];
+                    int count = readShort(code, ip + 2);
+                    ip += 4;
+                    sp -= count;
+                    ObjClass klass = Operations.newClass(name, values, refs, sp - 1, count);
+                    values[sp - 1] = Value.OBJECT;
+                    refs[sp - 1] = klass;
+                    break;
+                }
+                case OpCode.CHECK_SUPERCLASS:
+                    if (values[sp - 1] != Value.OBJECT || !(refs[sp - 1] instanceof ObjClass)) {
+                        throw error(function, ip, "Superclass must be a class.");
+                    }
+                    break;
+                case OpCode.GET_PROPERTY: {
+                    int name = readShort(code, ip);
+                    int cache = readShort(code, ip + 2);
+                    ip += 4;
+                    ObjInstance instance = instance(function, ip, values, refs, sp - 1,
+                            "Only instances have properties.");
+                    String key = (String) constantRefs[name];
+                    int slot = Operations.lookUp(function, cache, instance, key);
+                    if (slot >= 0) {
+                        values[sp - 1] = instance.values[slot];
+                        refs[sp - 1] = instance.refs[slot];
+                    } else {
+                        refs[sp - 1] = new ObjBoundMethod(instance, Operations.method(function, cache, key, function.lines[ip - 1]));
+                    }
+                    break;
+                }
+                case OpCode.GET_LOCAL_PROPERTY: {
+                    int local = base + readShort(code, ip);
+                    int name = readShort(code, ip + 2);
+                    int cache = readShort(code, ip + 4);
+                    ip += 6;
+                    ObjInstance instance = instance(function, ip, values, refs, local,
+                            "Only instances have properties.");
+                    String key = (String) constantRefs[name];
+                    int slot = Operations.lookUp(function, cache, instance, key);
+                    if (slot >= 0) {
+                        values[sp] = instance.values[slot];
+                        refs[sp] = instance.refs[slot];
+                    } else {
+                        values[sp] = Value.OBJECT;
+                        refs[sp] = new ObjBoundMethod(instance, Operations.method(function, cache, key, function.lines[ip - 1]));
+                    }
+                    sp++;
+                    break;
+                }
+                case OpCode.CHECK_INSTANCE:
+                    instance(function, ip, values, refs, sp - 1, "Only instances have fields.");
+                    break;
+                case OpCode.SET_PROPERTY: {
+                    int name = readShort(code, ip);
+                    int cache = readShort(code, ip + 2);
+                    ip += 4;
+                    ObjInstance instance = (ObjInstance) refs[sp - 2];
+                    Operations.setField(function, cache, instance, (String) constantRefs[name], values[sp - 1], refs[sp - 1]);
+                    sp--;
+                    values[sp - 1] = values[sp];
+                    refs[sp - 1] = refs[sp];
+                    break;
+                }
+                case OpCode.STORE_THIS_PROPERTY: {
+                    ObjInstance instance = (ObjInstance) refs[base + readShort(code, ip)];
+                    int name = readShort(code, ip + 2);
+                    int cache = readShort(code, ip + 4);
+                    ip += 6;
+                    sp--;
+                    Operations.setField(function, cache, instance, (String) constantRefs[name], values[sp], refs[sp]);
+                    break;
+                }
+                case OpCode.STORE_PROPERTY: {
+                    int name = readShort(code, ip);
+                    int cache = readShort(code, ip + 2);
+                    ip += 4;
+                    ObjInstance instance = (ObjInstance) refs[sp - 2];
+                    Operations.setField(function, cache, instance, (String) constantRefs[name], values[sp - 1], refs[sp - 1]);
+                    sp -= 2;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constantRefs[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure method = ((ObjClass) refs[sp - 1]).findMethod(name);
+                    if (method == null) {
+                        throw error(function, ip, "Undefined property '" + name + "'.");
+                    }
+                    sp--;
+                    refs[sp - 1] = new ObjBoundMethod(refs[sp - 1], method);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private static ObjInstance instance(ObjFunction function, int ip, long[] values, Object[] refs, int index,
+            String message) {
+        if (values[index] != Value.OBJECT || !(refs[index] instanceof ObjInstance)) {
+            throw error(function, ip, message);
+        }
+        return (ObjInstance) refs[index];
+    }
+
+    // ----------------------------------------------------
+    // Valores
+    // ----------------------------------------------------
+
+    private static boolean isFalsey(long value) {
+        return value == Value.NIL || value == Value.FALSE;
+    }
+
+    // O número de um operando das instruções com uma constante, que é sempre um
+    // número; o erro é o mesmo das contas entre dois valores. 'ip' é o fim da
+    // instrução.
+    private static double number(ObjFunction function, int ip, long value) {
+        if (!Value.isNumber(value)) {
+            throw error(function, ip, "Operands must be numbers.");
+        }
+        return Value.asNumber(value);
+    }
+
+    private static void checkNumbers(ObjFunction function, int ip, long[] values, int sp) {
+        if (!Value.isNumber(values[sp - 2]) || !Value.isNumber(values[sp - 1])) {
+            throw error(function, ip, "Operands must be numbers.");
+        }
+    }
+
+    // ----------------------------------------------------
+    // Erros
+    // ----------------------------------------------------
+
+    // Um erro na instrução que termina antes de 'ip'.
+    private static RuntimeError error(ObjFunction function, int ip, String message) {
+        return Operations.error(function.lines[ip - 1], message);
+    }
+}
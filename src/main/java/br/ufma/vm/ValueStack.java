@@ -0,0 +1,252 @@
+package br.ufma.vm;
+
+import br.ufma.RuntimeError;
+import br.ufma.Token;
+import br.ufma.TokenType;
+import br.ufma.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A pilha de valores e de chamadas das máquinas virtuais, com o protocolo de
+// chamada que as duas compartilham.
+//
+// Os valores ficam na representação de Value, em dois arrays paralelos: números
+// e booleanos só em 'values', e objetos em 'refs'. A posição de 'refs' só é lida
+// quando a etiqueta é Value.OBJECT. Na VM de pilha, toda escrita de um valor que
+// não é objeto a deixa em null (veja VM.execute); na de registradores, só MOVE e
+// LOAD_CONSTANT a limpam, e um registrador pode guardar um objeto antigo até
+// receber outro objeto. Em ambas, as posições ainda não escritas (acima do topo,
+// ou de variáveis ainda não declaradas) podem guardar um objeto antigo até a
+// primeira escrita. Quando uma chamada termina, release limpa a janela dela.
+//
+// Cada chamada ocupa uma janela da pilha a partir de 'base': primeiro os slots
+// das variáveis locais ('this' e os parâmetros no início, como no frame do
+// Interpreter) e depois os operandos (na VM de pilha) ou os registradores
+// temporários (na VM de registradores). O valor chamado fica logo abaixo dos
+// argumentos, e o resultado volta para a posição dele.
+final class ValueStack {
+    // Quantas chamadas mais internas aparecem no rastro de um estouro de pilha.
+    private static final int TRACE_LIMIT = 10;
+
+    // Marca deixada por GET_METHOD no lugar do método quando a propriedade é um
+    // campo: o valor a chamar é o campo, logo abaixo dela.
+    static final Object FIELD = new Object();
+
+    // Uma chamada ativa.
+    static final class CallFrame {
+        ObjClosure closure;
+        int ip; // Próxima instrução (salva quando o frame deixa de ser o atual)
+        int base; // Início dos slots locais na pilha
+        int resultSlot; // Onde o valor de retorno é deixado para quem chamou
+    }
+
+    private final int maxDepth;
+
+    long[] values = new long[1024];
+    Object[] refs = new Object[1024];
+    int sp = 0; // Primeira posição livre (usada pela VM de pilha)
+
+    CallFrame[] frames = new CallFrame[64];
+    int frameCount = 0;
+
+    // 'maxDepth' é o número máximo de chamadas Lox aninhadas antes de um erro
+    // "Stack overflow.".
+    ValueStack(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    // Descarta o que sobrou de uma execução (inclusive uma interrompida por um
+    // erro).
+    void reset() {
+        Arrays.fill(refs, null);
+        sp = 0;
+        frameCount = 0;
+    }
+
+    // Chama o valor em 'calleePos', com os 'count' argumentos logo acima dele.
+    void callValue(int calleePos, int count) {
+        Object callee = values[calleePos] == Value.OBJECT ? refs[calleePos] : null;
+        if (callee instanceof ObjClosure) {
+            ObjClosure closure = (ObjClosure) callee;
+            checkArity(closure.function.arity, count);
+            pushFrame(closure, calleePos + 1, calleePos);
+        } else if (callee instanceof ObjBoundMethod) {
+            // O receptor toma o lugar do método e vira o slot 0 ('this').
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            checkArity(bound.method.function.arity, count);
+            refs[calleePos] = bound.receiver;
+            pushFrame(bound.method, calleePos, calleePos);
+        } else if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            ObjClosure initializer = klass.initializer;
+            checkArity(initializer == null ? 0 : initializer.function.arity, count);
+            refs[calleePos] = new ObjInstance(klass);
+            if (initializer != null) {
+                pushFrame(initializer, calleePos, calleePos);
+            } else {
+                sp = calleePos + 1;
+            }
+        } else {
+            throw error("Can only call functions and classes.");
+        }
+    }
+
+    // Chama o método deixado por GET_METHOD em 'methodPos', com o receptor logo
+    // abaixo dele e os argumentos acima.
+    void invoke(int methodPos, int count) {
+        if (refs[methodPos] == FIELD) {
+            callValue(dropFieldMark(methodPos, count), count);
+            return;
+        }
+        ObjClosure method = (ObjClosure) refs[methodPos];
+        checkArity(method.function.arity, count);
+        values[methodPos] = values[methodPos - 1];
+        refs[methodPos] = refs[methodPos - 1];
+        pushFrame(method, methodPos, methodPos - 1);
+    }
+
+    // Chama o método achado por INVOKE, com o receptor em 'receiverPos' como o
+    // slot 0 ('this') e os argumentos acima dele.
+    void invoke(ObjClosure method, int receiverPos, int count) {
+        checkArity(method.function.arity, count);
+        pushFrame(method, receiverPos, receiverPos);
+    }
+
+    // Remove a marca FIELD, descendo os argumentos para logo acima do campo a
+    // ser chamado, e retorna a posição do campo.
+    private int dropFieldMark(int markPos, int count) {
+        System.arraycopy(values, markPos + 1, values, markPos, count);
+        System.arraycopy(refs, markPos + 1, refs, markPos, count);
+        sp--;
+        return markPos - 1;
+    }
+
+    // Uma chamada em posição de cauda: se o valor chamado é uma função com a
+    // aridade certa, o frame atual é descartado e a nova chamada ocupa o lugar
+    // dele, então recursões de cauda não aumentam a profundidade.
+    void tailCall(CallFrame frame, int calleePos, int count) {
+        if (!isFunction(calleePos, count)) {
+            callValue(calleePos, count);
+            return;
+        }
+        int target = frame.resultSlot;
+        moveDown(calleePos, target, count + 1);
+        release(frame, sp);
+        frameCount--;
+        callValue(target, count);
+    }
+
+    void tailInvoke(CallFrame frame, int methodPos, int count) {
+        if (refs[methodPos] == FIELD) {
+            tailCall(frame, dropFieldMark(methodPos, count), count);
+            return;
+        }
+        if (((ObjClosure) refs[methodPos]).function.arity != count) {
+            invoke(methodPos, count); // Reporta a aridade errada
+            return;
+        }
+        int target = frame.resultSlot;
+        moveDown(methodPos - 1, target, count + 2);
+        release(frame, sp);
+        frameCount--;
+        invoke(target + 1, count);
+    }
+
+    private boolean isFunction(int calleePos, int count) {
+        if (values[calleePos] != Value.OBJECT) {
+            return false;
+        }
+        Object callee = refs[calleePos];
+        if (callee instanceof ObjClosure) {
+            return ((ObjClosure) callee).function.arity == count;
+        }
+        return callee instanceof ObjBoundMethod && ((ObjBoundMethod) callee).method.function.arity == count;
+    }
+
+    private void moveDown(int from, int to, int length) {
+        System.arraycopy(values, from, values, to, length);
+        System.arraycopy(refs, from, refs, to, length);
+        sp = to + length;
+    }
+
+    // Limpa 'refs' da posição 'from' até o fim da janela do frame, que está
+    // terminando, para que a pilha não segure os objetos dele: o coletor da JVM
+    // percorre o array inteiro, e não só até o topo.
+    void release(CallFrame frame, int from) {
+        ObjFunction function = frame.closure.function;
+        Arrays.fill(refs, from, frame.base + function.frameSize + function.maxStack, null);
+    }
+
+    private void checkArity(int arity, int count) {
+        if (arity != count) {
+            throw error("Expected " + arity + " arguments but got " + count + ".");
+        }
+    }
+
+    // Empilha o frame de uma chamada cujos slots começam em 'base' ('this' e os
+    // argumentos já estão lá).
+    void pushFrame(ObjClosure closure, int base, int resultSlot) {
+        if (frameCount > maxDepth) { // O frame do script não conta
+            throw overflow();
+        }
+        ObjFunction function = closure.function;
+        int top = base + function.frameSize;
+        if (top + function.maxStack > values.length) {
+            int length = Math.max(values.length * 2, top + function.maxStack);
+            values = Arrays.copyOf(values, length);
+            refs = Arrays.copyOf(refs, length);
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frame.resultSlot = resultSlot;
+        frameCount++;
+        sp = top;
+
+        // Parâmetros capturados por closures que os alteram vivem em ObjCells.
+        for (int boxed : function.boxedParams) {
+            int slot = base + boxed;
+            long value = values[slot];
+            refs[slot] = new ObjCell(value, value == Value.OBJECT ? refs[slot] : null);
+            values[slot] = Value.OBJECT;
+        }
+    }
+
+    // Um erro na instrução de chamada do frame atual.
+    private RuntimeError error(String message) {
+        return Operations.error(line(frames[frameCount - 1]), message);
+    }
+
+    // O erro de estouro de pilha, com o rastro das chamadas ativas, da mais
+    // interna para a mais externa (no mesmo formato do Interpreter).
+    private RuntimeError overflow() {
+        List<String> trace = new ArrayList<>();
+        int depth = frameCount - 1;
+        for (int i = depth - 1; i >= 0; i--) {
+            CallFrame frame = frames[i + 1];
+            if (depth - i <= TRACE_LIMIT) {
+                trace.add("[line " + line(frame) + "] in " + frame.closure.function.name + "()");
+            } else if (depth - i == TRACE_LIMIT + 1) {
+                trace.add("... " + (i + 1) + " more calls");
+            }
+        }
+        trace.add("[line " + line(frames[0]) + "] in script");
+        int line = line(frames[frameCount - 1]);
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, "", null, line), "Stack overflow.", trace);
+    }
+
+    // A linha da instrução que o frame estava executando (a que termina antes
+    // de 'ip').
+    private static int line(CallFrame frame) {
+        return frame.closure.function.lines[frame.ip - 1];
+    }
+}